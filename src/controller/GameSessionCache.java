@@ -0,0 +1,404 @@
+package controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps lots of open games without keeping lots of controllers. Only the most
+ * recently used games are resident, with a live ReversiController and model.
+ * Every other game is hibernated, written with ReversiController.writeTo into a
+ * fixed size record of a memory-mapped file, so an idle game costs nothing on
+ * the heap and the operating system decides what stays in memory. get wakes a
+ * hibernated game back up with a new controller, legal moves already
+ * calculated, so callers can't tell the difference beyond the few microseconds
+ * it takes.
+ * 
+ * Games are hibernated when there are more resident than the resident limit
+ * (least recently used first), and when they haven't been used for the idle
+ * time. Both are checked whenever a game is fetched or made. Closing the cache
+ * hibernates every game, so the file holds them all and opening it again
+ * carries on where it left off.
+ * 
+ * A game's search, engine, clock and observers aren't hibernated. The
+ * initializer is run on every controller the cache makes, new or woken up, to
+ * set those. A cache is used by one thread at a time, a controller it handed
+ * out is only good until the next call, which may hibernate it.
+ * 
+ * Record layout: in use flag (8 bytes), then ReversiController.HIBERNATED_BYTES
+ * of game, and a game's id is its record number.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class GameSessionCache implements Closeable {
+	
+	private static final int MAGIC = 0x52475343; // "RGSC"
+	private static final int VERSION = 1;
+	private static final int HEADER = 64;
+	private static final int SLOT = 8 + ReversiController.HIBERNATED_BYTES;
+	private static final int SEGMENT_BITS = 20;
+	
+	//header fields: magic, version, then the next game id
+	private static final int NEXT_ID = 8;
+	
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	private final LinkedHashMap<Long, Session> resident = new LinkedHashMap<>(16, 0.75f, true);
+	private int residentLimit;
+	private long idleNanos = Long.MAX_VALUE;
+	private Consumer<ReversiController> initializer;
+	
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long expirations;
+	private long wakeNanos;
+	private long maxWakeNanos;
+	
+	/**
+	 * a resident game
+	 */
+	private static final class Session {
+		private final ReversiController controller;
+		private long lastUsed;
+		
+		private Session(ReversiController controller) {
+			this.controller = controller;
+		}
+	}
+	
+	/**
+	 * opens a cache file, creating an empty one if it doesn't exist
+	 * 
+	 * @param path the file hibernated games are kept in
+	 * @param residentLimit the most games to keep resident
+	 * @return the opened cache
+	 * @throws IOException if the file can't be mapped or isn't a session cache
+	 */
+	public static GameSessionCache open(Path path, int residentLimit) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+			header.order(ByteOrder.nativeOrder());
+			if(channel.size() == HEADER && header.getInt(0) == 0) {
+				header.putInt(0, MAGIC);
+				header.putInt(4, VERSION);
+			}
+			else if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException(path + " isn't a game session cache");
+			}
+			return new GameSessionCache(channel, header, residentLimit);
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Constructor, the segments are mapped as games need them
+	 */
+	private GameSessionCache(FileChannel channel, MappedByteBuffer header, int residentLimit) {
+		this.channel = channel;
+		this.header = header;
+		setResidentLimit(residentLimit);
+	}
+	
+	/**
+	 * sets how many games can be resident at once, hibernating the least
+	 * recently used ones if there are more now
+	 * 
+	 * @param residentLimit the most games to keep resident, at least 1
+	 */
+	public synchronized void setResidentLimit(int residentLimit) {
+		if(residentLimit < 1) {
+			throw new IllegalArgumentException("At least one game has to be resident, not " + residentLimit);
+		}
+		this.residentLimit = residentLimit;
+		trim();
+	}
+	
+	/**
+	 * sets how long a game can go unused before it's hibernated
+	 * 
+	 * @param idleMillis the idle time, 0 to only hibernate over the resident limit
+	 */
+	public synchronized void setIdleMillis(long idleMillis) {
+		this.idleNanos = idleMillis > 0 ? idleMillis * 1000000L : Long.MAX_VALUE;
+		trim();
+	}
+	
+	/**
+	 * sets what's done with every controller the cache makes, e.g. giving it the
+	 * shared search or an engine
+	 * 
+	 * @param initializer called with each new or woken up controller, or null
+	 */
+	public synchronized void setInitializer(Consumer<ReversiController> initializer) {
+		this.initializer = initializer;
+	}
+	
+	/**
+	 * starts a new game
+	 * 
+	 * @return the game's id
+	 * @throws IOException if the file can't grow for it
+	 */
+	public synchronized long newGame() throws IOException {
+		long id = this.header.getLong(NEXT_ID);
+		MappedByteBuffer segment = segment(id);
+		int offset = offset(id);
+		ReversiController controller = new ReversiController();
+		controller.calculateLegal();
+		controller.writeTo(segment, offset + 8);
+		segment.put(offset, (byte) 1);
+		this.header.putLong(NEXT_ID, id + 1);
+		if(this.initializer != null) {
+			this.initializer.accept(controller);
+		}
+		Session session = new Session(controller);
+		session.lastUsed = System.nanoTime();
+		this.resident.put(id, session);
+		trim();
+		return id;
+	}
+	
+	/**
+	 * the controller for a game, woken up if it was hibernated
+	 * 
+	 * @param id the game's id, from newGame
+	 * @return the game's controller, good until the next call to the cache
+	 * @throws IOException if the game's record can't be mapped
+	 * @throws IllegalArgumentException if there's no such game
+	 */
+	public synchronized ReversiController get(long id) throws IOException {
+		long now = System.nanoTime();
+		Session session = this.resident.get(id);
+		if(session != null) {
+			this.hits++;
+		}
+		else {
+			if(!exists(id)) {
+				throw new IllegalArgumentException("No game " + id);
+			}
+			MappedByteBuffer segment = segment(id);
+			ReversiController controller = ReversiController.readFrom(segment, offset(id) + 8);
+			controller.calculateLegal();
+			long woken = System.nanoTime() - now;
+			this.misses++;
+			this.wakeNanos += woken;
+			this.maxWakeNanos = Math.max(this.maxWakeNanos, woken);
+			if(this.initializer != null) {
+				this.initializer.accept(controller);
+			}
+			session = new Session(controller);
+			this.resident.put(id, session);
+		}
+		session.lastUsed = now;
+		trim();
+		return session.controller;
+	}
+	
+	/**
+	 * ends a game, it can't be fetched again
+	 * 
+	 * @param id the game's id
+	 * @throws IOException if the game's record can't be mapped
+	 */
+	public synchronized void remove(long id) throws IOException {
+		this.resident.remove(id);
+		if(exists(id)) {
+			segment(id).put(offset(id), (byte) 0);
+		}
+	}
+	
+	/**
+	 * hibernates every resident game and flushes the file, e.g. before a snapshot
+	 */
+	public synchronized void hibernateAll() {
+		for(Map.Entry<Long, Session> entry : this.resident.entrySet()) {
+			write(entry.getKey(), entry.getValue());
+		}
+		this.resident.clear();
+		force();
+	}
+	
+	/**
+	 * hibernates the least recently used games until the resident limit is kept,
+	 * then any that have been idle too long. The map is in use order, so both
+	 * only ever look at its eldest entries.
+	 */
+	private void trim() {
+		long now = System.nanoTime();
+		Iterator<Map.Entry<Long, Session>> eldest = this.resident.entrySet().iterator();
+		while(eldest.hasNext()) {
+			Map.Entry<Long, Session> entry = eldest.next();
+			if(this.resident.size() > this.residentLimit) {
+				this.evictions++;
+			}
+			else if(now - entry.getValue().lastUsed > this.idleNanos) {
+				this.expirations++;
+			}
+			else {
+				break;
+			}
+			write(entry.getKey(), entry.getValue());
+			eldest.remove();
+		}
+	}
+	
+	/**
+	 * writes a resident game to its record
+	 */
+	private void write(long id, Session session) {
+		try {
+			session.controller.writeTo(segment(id), offset(id) + 8);
+		}
+		catch(IOException e) {
+			// its segment was mapped when the game was made, so it's there already
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * whether there's a game with an id, resident or not
+	 */
+	private boolean exists(long id) throws IOException {
+		return id >= 0 && id < this.header.getLong(NEXT_ID) && segment(id).get(offset(id)) != 0;
+	}
+	
+	/**
+	 * the segment a game's record is in, mapping it (and growing the file) the
+	 * first time it's needed
+	 */
+	private MappedByteBuffer segment(long id) throws IOException {
+		int index = (int) (id >>> SEGMENT_BITS);
+		while(this.segments.size() <= index) {
+			long segmentBytes = (long) SLOT << SEGMENT_BITS;
+			MappedByteBuffer segment = this.channel.map(FileChannel.MapMode.READ_WRITE,
+					HEADER + this.segments.size() * segmentBytes, segmentBytes);
+			segment.order(ByteOrder.nativeOrder());
+			this.segments.add(segment);
+		}
+		return this.segments.get(index);
+	}
+	
+	private static int offset(long id) {
+		return (int) (id & ((1 << SEGMENT_BITS) - 1)) * SLOT;
+	}
+	
+	/**
+	 * getter for the number of games ever started, removed ones included
+	 * 
+	 * @return the next game's id
+	 */
+	public synchronized long getGamesStarted() {
+		return this.header.getLong(NEXT_ID);
+	}
+	
+	/**
+	 * getter for the number of resident games
+	 * 
+	 * @return games with a live controller
+	 */
+	public synchronized int getResidentCount() {
+		return this.resident.size();
+	}
+	
+	/**
+	 * getter for the hit count
+	 * 
+	 * @return fetches of games that were resident
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+	
+	/**
+	 * getter for the miss count
+	 * 
+	 * @return fetches that had to wake a game up
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+	
+	/**
+	 * getter for the eviction count
+	 * 
+	 * @return games hibernated to keep the resident limit
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+	
+	/**
+	 * getter for the expiration count
+	 * 
+	 * @return games hibernated for being idle too long
+	 */
+	public synchronized long getExpirations() {
+		return this.expirations;
+	}
+	
+	/**
+	 * average time to wake a game up, the initializer not included
+	 * 
+	 * @return mean nanoseconds per miss, 0 if there haven't been any
+	 */
+	public synchronized long getMeanWakeNanos() {
+		return this.misses == 0 ? 0 : this.wakeNanos / this.misses;
+	}
+	
+	/**
+	 * longest time waking a game up took
+	 * 
+	 * @return the most nanoseconds a miss took
+	 */
+	public synchronized long getMaxWakeNanos() {
+		return this.maxWakeNanos;
+	}
+	
+	/**
+	 * flushes the file to disk, resident games as they were last hibernated
+	 */
+	public synchronized void force() {
+		for(MappedByteBuffer segment : this.segments) {
+			segment.force();
+		}
+		this.header.force();
+	}
+	
+	/**
+	 * hibernates every game and closes the file
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		hibernateAll();
+		this.channel.close();
+	}
+	
+	/**
+	 * the metrics on one line
+	 * 
+	 * @return the metrics as text
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("%d games, %d resident, %d hits, %d misses, %d evicted, %d idle, wake mean %.1f us max %.1f us",
+				getGamesStarted(), this.resident.size(), this.hits, this.misses, this.evictions, this.expirations,
+				getMeanWakeNanos() / 1e3, this.maxWakeNanos / 1e3);
+	}
+}
@@ -1,9 +1,29 @@
 package controller;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import engine.Bitboard;
+import engine.ComputeScheduler;
+import engine.Evaluator;
+import engine.GameClock;
+import engine.GameRecord;
+import engine.Player;
+import engine.ProbCut;
+import engine.ResultCache;
+import engine.Search;
+import engine.SearchLimits;
+import engine.TimeManager;
+import engine.TranspositionTable;
+import events.LegalMovesEvent;
+import events.TurnEvent;
 import model.IllegalMoveException;
 import model.LegalMoves;
+import model.ReversiBoard;
 import model.ReversiModel;
-import model.ReversiMove;
 
 /**
  * Main controller for the Reversi game. Contains all the logic for
@@ -18,6 +38,45 @@ public class ReversiController {
 	private ReversiModel model;
 	private LegalMoves humanLegal;
 	private LegalMoves computerLegal;
+	private Search search;
+	private Player engine;
+	private SearchLimits limits = computerLimits();
+	private GameClock clock;
+	private volatile ResultCache cache;
+	private ComputeScheduler scheduler;
+	
+	//moves played since the controller was made, for archiving the game
+	private final byte[] moves = new byte[60];
+	
+	//the computer's last move, returned by computerTurn and reused every turn
+	private final int[] computerMove = new int[2];
+	private int moveCount;
+	private char firstSide;
+	
+	//the side that made the last move, so a hibernated game knows whose turn it is
+	private char lastSide = ' ';
+	private long startFirst;
+	private long startSecond;
+	
+	//events are only made while a recording has them turned on, asked through these,
+	//so turns don't make garbage the rest of the time
+	private static final TurnEvent TURN_EVENTS = new TurnEvent();
+	private static final LegalMovesEvent LEGAL_EVENTS = new LegalMovesEvent();
+	
+	//the computer's move should get a core within this long, later counts as late in the scheduler's metrics
+	private static final long MOVE_LATENCY_NANOS = 10000000L;
+	
+	//size of a game written by writeTo: counts and sides, both boards, the starting position, the moves
+	static final int HIBERNATED_BYTES = 104;
+	
+	//searches at least this deep are worth keeping in the persistent cache
+	private static final int CACHE_DEPTH = 8;
+	
+	//ProbCut parameters for the computer's search, if they've been calibrated
+	private static final String PROBCUT_FILE = "probcut.dat";
+	
+	//evaluation weights fitted by tools.Trainer, if there are any
+	private static final String WEIGHTS_FILE = "weights.dat";
 	
 	/**
 	 * regular constructor for the controller
@@ -40,6 +99,17 @@ public class ReversiController {
 		this.computerLegal = new LegalMoves();
 	}
 	
+	/**
+	 * the computer's default search limits
+	 * 
+	 * @return limits for a computer turn
+	 */
+	private static SearchLimits computerLimits() {
+		SearchLimits limits = new SearchLimits(8, 0, 1000);
+		limits.setExactEmpties(14);
+		return limits;
+	}
+	
 	/**
 	 * adds a specific move to the computer's legal list, mainly for testing.
 	 * 
@@ -58,12 +128,158 @@ public class ReversiController {
 	 * @throws IllegalMoveException when the move wouldn't flip any pieces
 	 */
 	public void humanTurn(int x, int y) throws IllegalMoveException{
+		TurnEvent event = beginTurn();
+		
 		if(!humanLegal.contains(x, y)) {
 			throw new IllegalMoveException("This is an illegal move. Must place piece so your colors book-end a line of your opponents.");
 		}	
 		
+		recordMove('W', x, y);
 		model.setColorAt(x, y, 'W');
 		flipColors(x, y, 'W');
+		
+		commitTurn(event, "human", x, y);
+	}
+	
+	/**
+	 * adds a move to the game's history, called before the move is made so the
+	 * first one can also note the starting position
+	 * 
+	 * @param side the color moving
+	 * @param x x coordinate of the move
+	 * @param y y coordinate of the move
+	 */
+	private void recordMove(char side, int x, int y) {
+		if(this.moveCount == 0) {
+			char[][] board = model.getBoard().getBoard();
+			this.firstSide = side;
+			this.startFirst = Bitboard.fromBoard(board, side);
+			this.startSecond = Bitboard.fromBoard(board, side == 'W' ? 'B' : 'W');
+		}
+		if(this.moveCount < this.moves.length) {
+			this.moves[this.moveCount++] = (byte) (x * 8 + y);
+		}
+		this.lastSide = side;
+	}
+	
+	/**
+	 * returns the game played through this controller so far, from the position
+	 * it started in (the usual start, or wherever a loaded game was)
+	 * 
+	 * @return the game, or null if no moves have been made
+	 */
+	public GameRecord getGameRecord() {
+		if(this.moveCount == 0) {
+			return null;
+		}
+		char[][] board = model.getBoard().getBoard();
+		int score = Bitboard.finalScore(Bitboard.fromBoard(board, this.firstSide), Bitboard.fromBoard(board, this.firstSide == 'W' ? 'B' : 'W'));
+		byte[] played = new byte[this.moveCount];
+		System.arraycopy(this.moves, 0, played, 0, this.moveCount);
+		return new GameRecord(this.startFirst, this.startSecond, played, score);
+	}
+	
+	/**
+	 * getter for the side that made the first move of the game record
+	 * 
+	 * @return 'W' for the human, 'B' for the computer
+	 */
+	public char getFirstSide() {
+		return this.firstSide;
+	}
+	
+	/**
+	 * writes the game as HIBERNATED_BYTES bytes for GameSessionCache: the board,
+	 * who moved last and the moves so far. The search, engine, clock and the
+	 * rest aren't part of it, whoever wakes the game up sets them again.
+	 * 
+	 * @param buffer where to write the game
+	 * @param offset where in the buffer it starts
+	 */
+	void writeTo(ByteBuffer buffer, int offset) {
+		char[][] board = model.getBoard().getBoard();
+		buffer.put(offset, (byte) this.moveCount);
+		buffer.put(offset + 1, (byte) this.firstSide);
+		buffer.put(offset + 2, (byte) this.lastSide);
+		buffer.putLong(offset + 8, Bitboard.fromBoard(board, 'W'));
+		buffer.putLong(offset + 16, Bitboard.fromBoard(board, 'B'));
+		buffer.putLong(offset + 24, this.startFirst);
+		buffer.putLong(offset + 32, this.startSecond);
+		for(int i=0; i<this.moveCount; i++) {
+			buffer.put(offset + 40 + i, this.moves[i]);
+		}
+	}
+	
+	/**
+	 * makes a controller for a game written by writeTo, with a new model. The
+	 * board's humanTurn is set from who moved last, the way a saved game has it.
+	 * 
+	 * @param buffer where the game was written
+	 * @param offset where in the buffer it starts
+	 * @return the game's controller, with no search, engine or clock set
+	 */
+	static ReversiController readFrom(ByteBuffer buffer, int offset) {
+		long human = buffer.getLong(offset + 8);
+		long computer = buffer.getLong(offset + 16);
+		char[][] board = new char[8][8];
+		for(int i=0; i<8; i++) {
+			for(int j=0; j<8; j++) {
+				long bit = 1L << (i*8 + j);
+				board[i][j] = (human & bit) != 0 ? 'W' : (computer & bit) != 0 ? 'B' : '_';
+			}
+		}
+		ReversiBoard observableBoard = new ReversiBoard(board, Long.bitCount(human), Long.bitCount(computer), null, ' ');
+		char lastSide = (char) buffer.get(offset + 2);
+		observableBoard.humanTurn = lastSide != 'W';
+		
+		ReversiController controller = new ReversiController(new ReversiModel(observableBoard));
+		controller.moveCount = buffer.get(offset) & 0xFF;
+		controller.firstSide = (char) buffer.get(offset + 1);
+		controller.lastSide = lastSide;
+		controller.startFirst = buffer.getLong(offset + 24);
+		controller.startSecond = buffer.getLong(offset + 32);
+		for(int i=0; i<controller.moveCount; i++) {
+			controller.moves[i] = buffer.get(offset + 40 + i);
+		}
+		return controller;
+	}
+	
+	/**
+	 * begins a turn event if the running recording wants them
+	 * 
+	 * @return the event, or null if turn events aren't enabled
+	 */
+	private static TurnEvent beginTurn() {
+		if(!TURN_EVENTS.isEnabled()) {
+			return null;
+		}
+		TurnEvent event = new TurnEvent();
+		event.begin();
+		return event;
+	}
+	
+	/**
+	 * fills in and commits a turn event, skipped entirely when
+	 * the event isn't enabled in the running recording
+	 * 
+	 * @param event the event begun at the start of the turn, or null
+	 * @param side "human" or "computer"
+	 * @param x x coordinate of the move
+	 * @param y y coordinate of the move
+	 */
+	private void commitTurn(TurnEvent event, String side, int x, int y) {
+		if(event == null) {
+			return;
+		}
+		event.end();
+		if(event.shouldCommit()) {
+			event.side = side;
+			event.x = x;
+			event.y = y;
+			event.humanScore = model.getHumanCount();
+			event.computerScore = model.getComputerCount();
+			event.commit();
+		}
 	}
 	
 	/**
@@ -186,19 +402,182 @@ public class ReversiController {
 	}
 
 	/**
-	 * determines the computer's best move, returns the move 
-	 * it actually made
+	 * determines the computer's best move with the search engine (or the engine set
+	 * with setEngine), returns the move it actually made. Falls back on the greedy pick
+	 * from the legal move list if the engine has nothing to play (only when moves were
+	 * added by hand).
 	 * 
-	 * @return the move the computer made
+	 * @return the move the computer made, the same array is reused for every turn
 	 */
 	public int[] computerTurn() {
-		ReversiMove best = computerLegal.bestMove();
-		int x = best.getX();
-		int y = best.getY();
+		TurnEvent event = beginTurn();
+		
+		if(this.search == null) {
+			this.search = createSearch();
+		}
+		this.search.setCache(this.cache, CACHE_DEPTH);
+		
+		char[][] board = model.getBoard().getBoard();
+		long computer = Bitboard.fromBoard(board, 'B');
+		long human = Bitboard.fromBoard(board, 'W');
+		if(this.clock != null) {
+			this.clock.start('B');
+			this.limits.getTimeManager().startMove('B', computer, human);
+		}
+		if(this.scheduler != null) {
+			this.scheduler.acquire(ComputeScheduler.INTERACTIVE, System.nanoTime() + MOVE_LATENCY_NANOS);
+		}
+		int move;
+		try {
+			if(this.engine != null) {
+				//an engine with its own limits still has to move by the clock's hard deadline
+				long deadline = this.clock != null ? this.limits.getTimeManager().getHardDeadline() : Long.MAX_VALUE;
+				move = Bitboard.legalMoves(computer, human) == 0 ? Bitboard.PASS : this.engine.move(computer, human, deadline);
+			}
+			else {
+				move = this.search.bestMove(computer, human, this.limits);
+			}
+		}
+		finally {
+			if(this.scheduler != null) {
+				this.scheduler.release();
+			}
+		}
+		
+		int x, y;
+		if(move == Bitboard.PASS) {
+			int best = computerLegal.bestSquare();
+			x = best / 8;
+			y = best % 8;
+		}
+		else {
+			x = move / 8;
+			y = move % 8;
+		}
+		recordMove('B', x, y);
 		model.setColorAt(x, y, 'B');
 		flipColors(x, y, 'B');
+		if(this.clock != null) {
+			this.clock.stop();
+		}
 		
-		return new int[] {x, y};
+		commitTurn(event, "computer", x, y);
+		this.computerMove[0] = x;
+		this.computerMove[1] = y;
+		return this.computerMove;
+	}
+	
+	/**
+	 * plays the computer's moves with a different engine, e.g. a MonteCarloSearch,
+	 * instead of the alpha-beta search. The engine keeps to its own limits, the game
+	 * clock just records the time it takes.
+	 * 
+	 * @param engine the engine, or null for the default search
+	 */
+	public void setEngine(Player engine) {
+		this.engine = engine;
+	}
+	
+	/**
+	 * runs the computer's moves as interactive work on a scheduler, so batch
+	 * work sharing it gives up a core whenever the computer needs one
+	 * 
+	 * @param scheduler the scheduler, or null to just run on the calling thread
+	 */
+	public void setScheduler(ComputeScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * makes the computer's alpha-beta search, with the evaluation weights and
+	 * ProbCut parameters from disk if there are any. Reading those and setting up
+	 * the transposition table takes a while, so it can be done ahead of time on
+	 * another thread and handed over with setSearch.
+	 * 
+	 * @return a new search for the computer's moves
+	 */
+	public static Search createSearch() {
+		Search search = new Search(loadEvaluator(), new TranspositionTable(18));
+		search.setProbCut(loadProbCut());
+		return search;
+	}
+	
+	/**
+	 * uses a search made ahead of time (see createSearch) for the computer's moves,
+	 * e.g. one that's already been warmed up or was used for the last game. Without
+	 * one the controller makes its own on the first computer turn.
+	 * 
+	 * @param search the search, not used by any other thread
+	 */
+	public void setSearch(Search search) {
+		this.search = search;
+	}
+	
+	/**
+	 * puts the computer on a game clock. Its moves are then searched as deep as
+	 * the time manager allows, and its side of the clock runs while it thinks.
+	 * 
+	 * @param clock the clock, or null to go back to the default fixed limits
+	 */
+	public void setClock(GameClock clock) {
+		this.clock = clock;
+		if(clock == null) {
+			this.limits = computerLimits();
+		}
+		else {
+			this.limits = new SearchLimits(60, 0, 0);
+			this.limits.setExactEmpties(14);
+			this.limits.setTimeManager(new TimeManager(clock));
+		}
+	}
+	
+	/**
+	 * loads the ProbCut parameters written by tools.ProbCutCalibrator, if there are any
+	 * 
+	 * @return the parameters, or null to search without ProbCut
+	 */
+	private static ProbCut loadProbCut() {
+		Path path = Paths.get(PROBCUT_FILE);
+		if(!Files.exists(path)) {
+			return null;
+		}
+		try {
+			return ProbCut.load(path);
+		}
+		catch(IOException e) {
+			// a damaged parameter file just means searching without ProbCut
+			return null;
+		}
+	}
+	
+	/**
+	 * loads the evaluation weights written by tools.Trainer, falling back to the
+	 * built in weights if there aren't any
+	 * 
+	 * @return the evaluator for the computer's search
+	 */
+	private static Evaluator loadEvaluator() {
+		Path path = Paths.get(WEIGHTS_FILE);
+		if(!Files.exists(path)) {
+			return new Evaluator();
+		}
+		try {
+			return Evaluator.load(path);
+		}
+		catch(IOException e) {
+			return new Evaluator();
+		}
+	}
+	
+	/**
+	 * sets a persistent cache for the computer's search to reuse deep results
+	 * from earlier games. Safe to call from a background thread, it's picked up
+	 * at the start of the next computer turn.
+	 * 
+	 * @param cache the cache, or null for none
+	 */
+	public void setSearchCache(ResultCache cache) {
+		this.cache = cache;
 	}
 
 	/**
@@ -212,8 +591,13 @@ public class ReversiController {
 	 */
 	public void calculateLegal() {
 		
-		this.humanLegal = new LegalMoves();
-		this.computerLegal = new LegalMoves();
+		LegalMovesEvent event = LEGAL_EVENTS.isEnabled() ? new LegalMovesEvent() : null;
+		if(event != null) {
+			event.begin();
+		}
+		
+		this.humanLegal.clear();
+		this.computerLegal.clear();
 		int indexOne, indexTwo, pointCount;
 		
 		for(int i=0; i<8; i++) {
@@ -386,6 +770,16 @@ public class ReversiController {
 				}
 			}
 		}
+		
+		if(event == null) {
+			return;
+		}
+		event.end();
+		if(event.shouldCommit()) {
+			event.humanMoves = humanLegal.length();
+			event.computerMoves = computerLegal.length();
+			event.commit();
+		}
 	}
 
 	/**
@@ -396,7 +790,13 @@ public class ReversiController {
 	 * @return the color of the piece at (i,j)
 	 */
 	public String getPieceAt(int i, int j) {
-		return "" + model.getColorAt(i, j);
+		//constants rather than a new String every call
+		switch(model.getColorAt(i, j)) {
+			case 'W': return "W";
+			case 'B': return "B";
+			case '_': return "_";
+			default: return String.valueOf(model.getColorAt(i, j));
+		}
 	}
 
 	/**
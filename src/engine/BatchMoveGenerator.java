@@ -0,0 +1,163 @@
+package engine;
+
+/**
+ * Move generation for many positions at once. Positions are held structure of
+ * arrays style, players[i] and opponents[i] being lane i, and each method runs
+ * one direction at a time across every lane. The inner loops are straight line
+ * long arithmetic with a loop-invariant shift, which is the shape the JIT's
+ * superword pass turns into vector instructions, so several boards are worked
+ * on per instruction where the hardware allows it and it degrades to the
+ * plain scalar loop where it doesn't. Results are the same as calling the
+ * Bitboard methods lane by lane.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public final class BatchMoveGenerator {
+	
+	private BatchMoveGenerator() {
+	}
+	
+	/**
+	 * works out the legal moves of every lane, moves[i] is the same as
+	 * Bitboard.legalMoves(players[i], opponents[i])
+	 * 
+	 * @param players pieces of the side to move in each lane
+	 * @param opponents pieces of the other side in each lane
+	 * @param moves written with each lane's legal move mask
+	 * @param count number of lanes to work on
+	 */
+	public static void legalMoves(long[] players, long[] opponents, long[] moves, int count) {
+		for(int i=0; i<count; i++) {
+			moves[i] = 0;
+		}
+		movesLeft(players, opponents, moves, count, 1, Bitboard.NOT_COL_0);
+		movesRight(players, opponents, moves, count, 1, Bitboard.NOT_COL_7);
+		movesLeft(players, opponents, moves, count, 8, -1L);
+		movesRight(players, opponents, moves, count, 8, -1L);
+		movesLeft(players, opponents, moves, count, 9, Bitboard.NOT_COL_0);
+		movesRight(players, opponents, moves, count, 9, Bitboard.NOT_COL_7);
+		movesLeft(players, opponents, moves, count, 7, Bitboard.NOT_COL_7);
+		movesRight(players, opponents, moves, count, 7, Bitboard.NOT_COL_0);
+	}
+	
+	/**
+	 * works out the pieces flipped by a move in every lane, flips[i] is the same as
+	 * Bitboard.flips(players[i], opponents[i], squares[i]). A PASS flips nothing.
+	 * 
+	 * @param players pieces of the side to move in each lane
+	 * @param opponents pieces of the other side in each lane
+	 * @param squares the square played in each lane, x*8+y (an empty square), or PASS
+	 * @param flips written with each lane's flipped pieces
+	 * @param count number of lanes to work on
+	 */
+	public static void flips(long[] players, long[] opponents, int[] squares, long[] flips, int count) {
+		//each lane starts out holding just the square played, its only empty square, and
+		//collects the flips on top of that. The square is masked off again at the end.
+		for(int i=0; i<count; i++) {
+			int square = squares[i];
+			flips[i] = square == Bitboard.PASS ? 0 : 1L << square;
+		}
+		flipsLeft(players, opponents, flips, count, 1, Bitboard.NOT_COL_0);
+		flipsRight(players, opponents, flips, count, 1, Bitboard.NOT_COL_7);
+		flipsLeft(players, opponents, flips, count, 8, -1L);
+		flipsRight(players, opponents, flips, count, 8, -1L);
+		flipsLeft(players, opponents, flips, count, 9, Bitboard.NOT_COL_0);
+		flipsRight(players, opponents, flips, count, 9, Bitboard.NOT_COL_7);
+		flipsLeft(players, opponents, flips, count, 7, Bitboard.NOT_COL_7);
+		flipsRight(players, opponents, flips, count, 7, Bitboard.NOT_COL_0);
+		for(int i=0; i<count; i++) {
+			flips[i] &= opponents[i];
+		}
+	}
+	
+	//one direction per loop, any more and the loop body is over the JIT's unrolling limit, which it
+	//has to be under to vectorize
+	
+	private static void movesLeft(long[] players, long[] opponents, long[] moves, int count, int s, long mask) {
+		for(int i=0; i<count; i++) {
+			long p = players[i];
+			long o = opponents[i];
+			long t = (p << s) & mask & o;
+			t |= (t << s) & mask & o;
+			t |= (t << s) & mask & o;
+			t |= (t << s) & mask & o;
+			t |= (t << s) & mask & o;
+			t |= (t << s) & mask & o;
+			moves[i] |= (t << s) & mask & ~(p | o);
+		}
+	}
+	
+	private static void movesRight(long[] players, long[] opponents, long[] moves, int count, int s, long mask) {
+		for(int i=0; i<count; i++) {
+			long p = players[i];
+			long o = opponents[i];
+			long t = (p >>> s) & mask & o;
+			t |= (t >>> s) & mask & o;
+			t |= (t >>> s) & mask & o;
+			t |= (t >>> s) & mask & o;
+			t |= (t >>> s) & mask & o;
+			t |= (t >>> s) & mask & o;
+			moves[i] |= (t >>> s) & mask & ~(p | o);
+		}
+	}
+	
+	//the square played is filled out through the opponent's pieces in doubling steps (a Kogge-Stone
+	//fill, fewer operations than one step at a time), then the run only flips if it ends on one of
+	//player's pieces. -((end | -end) >>> 63) is all ones if it does, 0 if not.
+	
+	private static void flipsLeft(long[] players, long[] opponents, long[] flips, int count, int s, long mask) {
+		for(int i=0; i<count; i++) {
+			long p = players[i];
+			long o = opponents[i];
+			long f = flips[i];
+			long run = f & ~(p | o);
+			long through = o & mask;
+			run |= through & (run << s);
+			through &= through << s;
+			run |= through & (run << (s << 1));
+			through &= through << (s << 1);
+			run |= through & (run << (s << 2));
+			long end = (run << s) & mask & p;
+			flips[i] = f | (run & -((end | -end) >>> 63));
+		}
+	}
+	
+	private static void flipsRight(long[] players, long[] opponents, long[] flips, int count, int s, long mask) {
+		for(int i=0; i<count; i++) {
+			long p = players[i];
+			long o = opponents[i];
+			long f = flips[i];
+			long run = f & ~(p | o);
+			long through = o & mask;
+			run |= through & (run >>> s);
+			through &= through >>> s;
+			run |= through & (run >>> (s << 1));
+			through &= through >>> (s << 1);
+			run |= through & (run >>> (s << 2));
+			long end = (run >>> s) & mask & p;
+			flips[i] = f | (run & -((end | -end) >>> 63));
+		}
+	}
+	
+	/**
+	 * plays a move in every lane, leaving each lane holding the resulting position
+	 * from the new side to move's point of view (so players and opponents trade places).
+	 * A PASS just trades places.
+	 * 
+	 * @param players pieces of the side to move in each lane, replaced by the next side to move's
+	 * @param opponents pieces of the other side in each lane, replaced by the side that moved
+	 * @param squares the square played in each lane, x*8+y, or PASS
+	 * @param flips scratch space for the flipped pieces, at least count long
+	 * @param count number of lanes to work on
+	 */
+	public static void play(long[] players, long[] opponents, int[] squares, long[] flips, int count) {
+		flips(players, opponents, squares, flips, count);
+		for(int i=0; i<count; i++) {
+			int square = squares[i];
+			long moved = players[i] | flips[i] | (square == Bitboard.PASS ? 0 : 1L << square);
+			players[i] = opponents[i] & ~flips[i];
+			opponents[i] = moved;
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package engine;
+
+/**
+ * Bitboard helpers for the search engine. A position is held as two longs,
+ * one for the side to move and one for its opponent, with square (x,y) of the
+ * ReversiModel's board stored at bit x*8+y. The rules are the same ones
+ * ReversiController applies to the char board, just done 64 squares at a time.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public final class Bitboard {
+	
+	/** every square but the y == 0 column */
+	public static final long NOT_COL_0 = 0xFEFEFEFEFEFEFEFEL;
+	
+	/** every square but the y == 7 column */
+	public static final long NOT_COL_7 = 0x7F7F7F7F7F7F7F7FL;
+	
+	/** the four initial pieces of the side that moves first, (3,4) and (4,3) */
+	public static final long START_FIRST = (1L << 28) | (1L << 35);
+	
+	/** the four initial pieces of the side that moves second, (3,3) and (4,4) */
+	public static final long START_SECOND = (1L << 27) | (1L << 36);
+	
+	/** square value used for a pass */
+	public static final int PASS = -1;
+	
+	//shift amounts and wrap masks for the 8 directions:
+	//east, west, south, north, south-east, north-west, south-west, north-east
+	private static final int[] SHIFTS = {1, -1, 8, -8, 9, -9, 7, -7};
+	private static final long[] MASKS = {NOT_COL_0, NOT_COL_7, -1L, -1L, NOT_COL_0, NOT_COL_7, NOT_COL_7, NOT_COL_0};
+	
+	private Bitboard() {
+	}
+	
+	/**
+	 * shifts every bit one step in direction d, dropping bits that
+	 * would wrap around the edge of the board
+	 * 
+	 * @param b the bits to shift
+	 * @param d direction index, 0-7
+	 * @return the shifted bits
+	 */
+	static long shift(long b, int d) {
+		int s = SHIFTS[d];
+		return (s > 0 ? b << s : b >>> -s) & MASKS[d];
+	}
+	
+	/**
+	 * returns a mask of every legal move for player
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return bitmask of the empty squares player can move to
+	 */
+	public static long legalMoves(long player, long opponent) {
+		long empty = ~(player | opponent);
+		long moves = 0;
+		for(int d=0; d<8; d++) {
+			long t = shift(player, d) & opponent;
+			t |= shift(t, d) & opponent;
+			t |= shift(t, d) & opponent;
+			t |= shift(t, d) & opponent;
+			t |= shift(t, d) & opponent;
+			t |= shift(t, d) & opponent;
+			moves |= shift(t, d) & empty;
+		}
+		return moves;
+	}
+	
+	/**
+	 * returns the opponent pieces that flip when player moves to square,
+	 * 0 if the move doesn't flip anything (and so isn't legal)
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param square the square being played, x*8+y
+	 * @return bitmask of the flipped pieces
+	 */
+	public static long flips(long player, long opponent, int square) {
+		long flipped = 0;
+		long origin = 1L << square;
+		for(int d=0; d<8; d++) {
+			long line = 0;
+			long t = shift(origin, d);
+			while((t & opponent) != 0) {
+				line |= t;
+				t = shift(t, d);
+			}
+			if((t & player) != 0) {
+				flipped |= line;
+			}
+		}
+		return flipped;
+	}
+	
+	/**
+	 * final score from player's point of view, empty squares go to the winner
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return disc difference at the end of the game
+	 */
+	public static int finalScore(long player, long opponent) {
+		int p = Long.bitCount(player);
+		int o = Long.bitCount(opponent);
+		int empties = 64 - p - o;
+		if(p > o) {
+			return p - o + empties;
+		}
+		if(p < o) {
+			return p - o - empties;
+		}
+		return 0;
+	}
+	
+	/**
+	 * number of empty squares
+	 * 
+	 * @param player pieces of one side
+	 * @param opponent pieces of the other side
+	 * @return number of empty squares
+	 */
+	public static int empties(long player, long opponent) {
+		return 64 - Long.bitCount(player | opponent);
+	}
+	
+	/**
+	 * mixes both sides of a position into a 64 bit hash
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return hash of the position
+	 */
+	public static long hash(long player, long opponent) {
+		long h = player * 0x9E3779B97F4A7C15L;
+		h ^= Long.rotateLeft(opponent * 0xC2B2AE3D27D4EB4FL, 31);
+		h ^= h >>> 29;
+		h *= 0xBF58476D1CE4E5B9L;
+		h ^= h >>> 32;
+		return h;
+	}
+	
+	/**
+	 * mirrors the board top to bottom, row x becomes row 7-x
+	 * 
+	 * @param b the bits to mirror
+	 * @return the mirrored bits
+	 */
+	public static long flipVertical(long b) {
+		return Long.reverseBytes(b);
+	}
+	
+	/**
+	 * mirrors the board left to right, column y becomes column 7-y
+	 * 
+	 * @param b the bits to mirror
+	 * @return the mirrored bits
+	 */
+	public static long flipHorizontal(long b) {
+		b = ((b >>> 1) & 0x5555555555555555L) | ((b & 0x5555555555555555L) << 1);
+		b = ((b >>> 2) & 0x3333333333333333L) | ((b & 0x3333333333333333L) << 2);
+		return ((b >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((b & 0x0F0F0F0F0F0F0F0FL) << 4);
+	}
+	
+	/**
+	 * mirrors the board along its main diagonal, (x,y) becomes (y,x)
+	 * 
+	 * @param b the bits to mirror
+	 * @return the mirrored bits
+	 */
+	public static long flipDiagonal(long b) {
+		long t = 0x0F0F0F0F00000000L & (b ^ (b << 28));
+		b ^= t ^ (t >>> 28);
+		t = 0x3333000033330000L & (b ^ (b << 14));
+		b ^= t ^ (t >>> 14);
+		t = 0x5500550055005500L & (b ^ (b << 7));
+		return b ^ t ^ (t >>> 7);
+	}
+	
+	/**
+	 * applies one of the board's 8 symmetries. Bit 0 of symmetry flips
+	 * vertically, bit 1 horizontally and bit 2 along the diagonal (applied last).
+	 * 
+	 * @param b the bits to transform
+	 * @param symmetry 0-7, 0 leaves the board as it is
+	 * @return the transformed bits
+	 */
+	public static long transform(long b, int symmetry) {
+		if((symmetry & 1) != 0) {
+			b = flipVertical(b);
+		}
+		if((symmetry & 2) != 0) {
+			b = flipHorizontal(b);
+		}
+		if((symmetry & 4) != 0) {
+			b = flipDiagonal(b);
+		}
+		return b;
+	}
+	
+	/**
+	 * hash of a position that's the same for all 8 of its symmetric versions.
+	 * The version with the smallest (player, opponent) pair is the one hashed.
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return hash of the position's canonical form
+	 */
+	public static long canonicalHash(long player, long opponent) {
+		int s = canonicalSymmetry(player, opponent);
+		return hash(transform(player, s), transform(opponent, s));
+	}
+	
+	/**
+	 * the symmetry that takes a position to its canonical form, the version
+	 * with the smallest (player, opponent) pair, unsigned
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return the symmetry to pass to transform for both sides
+	 */
+	public static int canonicalSymmetry(long player, long opponent) {
+		int best = 0;
+		long bestPlayer = player;
+		long bestOpponent = opponent;
+		for(int s=1; s<8; s++) {
+			long p = transform(player, s);
+			long o = transform(opponent, s);
+			int c = Long.compareUnsigned(p, bestPlayer);
+			if(c < 0 || (c == 0 && Long.compareUnsigned(o, bestOpponent) < 0)) {
+				best = s;
+				bestPlayer = p;
+				bestOpponent = o;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * builds a bitboard of every piece of a color on a ReversiModel style board
+	 * 
+	 * @param board the 8x8 char board
+	 * @param color 'W' or 'B'
+	 * @return bitmask of color's pieces
+	 */
+	public static long fromBoard(char[][] board, char color) {
+		long bits = 0;
+		for(int i=0; i<8; i++) {
+			for(int j=0; j<8; j++) {
+				if(board[i][j] == color) {
+					bits |= 1L << (i*8 + j);
+				}
+			}
+		}
+		return bits;
+	}
+	
+	/**
+	 * returns the name of a square in board notation, column letter followed by
+	 * row number, the same as ReversiMove.toString(). Passes are "pass".
+	 * 
+	 * @param square square index x*8+y, or PASS
+	 * @return the square's name
+	 */
+	public static String squareName(int square) {
+		if(square == PASS) {
+			return "pass";
+		}
+		return "" + (char) ('a' + (square & 7)) + (square / 8 + 1);
+	}
+	
+	/**
+	 * parses a square name from squareName
+	 * 
+	 * @param name the square's name, e.g. "d3"
+	 * @return the square index, PASS for "pass", or -2 if it isn't a square
+	 */
+	public static int parseSquare(String name) {
+		if(name.equals("pass")) {
+			return PASS;
+		}
+		if(name.length() != 2) {
+			return -2;
+		}
+		int y = Character.toLowerCase(name.charAt(0)) - 'a';
+		int x = name.charAt(1) - '1';
+		if(x < 0 || x > 7 || y < 0 || y > 7) {
+			return -2;
+		}
+		return x*8 + y;
+	}
+}
@@ -0,0 +1,388 @@
+package engine;
+
+import java.util.PriorityQueue;
+
+/**
+ * Hands out the machine's cores between interactive work (the computer's move
+ * while a person waits for it) and batch work (warming up, analysis, self-play
+ * and the like), so batch jobs can use every core without slowing down a move.
+ * 
+ * Work holds a core from acquire to release. Waiting requests get cores in
+ * priority order, INTERACTIVE before BATCH, and by earliest deadline within a
+ * class. Batch work isn't stopped from outside, it gives its core up itself: a
+ * Search with the scheduler set calls checkpoint every thousand or so nodes, and
+ * while interactive work is waiting that hands the core over and waits for it
+ * to come back. A move waits at most about as long as the slowest batch job
+ * takes between checkpoints, well under a millisecond for a search.
+ * 
+ * Queue depth, waits (mean, percentiles and the longest), preemptions and
+ * requests that got a core after their deadline are kept for each class.
+ * Percentiles come from a histogram with four buckets per power of two, so
+ * they're within about 20% and nothing is allocated per request.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class ComputeScheduler {
+	
+	/** priority class for work someone is waiting on */
+	public static final int INTERACTIVE = 0;
+	
+	/** priority class for background work, preempted by INTERACTIVE */
+	public static final int BATCH = 1;
+	
+	/** deadline for work that has none */
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+	
+	private static final String[] NAMES = {"interactive", "batch"};
+	
+	//wait histogram buckets, four for each power of two nanoseconds
+	private static final int BUCKETS = 256;
+	
+	private final int cores;
+	private int free;
+	private long sequence;
+	private final PriorityQueue<Request>[] waiting;
+	private final Metrics[] metrics;
+	
+	//requests waiting ahead of batch work, read without the lock at every checkpoint
+	private volatile int interactiveWaiting;
+	
+	//each thread's request, reused so acquiring a core doesn't allocate
+	private final ThreadLocal<Request> requests = ThreadLocal.withInitial(Request::new);
+	
+	/**
+	 * a thread's request for a core, queued until it's granted
+	 */
+	private static final class Request implements Comparable<Request> {
+		private int priority;
+		private long deadline;
+		private long sequence;
+		private long queued;
+		private boolean granted;
+		private boolean held;
+		
+		@Override
+		public int compareTo(Request other) {
+			if(this.deadline != other.deadline) {
+				return this.deadline < other.deadline ? -1 : 1;
+			}
+			return Long.compare(this.sequence, other.sequence);
+		}
+	}
+	
+	/**
+	 * counters for one priority class
+	 */
+	private static final class Metrics {
+		private int maxDepth;
+		private long grants;
+		private long preemptions;
+		private long late;
+		private long waitNanos;
+		private long maxWaitNanos;
+		private final long[] histogram = new long[BUCKETS];
+	}
+	
+	/**
+	 * Constructor, makes a scheduler for the given number of cores
+	 * 
+	 * @param cores the most work to run at once, usually the number of processors
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public ComputeScheduler(int cores) {
+		if(cores < 1) {
+			throw new IllegalArgumentException("A scheduler needs at least one core, not " + cores);
+		}
+		this.cores = cores;
+		this.free = cores;
+		this.waiting = new PriorityQueue[NAMES.length];
+		this.metrics = new Metrics[NAMES.length];
+		for(int i=0; i<NAMES.length; i++) {
+			this.waiting[i] = new PriorityQueue<>();
+			this.metrics[i] = new Metrics();
+		}
+	}
+	
+	/**
+	 * getter for the number of cores handed out
+	 * 
+	 * @return the most work that runs at once
+	 */
+	public int getCores() {
+		return this.cores;
+	}
+	
+	/**
+	 * waits for a core for the calling thread. Every acquire has to be followed
+	 * by a release on the same thread, in a finally block.
+	 * 
+	 * @param priority INTERACTIVE or BATCH
+	 * @param deadline System.nanoTime() by which the work should have a core,
+	 * or NO_DEADLINE
+	 * @throws IllegalStateException if the thread already holds a core
+	 */
+	public void acquire(int priority, long deadline) {
+		Request request = this.requests.get();
+		if(request.held) {
+			throw new IllegalStateException("Thread already holds a core");
+		}
+		request.priority = priority;
+		request.deadline = deadline;
+		synchronized(this) {
+			request.sequence = this.sequence++;
+			queue(request);
+			await(request);
+		}
+	}
+	
+	/**
+	 * gives the calling thread's core back
+	 * 
+	 * @throws IllegalStateException if the thread doesn't hold a core
+	 */
+	public void release() {
+		Request request = this.requests.get();
+		if(!request.held) {
+			throw new IllegalStateException("Thread doesn't hold a core");
+		}
+		synchronized(this) {
+			request.held = false;
+			this.free++;
+			dispatch();
+		}
+	}
+	
+	/**
+	 * called by running work every so often. Batch work hands its core over
+	 * here if interactive work is waiting, and carries on once it gets one
+	 * back. Costs one volatile read when nothing is waiting.
+	 */
+	public void checkpoint() {
+		if(this.interactiveWaiting == 0) {
+			return;
+		}
+		Request request = this.requests.get();
+		if(!request.held || request.priority == INTERACTIVE) {
+			return;
+		}
+		synchronized(this) {
+			if(this.interactiveWaiting == 0) {
+				return;
+			}
+			this.metrics[request.priority].preemptions++;
+			request.held = false;
+			this.free++;
+			
+			//back in the queue with its old sequence number, ahead of batch work that hasn't started
+			queue(request);
+			await(request);
+		}
+	}
+	
+	/**
+	 * puts a request in its class's queue and hands out any free cores,
+	 * called holding the lock
+	 */
+	private void queue(Request request) {
+		request.granted = false;
+		request.queued = System.nanoTime();
+		this.waiting[request.priority].add(request);
+		if(request.priority == INTERACTIVE) {
+			this.interactiveWaiting++;
+		}
+		Metrics metrics = this.metrics[request.priority];
+		metrics.maxDepth = Math.max(metrics.maxDepth, this.waiting[request.priority].size());
+		dispatch();
+	}
+	
+	/**
+	 * waits until a request is granted, called holding the lock
+	 */
+	private void await(Request request) {
+		boolean interrupted = false;
+		while(!request.granted) {
+			try {
+				wait();
+			}
+			catch(InterruptedException e) {
+				//the core is coming either way, the interrupt is passed on once it has
+				interrupted = true;
+			}
+		}
+		request.held = true;
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * grants free cores to the waiting requests that come first, called
+	 * holding the lock
+	 */
+	private void dispatch() {
+		boolean granted = false;
+		for(int priority=0; priority<this.waiting.length && this.free > 0; priority++) {
+			while(this.free > 0 && !this.waiting[priority].isEmpty()) {
+				Request request = this.waiting[priority].poll();
+				if(priority == INTERACTIVE) {
+					this.interactiveWaiting--;
+				}
+				this.free--;
+				request.granted = true;
+				granted = true;
+				record(request);
+			}
+		}
+		if(granted) {
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * adds a granted request's wait to its class's metrics
+	 */
+	private void record(Request request) {
+		long now = System.nanoTime();
+		long wait = now - request.queued;
+		Metrics metrics = this.metrics[request.priority];
+		metrics.grants++;
+		metrics.waitNanos += wait;
+		metrics.maxWaitNanos = Math.max(metrics.maxWaitNanos, wait);
+		metrics.histogram[bucket(wait)]++;
+		if(now > request.deadline) {
+			metrics.late++;
+		}
+	}
+	
+	/**
+	 * histogram bucket for a wait, four to each power of two
+	 */
+	private static int bucket(long nanos) {
+		if(nanos < 4) {
+			return (int) Math.max(nanos, 0);
+		}
+		int log = 63 - Long.numberOfLeadingZeros(nanos);
+		return Math.min(BUCKETS - 1, log * 4 + (int) ((nanos >>> (log - 2)) & 3));
+	}
+	
+	/**
+	 * the longest wait that falls in a histogram bucket
+	 */
+	private static long bucketLimit(int bucket) {
+		if(bucket < 8) {
+			return bucket;
+		}
+		int log = bucket / 4;
+		return ((4L + (bucket & 3) + 1) << (log - 2)) - 1;
+	}
+	
+	/**
+	 * number of requests of a class waiting for a core right now
+	 * 
+	 * @param priority INTERACTIVE or BATCH
+	 * @return the queue depth
+	 */
+	public synchronized int getQueueDepth(int priority) {
+		return this.waiting[priority].size();
+	}
+	
+	/**
+	 * most requests of a class that have waited at once
+	 * 
+	 * @param priority INTERACTIVE or BATCH
+	 * @return the deepest the queue has been
+	 */
+	public synchronized int getMaxQueueDepth(int priority) {
+		return this.metrics[priority].maxDepth;
+	}
+	
+	/**
+	 * number of times a class has been given a core, preempted work getting it
+	 * back included
+	 * 
+	 * @param priority INTERACTIVE or BATCH
+	 * @return the number of grants
+	 */
+	public synchronized long getGrants(int priority) {
+		return this.metrics[priority].grants;
+	}
+	
+	/**
+	 * number of times work of a class gave its core up at a checkpoint
+	 * 
+	 * @param priority INTERACTIVE or BATCH
+	 * @return the number of preemptions
+	 */
+	public synchronized long getPreemptions(int priority) {
+		return this.metrics[priority].preemptions;
+	}
+	
+	/**
+	 * number of grants that came after the request's deadline
+	 * 
+	 * @param priority INTERACTIVE or BATCH
+	 * @return the number of late grants
+	 */
+	public synchronized long getLate(int priority) {
+		return this.metrics[priority].late;
+	}
+	
+	/**
+	 * average time a class waited for a core
+	 * 
+	 * @param priority INTERACTIVE or BATCH
+	 * @return the mean wait in nanoseconds, 0 if nothing has waited
+	 */
+	public synchronized long getMeanWaitNanos(int priority) {
+		Metrics metrics = this.metrics[priority];
+		return metrics.grants == 0 ? 0 : metrics.waitNanos / metrics.grants;
+	}
+	
+	/**
+	 * longest time a class waited for a core
+	 * 
+	 * @param priority INTERACTIVE or BATCH
+	 * @return the longest wait in nanoseconds
+	 */
+	public synchronized long getMaxWaitNanos(int priority) {
+		return this.metrics[priority].maxWaitNanos;
+	}
+	
+	/**
+	 * a percentile of the time a class waited for a core, rounded up to the
+	 * end of its histogram bucket
+	 * 
+	 * @param priority INTERACTIVE or BATCH
+	 * @param percentile the percentile, e.g. 99
+	 * @return the wait in nanoseconds that percentile of grants got within
+	 */
+	public synchronized long getWaitPercentileNanos(int priority, double percentile) {
+		Metrics metrics = this.metrics[priority];
+		long rank = (long) Math.ceil(metrics.grants * percentile / 100);
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++) {
+			seen += metrics.histogram[i];
+			if(seen >= rank && seen > 0) {
+				return Math.min(bucketLimit(i), metrics.maxWaitNanos);
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * one line of metrics for each class
+	 * 
+	 * @return the metrics as text
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder text = new StringBuilder();
+		for(int i=0; i<NAMES.length; i++) {
+			text.append(String.format("%-11s queued %d (max %d), %d grants, wait mean %.3f ms p99 %.3f ms max %.3f ms, %d preempted, %d late%n",
+					NAMES[i], getQueueDepth(i), getMaxQueueDepth(i), getGrants(i), getMeanWaitNanos(i) / 1e6,
+					getWaitPercentileNanos(i, 99) / 1e6, getMaxWaitNanos(i) / 1e6, getPreemptions(i), getLate(i)));
+		}
+		return text.toString();
+	}
+}
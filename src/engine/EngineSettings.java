@@ -0,0 +1,136 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import model.IllegalUserInputException;
+
+/**
+ * Text description of an engine configuration, used to tell tools and remote
+ * workers which Player to build. The form is the engine type optionally
+ * followed by comma separated key=value settings, e.g. "greedy" or
+ * "search,depth=8,millis=200,exact=14,probcut=probcut.dat,weights=weights.dat".
+ * 
+ * Settings for "search": depth, nodes, millis, exact (empties solved to the end),
+ * hash (log2 of the transposition table size), probcut (parameter file) and
+ * weights (evaluation weights written by tools.Trainer).
+ * 
+ * Settings for "mcts" (MonteCarloSearch): playouts (per move), millis, threads and
+ * memory (megabytes for the tree), e.g. "mcts,millis=1000,threads=4,memory=256".
+ * Without a playout or time limit it plays 10000 playouts a move.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class EngineSettings {
+	
+	private final String type;
+	private int depth = 6;
+	private long nodes = 0;
+	private long millis = 0;
+	private int exact = 12;
+	private int hashBits = 18;
+	private String probCutFile;
+	private String weightsFile;
+	private long playouts = 0;
+	private int threads = 1;
+	private int memory = 64;
+	
+	private EngineSettings(String type) {
+		this.type = type;
+	}
+	
+	/**
+	 * parses an engine description
+	 * 
+	 * @param text the description
+	 * @return the settings
+	 * @throws IllegalUserInputException if the type or a setting isn't recognised
+	 */
+	public static EngineSettings parse(String text) throws IllegalUserInputException {
+		String[] parts = text.trim().split(",");
+		EngineSettings settings = new EngineSettings(parts[0]);
+		if(!settings.type.equals("greedy") && !settings.type.equals("search") && !settings.type.equals("mcts")) {
+			throw new IllegalUserInputException("Unknown engine type " + settings.type);
+		}
+		
+		for(int i=1; i<parts.length; i++) {
+			int eq = parts[i].indexOf('=');
+			if(eq < 0) {
+				throw new IllegalUserInputException("Engine setting " + parts[i] + " should be key=value");
+			}
+			String key = parts[i].substring(0, eq);
+			String value = parts[i].substring(eq + 1);
+			try {
+				switch(key) {
+					case "depth": settings.depth = Integer.parseInt(value); break;
+					case "nodes": settings.nodes = Long.parseLong(value); break;
+					case "millis": settings.millis = Long.parseLong(value); break;
+					case "exact": settings.exact = Integer.parseInt(value); break;
+					case "hash": settings.hashBits = Integer.parseInt(value); break;
+					case "probcut": settings.probCutFile = value; break;
+					case "weights": settings.weightsFile = value; break;
+					case "playouts": settings.playouts = Long.parseLong(value); break;
+					case "threads": settings.threads = Integer.parseInt(value); break;
+					case "memory": settings.memory = Integer.parseInt(value); break;
+					default: throw new IllegalUserInputException("Unknown engine setting " + key);
+				}
+			}
+			catch(NumberFormatException e) {
+				throw new IllegalUserInputException("Engine setting " + key + " needs a number, got " + value);
+			}
+		}
+		return settings;
+	}
+	
+	/**
+	 * builds a new Player with these settings. Each call makes its own search
+	 * and transposition table, so players can be used on different threads.
+	 * 
+	 * @return the player
+	 * @throws IOException if a data file named in the settings can't be loaded
+	 */
+	public Player createPlayer() throws IOException {
+		if(this.type.equals("greedy")) {
+			return new GreedyPlayer();
+		}
+		if(this.type.equals("mcts")) {
+			long playouts = this.playouts <= 0 && this.millis <= 0 ? 10000 : this.playouts;
+			return new MonteCarloSearch(this.threads, this.memory * 1048576L, playouts, this.millis);
+		}
+		
+		Evaluator evaluator = this.weightsFile == null ? new Evaluator() : Evaluator.load(Paths.get(this.weightsFile));
+		Search search = new Search(evaluator, new TranspositionTable(this.hashBits));
+		if(this.probCutFile != null) {
+			search.setProbCut(ProbCut.load(Paths.get(this.probCutFile)));
+		}
+		SearchLimits limits = new SearchLimits(this.depth, this.nodes, this.millis);
+		limits.setExactEmpties(this.exact);
+		return new SearchPlayer(search, limits);
+	}
+	
+	/**
+	 * getter for the engine type
+	 * 
+	 * @return "greedy", "search" or "mcts"
+	 */
+	public String getType() {
+		return this.type;
+	}
+	
+	/**
+	 * returns the settings in the form parse reads
+	 */
+	@Override
+	public String toString() {
+		if(this.type.equals("greedy")) {
+			return this.type;
+		}
+		if(this.type.equals("mcts")) {
+			return this.type + ",playouts=" + this.playouts + ",millis=" + this.millis + ",threads=" + this.threads + ",memory=" + this.memory;
+		}
+		return this.type + ",depth=" + this.depth + ",nodes=" + this.nodes + ",millis=" + this.millis + ",exact=" + this.exact
+				+ ",hash=" + this.hashBits + (this.probCutFile == null ? "" : ",probcut=" + this.probCutFile)
+				+ (this.weightsFile == null ? "" : ",weights=" + this.weightsFile);
+	}
+}
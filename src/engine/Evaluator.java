@@ -0,0 +1,235 @@
+package engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Static evaluation for the search engine. A position is reduced to a small
+ * set of features (disc difference in each of the 10 symmetric square classes,
+ * mobility, frontier and stable discs) which are weighted per game phase. Scores are from the
+ * side to move's point of view, in the same disc units as a final score.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class Evaluator {
+	
+	/** number of square classes, squares that are the same under the board's symmetries */
+	public static final int SQUARE_CLASSES = 10;
+	
+	/** index of the mobility feature */
+	public static final int MOBILITY = 10;
+	
+	/** index of the frontier feature */
+	public static final int FRONTIER = 11;
+	
+	/** index of the stable disc feature */
+	public static final int STABILITY = 12;
+	
+	/** total number of features */
+	public static final int FEATURES = 13;
+	
+	/** number of game phases with their own weights */
+	public static final int PHASES = 4;
+	
+	private static final int MAGIC = 0x52455657; // "REVW"
+	private static final int VERSION = 2;
+	
+	//bitmask of every square in each class
+	private static final long[] CLASS_MASKS = new long[SQUARE_CLASSES];
+	
+	//class of a square given its distance from the nearest edge in each direction
+	private static final int[][] CLASS_OF = {
+		{0, 1, 2, 3},
+		{1, 4, 5, 6},
+		{2, 5, 7, 8},
+		{3, 6, 8, 9}
+	};
+	
+	//corner, C-square, A-square, B-square, X-square, ..., center
+	private static final float[] DEFAULT_WEIGHTS = {8f, -2.5f, 1f, 0.5f, -4f, -0.5f, 0f, 0.5f, 0f, 0f, 1f, -0.5f, 1f};
+	
+	static {
+		for(int i=0; i<8; i++) {
+			for(int j=0; j<8; j++) {
+				CLASS_MASKS[CLASS_OF[Math.min(i, 7-i)][Math.min(j, 7-j)]] |= 1L << (i*8 + j);
+			}
+		}
+	}
+	
+	private final float[][] weights;
+	
+	/**
+	 * Constructor for the default hand-tuned weights
+	 */
+	public Evaluator() {
+		this.weights = new float[PHASES][];
+		for(int i=0; i<PHASES; i++) {
+			this.weights[i] = DEFAULT_WEIGHTS.clone();
+		}
+	}
+	
+	/**
+	 * Constructor for a custom set of weights
+	 * 
+	 * @param weights PHASES arrays of FEATURES weights each
+	 */
+	public Evaluator(float[][] weights) {
+		if(weights.length != PHASES) {
+			throw new IllegalArgumentException("Expected " + PHASES + " phases of weights, got " + weights.length);
+		}
+		this.weights = new float[PHASES][];
+		for(int i=0; i<PHASES; i++) {
+			if(weights[i].length != FEATURES) {
+				throw new IllegalArgumentException("Expected " + FEATURES + " weights per phase, got " + weights[i].length);
+			}
+			this.weights[i] = weights[i].clone();
+		}
+	}
+	
+	/**
+	 * returns the phase a position with this many empty squares belongs to
+	 * 
+	 * @param empties number of empty squares
+	 * @return the phase, 0 for the opening up to PHASES-1 for the endgame
+	 */
+	public static int phase(int empties) {
+		return Math.min(PHASES - 1, Math.max(0, 60 - empties) * PHASES / 61);
+	}
+	
+	/**
+	 * fills out with the feature values of a position
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param out array of at least FEATURES entries to write into
+	 */
+	public static void features(long player, long opponent, float[] out) {
+		apply(player, opponent, null, out);
+	}
+	
+	/**
+	 * evaluates a position from the side to move's point of view
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return estimated final disc difference, between -64 and 64
+	 */
+	public int evaluate(long player, long opponent) {
+		float score = apply(player, opponent, this.weights[phase(Bitboard.empties(player, opponent))], null);
+		return Math.max(-64, Math.min(64, Math.round(score)));
+	}
+	
+	/**
+	 * the one place the features are worked out, so the trainer (features) and
+	 * play (evaluate) can't drift apart. Each feature is written to out and
+	 * weighted into the score, either can be null.
+	 * 
+	 * @return the weighted sum of the features, 0 without weights
+	 */
+	private static float apply(long player, long opponent, float[] w, float[] out) {
+		float score = 0;
+		for(int c=0; c<SQUARE_CLASSES; c++) {
+			score += feature(c, Long.bitCount(player & CLASS_MASKS[c]) - Long.bitCount(opponent & CLASS_MASKS[c]), w, out);
+		}
+		score += feature(MOBILITY, Long.bitCount(Bitboard.legalMoves(player, opponent)) - Long.bitCount(Bitboard.legalMoves(opponent, player)), w, out);
+		
+		long empty = ~(player | opponent);
+		long nearEmpty = 0;
+		for(int d=0; d<8; d++) {
+			nearEmpty |= Bitboard.shift(empty, d);
+		}
+		score += feature(FRONTIER, Long.bitCount(player & nearEmpty) - Long.bitCount(opponent & nearEmpty), w, out);
+		score += feature(STABILITY, Stability.count(player, opponent) - Stability.count(opponent, player), w, out);
+		return score;
+	}
+	
+	/**
+	 * records one feature's value and returns what it adds to the score
+	 */
+	private static float feature(int index, int value, float[] w, float[] out) {
+		if(out != null) {
+			out[index] = value;
+		}
+		return w == null ? 0 : w[index] * value;
+	}
+	
+	/**
+	 * loads weights written by save, e.g. by tools.Trainer
+	 * 
+	 * @param path the weight file
+	 * @return an evaluator using the weights
+	 * @throws IOException if the file can't be read or is for a different feature set
+	 */
+	public static Evaluator load(Path path) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			int version;
+			if(in.readInt() != MAGIC || (version = in.readInt()) < 1 || version > VERSION) {
+				throw new IOException(path + " isn't a weight file for this version");
+			}
+			//version 1 files were fitted before the stability feature, which they leave at 0
+			int features = in.readInt() == PHASES ? in.readInt() : -1;
+			if(features != (version == 1 ? STABILITY : FEATURES)) {
+				throw new IOException(path + " has weights for a different feature set");
+			}
+			float[][] weights = new float[PHASES][FEATURES];
+			for(int i=0; i<PHASES; i++) {
+				for(int j=0; j<features; j++) {
+					weights[i][j] = in.readFloat();
+				}
+			}
+			return new Evaluator(weights);
+		}
+	}
+	
+	/**
+	 * writes the weights to a file load can read
+	 * 
+	 * @param path the weight file
+	 * @throws IOException if the file can't be written
+	 */
+	public void save(Path path) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(PHASES);
+			out.writeInt(FEATURES);
+			for(int i=0; i<PHASES; i++) {
+				for(int j=0; j<FEATURES; j++) {
+					out.writeFloat(this.weights[i][j]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * returns a copy of the weights for one phase
+	 * 
+	 * @param phase the phase
+	 * @return that phase's FEATURES weights
+	 */
+	public float[] getWeights(int phase) {
+		return this.weights[phase].clone();
+	}
+	
+	/**
+	 * hash of every weight, two evaluators score positions the same way only if
+	 * their fingerprints match
+	 * 
+	 * @return the fingerprint
+	 */
+	public long fingerprint() {
+		long hash = 0;
+		for(int i=0; i<PHASES; i++) {
+			for(int j=0; j<FEATURES; j++) {
+				hash = Bitboard.hash(hash, ((long) (i*FEATURES + j) << 32) | (Float.floatToIntBits(this.weights[i][j]) & 0xFFFFFFFFL));
+			}
+		}
+		return hash;
+	}
+}
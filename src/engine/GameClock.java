@@ -0,0 +1,149 @@
+package engine;
+
+/**
+ * Chess style game clock for both sides. Either each side has a total time
+ * with an increment added after every move, or every move gets a fixed time
+ * and nothing carries over. Sides are 'W' and 'B' like the rest of the game.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class GameClock {
+	
+	private final long incrementMillis;
+	private final long moveMillis;
+	private long whiteMillis;
+	private long blackMillis;
+	private char running = ' ';
+	private long startNanos;
+	
+	/**
+	 * Constructor for a total time plus increment clock
+	 * 
+	 * @param totalMillis each side's starting time
+	 * @param incrementMillis time added after each move
+	 */
+	public GameClock(long totalMillis, long incrementMillis) {
+		this(totalMillis, incrementMillis, 0);
+	}
+	
+	private GameClock(long totalMillis, long incrementMillis, long moveMillis) {
+		this.whiteMillis = totalMillis;
+		this.blackMillis = totalMillis;
+		this.incrementMillis = incrementMillis;
+		this.moveMillis = moveMillis;
+	}
+	
+	/**
+	 * creates a clock that gives every move the same fixed time
+	 * 
+	 * @param moveMillis time for each move
+	 * @return the clock
+	 */
+	public static GameClock fixedPerMove(long moveMillis) {
+		return new GameClock(moveMillis, 0, moveMillis);
+	}
+	
+	/**
+	 * parses a clock setting, "minutes+seconds" for total time plus increment
+	 * (e.g. "5+3") or "seconds/move" for a fixed time per move (e.g. "2/move")
+	 * 
+	 * @param setting the clock setting
+	 * @return the clock
+	 * @throws NumberFormatException if the setting doesn't parse
+	 */
+	public static GameClock parse(String setting) {
+		if(setting.endsWith("/move")) {
+			return fixedPerMove((long) (Double.parseDouble(setting.substring(0, setting.length() - 5)) * 1000));
+		}
+		int plus = setting.indexOf('+');
+		double minutes = Double.parseDouble(plus < 0 ? setting : setting.substring(0, plus));
+		double seconds = plus < 0 ? 0 : Double.parseDouble(setting.substring(plus + 1));
+		return new GameClock((long) (minutes * 60000), (long) (seconds * 1000));
+	}
+	
+	/**
+	 * starts a side's clock, stopping the other side's if it was running
+	 * 
+	 * @param side 'W' or 'B'
+	 */
+	public synchronized void start(char side) {
+		stop();
+		this.running = side;
+		this.startNanos = System.nanoTime();
+	}
+	
+	/**
+	 * stops the running clock, charging its side for the time used and adding
+	 * the increment (or resetting the move time for a fixed time clock)
+	 * 
+	 * @return milliseconds used since start, 0 if nothing was running
+	 */
+	public synchronized long stop() {
+		if(this.running == ' ') {
+			return 0;
+		}
+		long used = (System.nanoTime() - this.startNanos) / 1000000L;
+		long left = this.moveMillis > 0 ? this.moveMillis : Math.max(0, remaining(this.running)) + this.incrementMillis;
+		if(this.running == 'W') {
+			this.whiteMillis = left;
+		}
+		else {
+			this.blackMillis = left;
+		}
+		this.running = ' ';
+		return used;
+	}
+	
+	/**
+	 * returns a side's remaining time, counting time used so far if it's running
+	 * 
+	 * @param side 'W' or 'B'
+	 * @return remaining milliseconds, negative if the side has run out
+	 */
+	public synchronized long remaining(char side) {
+		long left = side == 'W' ? this.whiteMillis : this.blackMillis;
+		if(side == this.running) {
+			left -= (System.nanoTime() - this.startNanos) / 1000000L;
+		}
+		return left;
+	}
+	
+	/**
+	 * returns the side whose clock is running
+	 * 
+	 * @return 'W', 'B', or ' ' if neither
+	 */
+	public synchronized char getRunning() {
+		return this.running;
+	}
+	
+	/**
+	 * getter for the increment
+	 * 
+	 * @return milliseconds added after each move
+	 */
+	public long getIncrement() {
+		return this.incrementMillis;
+	}
+	
+	/**
+	 * returns true if every move gets the same fixed time
+	 * 
+	 * @return true for a fixed time per move clock
+	 */
+	public boolean isFixedPerMove() {
+		return this.moveMillis > 0;
+	}
+	
+	/**
+	 * formats a side's remaining time as m:ss
+	 * 
+	 * @param side 'W' or 'B'
+	 * @return the remaining time
+	 */
+	public String format(char side) {
+		long left = Math.max(0, remaining(side));
+		return String.format("%d:%02d", left / 60000, left / 1000 % 60);
+	}
+}
@@ -0,0 +1,152 @@
+package engine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A finished game, stored as its starting position and one byte per move.
+ * Passes aren't stored, on replay a side with no legal move just passes.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class GameRecord {
+	
+	/**
+	 * receives each position of a replayed game
+	 */
+	public interface Visitor {
+		
+		/**
+		 * called once for every move of the game
+		 * 
+		 * @param player pieces of the side to move
+		 * @param opponent pieces of the other side
+		 * @param move the square the side to move played
+		 * @param score the game's final score from the side to move's point of view
+		 */
+		void visit(long player, long opponent, int move, int score);
+	}
+	
+	private final long startPlayer;
+	private final long startOpponent;
+	private final byte[] moves;
+	private final int score;
+	
+	/**
+	 * Constructor, just saves the passed in parameters into the appropriate fields
+	 * 
+	 * @param startPlayer pieces of the side to move first
+	 * @param startOpponent pieces of the other side
+	 * @param moves the squares played, in order
+	 * @param score final score from the first mover's point of view
+	 */
+	public GameRecord(long startPlayer, long startOpponent, byte[] moves, int score) {
+		this.startPlayer = startPlayer;
+		this.startOpponent = startOpponent;
+		this.moves = moves;
+		this.score = score;
+	}
+	
+	/**
+	 * getter for the first mover's starting pieces
+	 * 
+	 * @return bitmask of the first mover's pieces
+	 */
+	public long getStartPlayer() {
+		return this.startPlayer;
+	}
+	
+	/**
+	 * getter for the other side's starting pieces
+	 * 
+	 * @return bitmask of the second mover's pieces
+	 */
+	public long getStartOpponent() {
+		return this.startOpponent;
+	}
+	
+	/**
+	 * getter for the moves
+	 * 
+	 * @return the squares played, in order
+	 */
+	public byte[] getMoves() {
+		return this.moves;
+	}
+	
+	/**
+	 * getter for the final score
+	 * 
+	 * @return final score from the first mover's point of view
+	 */
+	public int getScore() {
+		return this.score;
+	}
+	
+	/**
+	 * writes the game in its binary form: both starting bitboards, the move
+	 * count, one byte per move and the final score
+	 * 
+	 * @param out where to write the game
+	 * @throws IOException if writing fails
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(this.startPlayer);
+		out.writeLong(this.startOpponent);
+		out.writeByte(this.moves.length);
+		out.write(this.moves);
+		out.writeByte(this.score);
+	}
+	
+	/**
+	 * reads a game written by write
+	 * 
+	 * @param in where to read the game from
+	 * @return the game
+	 * @throws IOException if reading fails or the record is damaged
+	 */
+	public static GameRecord read(DataInput in) throws IOException {
+		long player = in.readLong();
+		long opponent = in.readLong();
+		int count = in.readUnsignedByte();
+		if(count > 60) {
+			throw new IOException("Game record with " + count + " moves");
+		}
+		byte[] moves = new byte[count];
+		in.readFully(moves);
+		return new GameRecord(player, opponent, moves, in.readByte());
+	}
+	
+	/**
+	 * replays the game, calling visitor with each position before its move
+	 * 
+	 * @param visitor receives the positions
+	 * @throws IllegalStateException if a move isn't legal
+	 */
+	public void replay(Visitor visitor) {
+		long player = this.startPlayer;
+		long opponent = this.startOpponent;
+		boolean first = true;
+		
+		for(byte m : this.moves) {
+			if(Bitboard.legalMoves(player, opponent) == 0) {
+				long swap = player;
+				player = opponent;
+				opponent = swap;
+				first = !first;
+			}
+			if((Bitboard.legalMoves(player, opponent) & (1L << m)) == 0) {
+				throw new IllegalStateException("Illegal move " + Bitboard.squareName(m) + " in game record");
+			}
+			visitor.visit(player, opponent, m, first ? this.score : -this.score);
+			
+			long flipped = Bitboard.flips(player, opponent, m);
+			long next = opponent & ~flipped;
+			opponent = player | flipped | (1L << m);
+			player = next;
+			first = !first;
+		}
+	}
+}
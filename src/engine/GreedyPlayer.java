@@ -0,0 +1,28 @@
+package engine;
+
+/**
+ * The original computer player, takes whichever move flips the most pieces
+ * (the same pick as LegalMoves.bestMove()).
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class GreedyPlayer implements Player {
+	
+	@Override
+	public int move(long player, long opponent) {
+		long moves = Bitboard.legalMoves(player, opponent);
+		int best = Bitboard.PASS;
+		int most = -1;
+		while(moves != 0) {
+			int square = Long.numberOfTrailingZeros(moves);
+			moves &= moves - 1;
+			int count = Long.bitCount(Bitboard.flips(player, opponent, square));
+			if(count > most) {
+				most = count;
+				best = square;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,492 @@
+package engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Player that picks moves by Monte Carlo tree search (UCT), playing random games
+ * out from the leaves of a tree grown towards the moves that win most often. No
+ * evaluation is needed, and it gets stronger the more playouts it has time for.
+ * 
+ * The tree is kept in parallel primitive arrays, a node being an index into all
+ * of them, with each node's children in one contiguous block, so a move's playouts
+ * don't allocate anything. Several threads can grow the same tree: counts are
+ * updated atomically through VarHandles, and a thread adds a virtual loss to each
+ * node on its way down so the others are steered off the line it's busy with.
+ * 
+ * Between moves the part of the tree under the moves actually played is kept
+ * and packed down to the front of the arrays, the rest is thrown away. Once the
+ * arrays are full the tree stops growing and playouts carry on from its leaves.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class MonteCarloSearch implements Player {
+	
+	/** bytes of memory each tree node takes */
+	public static final int NODE_BYTES = 8 + 8 + 4 + 4 + 4 + 4 + 1 + 1;
+	
+	//how many visits a thread going down through a node adds until its playout is back
+	private static final int VIRTUAL_LOSS = 3;
+	
+	//exploration constant of the UCT formula
+	private static final double EXPLORATION = 1.0;
+	
+	//firstChild values for a node with no children yet, and one being expanded by another thread
+	private static final int LEAF = 0;
+	private static final int EXPANDING = -1;
+	
+	//longest path from the root, 60 moves plus passes
+	private static final int MAX_PATH = 128;
+	
+	//playouts between checks of the clock
+	private static final int CHECK_INTERVAL = 63;
+	
+	private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+	private static final VarHandle NEXT;
+	private static final VarHandle PLAYOUTS;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			NEXT = lookup.findVarHandle(MonteCarloSearch.class, "next", int.class);
+			PLAYOUTS = lookup.findVarHandle(MonteCarloSearch.class, "playouts", long.class);
+		}
+		catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
+	//the tree, node i is players[i], opponents[i] etc. The position is from the point of
+	//view of the side to move there, and wins are in half points for the side that moved into it.
+	private final long[] players;
+	private final long[] opponents;
+	private final int[] firstChild;
+	private final int[] parent;
+	private final int[] visits;
+	private final int[] wins;
+	private final byte[] childCount;
+	private final byte[] moves;
+	private final long[] kept;
+	private final int capacity;
+	private int root;
+	private volatile int next;
+	
+	private final long playoutLimit;
+	private final long millis;
+	private final Worker[] workers;
+	private final ExecutorService pool;
+	private volatile long playouts;
+	private volatile boolean stopped;
+	private long deadline;
+	private long lastPlayouts;
+	private long lastNanos;
+	
+	/**
+	 * Constructor, allocates the tree and starts the extra threads
+	 * 
+	 * @param threads number of threads playing out games, including the caller's
+	 * @param memory most bytes the tree can use
+	 * @param playoutLimit playouts per move, 0 for no limit
+	 * @param millis time per move in milliseconds, 0 for no limit
+	 */
+	public MonteCarloSearch(int threads, long memory, long playoutLimit, long millis) {
+		if(playoutLimit <= 0 && millis <= 0) {
+			throw new IllegalArgumentException("Monte Carlo search needs a playout or time limit.");
+		}
+		this.capacity = (int) Math.max(1024, Math.min(Integer.MAX_VALUE - 64, memory / NODE_BYTES));
+		this.players = new long[this.capacity];
+		this.opponents = new long[this.capacity];
+		this.firstChild = new int[this.capacity];
+		this.parent = new int[this.capacity];
+		this.visits = new int[this.capacity];
+		this.wins = new int[this.capacity];
+		this.childCount = new byte[this.capacity];
+		this.moves = new byte[this.capacity];
+		this.kept = new long[(this.capacity >> 6) + 1];
+		this.playoutLimit = playoutLimit > 0 ? playoutLimit : Long.MAX_VALUE;
+		this.millis = millis;
+		
+		this.workers = new Worker[Math.max(1, threads)];
+		for(int i=0; i<this.workers.length; i++) {
+			this.workers[i] = new Worker(System.nanoTime() * 31 + i);
+		}
+		this.pool = this.workers.length == 1 ? null : Executors.newFixedThreadPool(this.workers.length - 1, r -> {
+			Thread thread = new Thread(r, "monte-carlo");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	@Override
+	public int move(long player, long opponent) {
+		return move(player, opponent, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * searches until the playout limit, the time per move or the deadline,
+	 * whichever comes first
+	 */
+	@Override
+	public int move(long player, long opponent, long deadline) {
+		long start = System.nanoTime();
+		int reused = find(player, opponent);
+		if(reused >= 0) {
+			compact(reused);
+		}
+		else {
+			this.root = 0;
+			this.next = 1;
+			this.players[0] = player;
+			this.opponents[0] = opponent;
+			this.firstChild[0] = LEAF;
+			this.parent[0] = -1;
+			this.visits[0] = 0;
+			this.wins[0] = 0;
+			this.moves[0] = (byte) Bitboard.PASS;
+		}
+		expand(this.root);
+		
+		this.playouts = 0;
+		this.stopped = false;
+		this.deadline = Math.min(deadline, this.millis > 0 ? start + this.millis * 1000000L : Long.MAX_VALUE);
+		List<Future<?>> running = new ArrayList<Future<?>>();
+		for(int i=1; i<this.workers.length; i++) {
+			running.add(this.pool.submit(this.workers[i]));
+		}
+		this.workers[0].run();
+		try {
+			for(Future<?> f : running) {
+				f.get();
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Monte Carlo playout failed", e.getCause());
+		}
+		this.lastPlayouts = Math.min(this.playouts, this.playoutLimit);
+		this.lastNanos = System.nanoTime() - start;
+		
+		//the most visited move is the one the search trusts most
+		int best = -1;
+		int first = this.firstChild[this.root];
+		for(int c=first; c<first + this.childCount[this.root]; c++) {
+			if(best < 0 || this.visits[c] > this.visits[best]) {
+				best = c;
+			}
+		}
+		return this.moves[best];
+	}
+	
+	/**
+	 * getter for the number of playouts the last move got
+	 * 
+	 * @return the playout count
+	 */
+	public long getLastPlayouts() {
+		return this.lastPlayouts;
+	}
+	
+	/**
+	 * playouts per second on the last move
+	 * 
+	 * @return the playout rate
+	 */
+	public double getPlayoutRate() {
+		return this.lastNanos == 0 ? 0 : this.lastPlayouts * 1e9 / this.lastNanos;
+	}
+	
+	/**
+	 * getter for the number of nodes in the tree
+	 * 
+	 * @return the tree size
+	 */
+	public int getTreeSize() {
+		return this.next;
+	}
+	
+	/**
+	 * getter for the most nodes the tree can hold
+	 * 
+	 * @return the node capacity
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+	
+	/**
+	 * stops the extra playout threads, the search can't be used afterwards
+	 */
+	public void shutdown() {
+		if(this.pool != null) {
+			this.pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * one playout: down the tree by UCT, growing it by a node's children at the
+	 * bottom, a random game from there, then the result back up the path taken
+	 */
+	private void playout(Worker worker) {
+		int[] path = worker.path;
+		int length = 0;
+		int node = this.root;
+		path[length++] = node;
+		INTS.getAndAdd(this.visits, node, VIRTUAL_LOSS);
+		int first;
+		while((first = (int) INTS.getAcquire(this.firstChild, node)) > 0) {
+			node = select(node, first);
+			path[length++] = node;
+			INTS.getAndAdd(this.visits, node, VIRTUAL_LOSS);
+		}
+		
+		//leaves that have been visited before get their children, and the playout starts from one of them
+		if(first == LEAF && this.visits[node] > VIRTUAL_LOSS && expand(node)) {
+			first = this.firstChild[node];
+			node = first + worker.random(this.childCount[node]);
+			path[length++] = node;
+			INTS.getAndAdd(this.visits, node, VIRTUAL_LOSS);
+		}
+		
+		//result for the side to move at the leaf, +1 a win, 0 a draw, -1 a loss, flipped each ply back up
+		int result = worker.simulate(this.players[node], this.opponents[node]);
+		for(int i=length - 1; i>=0; i--) {
+			INTS.getAndAdd(this.visits, path[i], 1 - VIRTUAL_LOSS);
+			INTS.getAndAdd(this.wins, path[i], 1 - result);
+			result = -result;
+		}
+	}
+	
+	/**
+	 * picks the child to go down into, the one with the best UCT score. Children
+	 * nobody has tried yet come first.
+	 */
+	private int select(int node, int first) {
+		double logVisits = Math.log(Math.max(1, this.visits[node]));
+		int best = first;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for(int c=first; c<first + this.childCount[node]; c++) {
+			int v = this.visits[c];
+			if(v == 0) {
+				return c;
+			}
+			double score = this.wins[c] / (2.0 * v) + EXPLORATION * Math.sqrt(logVisits / v);
+			if(score > bestScore) {
+				bestScore = score;
+				best = c;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * gives a node its children, one per legal move (or a single pass). Only one
+	 * thread gets to expand a node, the others carry on as if it were still a leaf.
+	 * 
+	 * @return true if the node now has children, false if it's the end of the game,
+	 * another thread got there first or the tree is full
+	 */
+	private boolean expand(int node) {
+		long player = this.players[node];
+		long opponent = this.opponents[node];
+		long legal = Bitboard.legalMoves(player, opponent);
+		if(legal == 0 && Bitboard.legalMoves(opponent, player) == 0) {
+			return false;
+		}
+		int count = legal == 0 ? 1 : Long.bitCount(legal);
+		if(this.next + count > this.capacity || !INTS.compareAndSet(this.firstChild, node, LEAF, EXPANDING)) {
+			return false;
+		}
+		//claims the children's slots without ever moving next past the capacity, threads racing
+		//for the last few slots mustn't leave it pointing off the end of the arrays
+		int first;
+		do {
+			first = (int) NEXT.getVolatile(this);
+			if(first + count > this.capacity) {
+				INTS.setRelease(this.firstChild, node, LEAF);
+				return false;
+			}
+		} while(!NEXT.compareAndSet(this, first, first + count));
+		
+		for(int c=first; c<first + count; c++) {
+			int square = Bitboard.PASS;
+			long flipped = 0;
+			if(legal != 0) {
+				square = Long.numberOfTrailingZeros(legal);
+				legal &= legal - 1;
+				flipped = Bitboard.flips(player, opponent, square);
+			}
+			this.players[c] = opponent & ~flipped;
+			this.opponents[c] = square == Bitboard.PASS ? player : player | flipped | (1L << square);
+			this.moves[c] = (byte) square;
+			this.parent[c] = node;
+			this.firstChild[c] = LEAF;
+			this.visits[c] = 0;
+			this.wins[c] = 0;
+		}
+		this.childCount[node] = (byte) count;
+		INTS.setRelease(this.firstChild, node, first);
+		return true;
+	}
+	
+	/**
+	 * looks for a position in the tree from the last move, a few plies down from
+	 * its root (our move, the reply, and maybe a pass and another reply)
+	 * 
+	 * @return the position's node, or -1 if it isn't there
+	 */
+	private int find(long player, long opponent) {
+		if(this.next == 0 || this.firstChild[this.root] <= 0) {
+			return -1;
+		}
+		int first = this.firstChild[this.root];
+		for(int c=first; c<first + this.childCount[this.root]; c++) {
+			int found = findBelow(c, player, opponent, 2);
+			if(found >= 0) {
+				return found;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * depth first look for a position at node or up to plies below it
+	 */
+	private int findBelow(int node, long player, long opponent, int plies) {
+		if(this.players[node] == player && this.opponents[node] == opponent) {
+			return node;
+		}
+		int first = this.firstChild[node];
+		if(plies == 0 || first <= 0) {
+			return -1;
+		}
+		for(int c=first; c<first + this.childCount[node]; c++) {
+			int found = findBelow(c, player, opponent, plies - 1);
+			if(found >= 0) {
+				return found;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * keeps only the subtree under node, packed down to the front of the arrays
+	 * with node as the new root. Children always come after their parent, so one
+	 * pass in index order marks the whole subtree and a second moves each kept node
+	 * down (never up, so nothing is overwritten before it's been moved).
+	 */
+	private void compact(int node) {
+		int end = this.next;
+		for(int i=node >> 6; i<=(end - 1) >> 6; i++) {
+			this.kept[i] = 0;
+		}
+		this.kept[node >> 6] |= 1L << node;
+		for(int i=node; i<end; i++) {
+			int first = this.firstChild[i];
+			if((this.kept[i >> 6] & (1L << i)) != 0 && first > 0) {
+				for(int c=first; c<first + this.childCount[i]; c++) {
+					this.kept[c >> 6] |= 1L << c;
+				}
+			}
+		}
+		
+		int to = 0;
+		for(int i=node; i<end; i++) {
+			if((this.kept[i >> 6] & (1L << i)) == 0) {
+				continue;
+			}
+			//the parent has already moved, point it at this node's new place if it heads the block
+			if(i != node && this.firstChild[this.parent[i]] == i) {
+				this.firstChild[this.parent[i]] = to;
+			}
+			this.players[to] = this.players[i];
+			this.opponents[to] = this.opponents[i];
+			this.firstChild[to] = this.firstChild[i];
+			this.parent[to] = i == node ? -1 : this.parent[i];
+			this.visits[to] = this.visits[i];
+			this.wins[to] = this.wins[i];
+			this.childCount[to] = this.childCount[i];
+			this.moves[to] = this.moves[i];
+			int first = this.firstChild[to];
+			for(int c=first; first > 0 && c<first + this.childCount[to]; c++) {
+				this.parent[c] = to;
+			}
+			to++;
+		}
+		this.root = 0;
+		this.next = to;
+	}
+	
+	/**
+	 * a playout thread's own state: its path through the tree and random numbers
+	 */
+	private final class Worker implements Runnable {
+		
+		private final int[] path = new int[MAX_PATH];
+		private long seed;
+		
+		private Worker(long seed) {
+			this.seed = seed | 1;
+		}
+		
+		@Override
+		public void run() {
+			while(!stopped) {
+				long done = (long) PLAYOUTS.getAndAdd(MonteCarloSearch.this, 1L);
+				if(done >= playoutLimit || ((done & CHECK_INTERVAL) == 0 && System.nanoTime() >= deadline)) {
+					stopped = true;
+					break;
+				}
+				playout(this);
+			}
+		}
+		
+		/**
+		 * xorshift random number below bound
+		 */
+		private int random(int bound) {
+			this.seed ^= this.seed << 13;
+			this.seed ^= this.seed >>> 7;
+			this.seed ^= this.seed << 17;
+			return (int) ((this.seed >>> 33) % bound);
+		}
+		
+		/**
+		 * plays random moves to the end of the game
+		 * 
+		 * @return +1 if the side to move at the start wins, 0 for a draw, -1 for a loss
+		 */
+		private int simulate(long player, long opponent) {
+			int sign = 1;
+			while(true) {
+				long legal = Bitboard.legalMoves(player, opponent);
+				if(legal == 0) {
+					if(Bitboard.legalMoves(opponent, player) == 0) {
+						break;
+					}
+				}
+				else {
+					for(int k=random(Long.bitCount(legal)); k>0; k--) {
+						legal &= legal - 1;
+					}
+					int square = Long.numberOfTrailingZeros(legal);
+					long flipped = Bitboard.flips(player, opponent, square);
+					player |= flipped | (1L << square);
+					opponent &= ~flipped;
+				}
+				long swap = player;
+				player = opponent;
+				opponent = swap;
+				sign = -sign;
+			}
+			return Integer.signum(Bitboard.finalScore(player, opponent)) * sign;
+		}
+	}
+}
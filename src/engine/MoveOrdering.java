@@ -0,0 +1,163 @@
+package engine;
+
+import java.util.Arrays;
+
+/**
+ * Decides the order a Search tries the moves at each node. Alpha-beta cuts off
+ * the most when the best move comes first, so the moves most likely to be best
+ * go first: two killer moves for the ply (moves that caused a cutoff at another
+ * node the same distance from the root), then the rest by how few moves they
+ * leave the opponent, with the history table (how much each square has caused
+ * cutoffs so far) breaking ties. Solving the endgame, fewest opponent moves
+ * first is also fastest first, it leads to the smallest subtrees. The hash move
+ * is tried by the search itself before any of this.
+ * 
+ * Scores live in flat int arrays with a slice for each ply, so nothing is
+ * allocated during the search, and the moves are picked out one at a time by
+ * selection sort. Most nodes cut off after one or two moves, so the rest of the
+ * list never gets sorted at all.
+ * 
+ * Like a Search, a MoveOrdering isn't thread safe, each search has its own.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class MoveOrdering {
+	
+	/** deepest ply that has room in the tables, passes count as plies */
+	public static final int MAX_PLY = 128;
+	
+	//no position has more legal moves than this
+	private static final int MAX_MOVES = 64;
+	
+	//killers go ahead of any other move, the first killer ahead of the second
+	private static final int KILLER = 1 << 30;
+	
+	//each opponent move counts this much against a move, so fewer opponent moves always
+	//beats better history
+	private static final int MOBILITY = 1 << 16;
+	
+	//history scores are halved once any of them reaches this, so they stay below MOBILITY
+	//and newer cutoffs count for more than old ones
+	private static final int HISTORY_LIMIT = 1 << 15;
+	
+	private final int[] squares = new int[MAX_PLY * MAX_MOVES];
+	private final int[] scores = new int[MAX_PLY * MAX_MOVES];
+	private final int[] killers = new int[MAX_PLY * 2];
+	private final int[] history = new int[64];
+	
+	/**
+	 * Constructor, starts with empty killer and history tables
+	 */
+	public MoveOrdering() {
+		clearKillers();
+	}
+	
+	/**
+	 * gets ready for a new search: killers are forgotten, history is halved
+	 * so what was learned about the last position still counts for something
+	 */
+	public void newSearch() {
+		clearKillers();
+		ageHistory();
+	}
+	
+	/**
+	 * scores the moves at a node and puts them in the ply's slice, ready to be
+	 * taken out best first with next
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param moves the moves to order
+	 * @param ply the node's distance from the root
+	 * @param mobility whether to count the opponent's replies to each move, worth it
+	 * except near the leaves
+	 * @return the number of moves
+	 */
+	public int order(long player, long opponent, long moves, int ply, boolean mobility) {
+		int base = ply * MAX_MOVES;
+		int killer1 = this.killers[2 * ply];
+		int killer2 = this.killers[2 * ply + 1];
+		int count = 0;
+		while(moves != 0) {
+			int square = Long.numberOfTrailingZeros(moves);
+			moves &= moves - 1;
+			int score;
+			if(square == killer1) {
+				score = KILLER + 1;
+			}
+			else if(square == killer2) {
+				score = KILLER;
+			}
+			else {
+				score = this.history[square];
+				if(mobility) {
+					long flipped = Bitboard.flips(player, opponent, square);
+					score -= MOBILITY * Long.bitCount(Bitboard.legalMoves(opponent & ~flipped, player | flipped | (1L << square)));
+				}
+			}
+			this.squares[base + count] = square;
+			this.scores[base + count] = score;
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * takes the best of the ply's moves that haven't been tried yet
+	 * 
+	 * @param ply the node's distance from the root
+	 * @param index how many moves have been taken already
+	 * @param count the number of moves order returned
+	 * @return the next move to try
+	 */
+	public int next(int ply, int index, int count) {
+		int base = ply * MAX_MOVES;
+		int best = base + index;
+		for(int i=best + 1; i<base + count; i++) {
+			if(this.scores[i] > this.scores[best]) {
+				best = i;
+			}
+		}
+		int square = this.squares[best];
+		this.squares[best] = this.squares[base + index];
+		this.scores[best] = this.scores[base + index];
+		this.squares[base + index] = square;
+		return square;
+	}
+	
+	/**
+	 * records a move that caused a cutoff, as a killer for the ply and in the
+	 * history table. Deeper cutoffs save more work so they count for more.
+	 * 
+	 * @param ply the node's distance from the root
+	 * @param square the move
+	 * @param depth the node's remaining depth
+	 */
+	public void cutoff(int ply, int square, int depth) {
+		if(this.killers[2 * ply] != square) {
+			this.killers[2 * ply + 1] = this.killers[2 * ply];
+			this.killers[2 * ply] = square;
+		}
+		this.history[square] += depth * depth;
+		if(this.history[square] >= HISTORY_LIMIT) {
+			ageHistory();
+		}
+	}
+	
+	/**
+	 * forgets the killer moves
+	 */
+	private void clearKillers() {
+		Arrays.fill(this.killers, Bitboard.PASS);
+	}
+	
+	/**
+	 * halves every history score
+	 */
+	private void ageHistory() {
+		for(int i=0; i<64; i++) {
+			this.history[i] >>= 1;
+		}
+	}
+}
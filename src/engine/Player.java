@@ -0,0 +1,33 @@
+package engine;
+
+/**
+ * Something that picks moves, used to pit engines against each other in
+ * self-play and matches.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public interface Player {
+	
+	/**
+	 * picks a move for the side to move. Only called when there's a legal move.
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return the square to play
+	 */
+	int move(long player, long opponent);
+	
+	/**
+	 * picks a move for the side to move, made by a deadline. Players that
+	 * don't keep an eye on the time just make their usual move.
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param deadline when the move has to be made by, in System.nanoTime() terms
+	 * @return the square to play
+	 */
+	default int move(long player, long opponent, long deadline) {
+		return move(player, opponent);
+	}
+}
@@ -0,0 +1,136 @@
+package engine;
+
+import model.IllegalUserInputException;
+
+/**
+ * A board position plus the side to move, in the text form used by the
+ * command line tools: 64 characters of '_', 'W' and 'B' in the same row
+ * order as ReversiModel's board, a space, and 'W' or 'B' for the side to move.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class Position {
+	
+	private final long player;
+	private final long opponent;
+	private final char side;
+	
+	/**
+	 * Constructor, saves the pieces of both sides and who they belong to
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param side color of the side to move, 'W' or 'B'
+	 */
+	public Position(long player, long opponent, char side) {
+		this.player = player;
+		this.opponent = opponent;
+		this.side = side;
+	}
+	
+	/**
+	 * the starting position, with side to move first
+	 * 
+	 * @param side the color that moves first
+	 * @return the starting position
+	 */
+	public static Position start(char side) {
+		return new Position(Bitboard.START_FIRST, Bitboard.START_SECOND, side);
+	}
+	
+	/**
+	 * parses a position from its text form. Anything after the side to move
+	 * is ignored.
+	 * 
+	 * @param line the text form of the position
+	 * @return the parsed position
+	 * @throws IllegalUserInputException when the line isn't a valid position
+	 */
+	public static Position parse(String line) throws IllegalUserInputException {
+		if(line.length() < 66 || line.charAt(64) != ' ') {
+			throw new IllegalUserInputException("Position must be 64 board characters, a space and the side to move.");
+		}
+		
+		long white = 0;
+		long black = 0;
+		for(int i=0; i<64; i++) {
+			char c = line.charAt(i);
+			if(c == 'W') {
+				white |= 1L << i;
+			}
+			else if(c == 'B') {
+				black |= 1L << i;
+			}
+			else if(c != '_') {
+				throw new IllegalUserInputException("Unknown board character '" + c + "' at square " + i + ".");
+			}
+		}
+		
+		char side = line.charAt(65);
+		if(side == 'W') {
+			return new Position(white, black, side);
+		}
+		if(side == 'B') {
+			return new Position(black, white, side);
+		}
+		throw new IllegalUserInputException("Side to move must be W or B.");
+	}
+	
+	/**
+	 * getter for the side to move's pieces
+	 * 
+	 * @return bitmask of the side to move's pieces
+	 */
+	public long getPlayer() {
+		return this.player;
+	}
+	
+	/**
+	 * getter for the other side's pieces
+	 * 
+	 * @return bitmask of the opponent's pieces
+	 */
+	public long getOpponent() {
+		return this.opponent;
+	}
+	
+	/**
+	 * getter for the side to move
+	 * 
+	 * @return 'W' or 'B'
+	 */
+	public char getSide() {
+		return this.side;
+	}
+	
+	/**
+	 * returns the position after the side to move plays square, or passes
+	 * 
+	 * @param square the square played, or Bitboard.PASS
+	 * @return the position with the other side to move
+	 */
+	public Position play(int square) {
+		char other = this.side == 'W' ? 'B' : 'W';
+		if(square == Bitboard.PASS) {
+			return new Position(this.opponent, this.player, other);
+		}
+		long flipped = Bitboard.flips(this.player, this.opponent, square);
+		return new Position(this.opponent & ~flipped, this.player | flipped | (1L << square), other);
+	}
+	
+	/**
+	 * returns the position in its text form
+	 */
+	@Override
+	public String toString() {
+		long white = this.side == 'W' ? this.player : this.opponent;
+		long black = this.side == 'W' ? this.opponent : this.player;
+		StringBuilder sb = new StringBuilder(66);
+		for(int i=0; i<64; i++) {
+			long bit = 1L << i;
+			sb.append((white & bit) != 0 ? 'W' : (black & bit) != 0 ? 'B' : '_');
+		}
+		return sb.append(' ').append(this.side).toString();
+	}
+}
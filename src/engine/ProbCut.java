@@ -0,0 +1,184 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Multi-ProbCut parameters. For a node searched to depth d, a shallow search
+ * to depth d' predicts the deep score as a * shallow + b with standard error
+ * sigma. When the prediction is outside the search window by more than
+ * threshold * sigma, the node is cut without the deep search. Parameters are
+ * kept per game phase (bucket of empty squares) and depth pair, with several
+ * shallow depths per deep depth tried in order.
+ * 
+ * The data file has one "bucket depth shallow a b sigma" line per pair, as
+ * written by tools.ProbCutCalibrator. Lines starting with # are comments.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class ProbCut {
+	
+	/** number of game phase buckets, 10 empty squares each */
+	public static final int BUCKETS = 7;
+	
+	/** deepest depth that can have parameters */
+	public static final int MAX_DEPTH = 24;
+	
+	/** shallowest depth ProbCut is tried at */
+	public static final int MIN_DEPTH = 3;
+	
+	private static final double[] NONE = new double[0];
+	
+	//four doubles per pair: shallow depth, a, b, sigma
+	private final double[][][] pairs = new double[BUCKETS][MAX_DEPTH + 1][0];
+	private double threshold = 1.5;
+	
+	/**
+	 * returns the phase bucket for a number of empty squares
+	 * 
+	 * @param empties number of empty squares
+	 * @return the bucket, 0 to BUCKETS-1
+	 */
+	public static int bucket(int empties) {
+		return Math.min(BUCKETS - 1, empties / 10);
+	}
+	
+	/**
+	 * adds a depth pair
+	 * 
+	 * @param bucket the phase bucket
+	 * @param depth the deep search depth
+	 * @param shallow the shallow search depth
+	 * @param a slope of deep score against shallow score
+	 * @param b intercept
+	 * @param sigma standard error of the prediction
+	 */
+	public void add(int bucket, int depth, int shallow, double a, double b, double sigma) {
+		if(bucket < 0 || bucket >= BUCKETS || depth < MIN_DEPTH || depth > MAX_DEPTH || shallow < 0 || shallow >= depth) {
+			throw new IllegalArgumentException("Bad ProbCut pair " + bucket + " " + depth + " " + shallow);
+		}
+		if(a <= 0 || sigma < 0) {
+			throw new IllegalArgumentException("Bad ProbCut regression a=" + a + " sigma=" + sigma);
+		}
+		double[] old = this.pairs[bucket][depth];
+		double[] pair = new double[old.length + 4];
+		System.arraycopy(old, 0, pair, 0, old.length);
+		pair[old.length] = shallow;
+		pair[old.length + 1] = a;
+		pair[old.length + 2] = b;
+		pair[old.length + 3] = sigma;
+		this.pairs[bucket][depth] = pair;
+	}
+	
+	/**
+	 * returns the pairs for a bucket and deep depth, four doubles each
+	 * (shallow depth, a, b, sigma)
+	 * 
+	 * @param bucket the phase bucket
+	 * @param depth the deep search depth
+	 * @return the pairs, empty if there are none
+	 */
+	double[] pairs(int bucket, int depth) {
+		return depth > MAX_DEPTH ? NONE : this.pairs[bucket][depth];
+	}
+	
+	/**
+	 * getter for the cut threshold
+	 * 
+	 * @return how many sigmas outside the window a prediction has to be
+	 */
+	public double getThreshold() {
+		return this.threshold;
+	}
+	
+	/**
+	 * setter for the cut threshold, lower cuts more and risks more
+	 * 
+	 * @param threshold how many sigmas outside the window a prediction has to be
+	 */
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+	
+	/**
+	 * hash of the threshold and every pair, two sets of parameters cut the same
+	 * nodes only if their fingerprints match
+	 * 
+	 * @return the fingerprint
+	 */
+	public long fingerprint() {
+		long hash = Bitboard.hash(0, Double.doubleToLongBits(this.threshold));
+		for(int bucket=0; bucket<BUCKETS; bucket++) {
+			for(int depth=0; depth<=MAX_DEPTH; depth++) {
+				double[] pair = this.pairs[bucket][depth];
+				if(pair.length == 0) {
+					continue;
+				}
+				hash = Bitboard.hash(hash, ((long) bucket << 40) | ((long) depth << 32) | pair.length);
+				for(double value : pair) {
+					hash = Bitboard.hash(hash, Double.doubleToLongBits(value));
+				}
+			}
+		}
+		return hash;
+	}
+	
+	/**
+	 * loads parameters from a data file
+	 * 
+	 * @param path the data file
+	 * @return the parameters
+	 * @throws IOException if the file can't be read or has a bad line in it
+	 */
+	public static ProbCut load(Path path) throws IOException {
+		ProbCut probCut = new ProbCut();
+		try(BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			int number = 0;
+			while((line = in.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				try {
+					probCut.add(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+							Double.parseDouble(fields[3]), Double.parseDouble(fields[4]), Double.parseDouble(fields[5]));
+				}
+				catch(RuntimeException e) {
+					throw new IOException(path + ":" + number + ": bad ProbCut line", e);
+				}
+			}
+		}
+		return probCut;
+	}
+	
+	/**
+	 * writes the parameters to a data file
+	 * 
+	 * @param path the data file
+	 * @throws IOException if the file can't be written
+	 */
+	public void save(Path path) throws IOException {
+		try(BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			out.write("# bucket depth shallow a b sigma");
+			out.newLine();
+			for(int bucket=0; bucket<BUCKETS; bucket++) {
+				for(int depth=0; depth<=MAX_DEPTH; depth++) {
+					double[] p = this.pairs[bucket][depth];
+					for(int i=0; i<p.length; i+=4) {
+						out.write(String.format(Locale.ROOT, "%d %d %d %.5f %.5f %.5f", bucket, depth, (int) p[i], p[i + 1], p[i + 2], p[i + 3]));
+						out.newLine();
+					}
+				}
+			}
+		}
+	}
+}
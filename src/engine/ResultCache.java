@@ -0,0 +1,30 @@
+package engine;
+
+/**
+ * Second level store for search results that are too expensive to lose when the
+ * transposition table gets overwritten, such as a persistent cache shared between
+ * runs. Entries are packed the same way as TranspositionTable entries.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public interface ResultCache {
+	
+	/**
+	 * looks a position up
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return the packed entry, or 0 if the position isn't cached
+	 */
+	long probe(long player, long opponent);
+	
+	/**
+	 * saves a result, implementations may drop it if they're busy
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param entry the packed entry
+	 */
+	void store(long player, long opponent, long entry);
+}
@@ -0,0 +1,478 @@
+package engine;
+
+import events.SearchIterationEvent;
+
+/**
+ * Iterative deepening alpha-beta search over bitboard positions. Positions with
+ * few enough empty squares are searched all the way to the end of the game. A Search
+ * keeps its own node counter and isn't thread safe, each thread should have its
+ * own (they can share an Evaluator).
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class Search {
+	
+	/** bigger than any score the search can return */
+	public static final int INFINITY = 1000;
+	
+	//iteration events are only made while a recording has them turned on, so a search
+	//doesn't make garbage the rest of the time
+	private static final SearchIterationEvent ITERATION_EVENTS = new SearchIterationEvent();
+	
+	//how many nodes go by between checks of the node and time limits
+	private static final int CHECK_INTERVAL = 1023;
+	
+	//nodes with less depth (or fewer empty squares) than this don't count opponent
+	//moves to order their moves, it costs more than it saves that close to the leaves
+	private static final int MOBILITY_DEPTH = 4;
+	
+	private final Evaluator evaluator;
+	private final TranspositionTable table;
+	private ResultCache cache;
+	private int cacheDepth;
+	private ProbCut probCut;
+	private boolean inProbCut;
+	private MoveOrdering ordering = new MoveOrdering();
+	private ComputeScheduler scheduler;
+	
+	//root moves and the result of the last search, kept in fields so a search allocates nothing
+	private final int[] rootMoves = new int[64];
+	private int resultMove;
+	private int resultScore;
+	private int resultDepth;
+	private boolean resultExact;
+	private long nodes;
+	private long nodeLimit;
+	private long deadline;
+	private volatile boolean stopped;
+	
+	/**
+	 * Constructor, saves the evaluator and transposition table to search with
+	 * 
+	 * @param evaluator evaluation used at the leaves of the search
+	 * @param table transposition table, kept between searches
+	 */
+	public Search(Evaluator evaluator, TranspositionTable table) {
+		this.evaluator = evaluator;
+		this.table = table;
+	}
+	
+	/**
+	 * sets a second level cache for results searched at least cacheDepth deep,
+	 * consulted whenever the transposition table can't answer
+	 * 
+	 * @param cache the cache, or null for none
+	 * @param cacheDepth the shallowest remaining depth worth caching
+	 */
+	public void setCache(ResultCache cache, int cacheDepth) {
+		this.cache = cache;
+		this.cacheDepth = cacheDepth;
+	}
+	
+	/**
+	 * sets the ProbCut parameters used to cut nodes early based on a shallow search
+	 * 
+	 * @param probCut the parameters, or null to search every node fully
+	 */
+	public void setProbCut(ProbCut probCut) {
+		this.probCut = probCut;
+	}
+	
+	/**
+	 * hash of the evaluation weights and ProbCut parameters, the two things that
+	 * decide what a depth limited search scores a position. Results kept from
+	 * another run (see storage.SearchCache) are only good for a search with the
+	 * same fingerprint.
+	 * 
+	 * @return the fingerprint
+	 */
+	public long fingerprint() {
+		long hash = this.evaluator.fingerprint();
+		return this.probCut == null ? hash : Bitboard.hash(hash, this.probCut.fingerprint());
+	}
+	
+	/**
+	 * sets a scheduler to check in with every 1024 nodes, so a search
+	 * run as batch work gives its core up while interactive work is waiting
+	 * 
+	 * @param scheduler the scheduler, or null for none
+	 */
+	public void setScheduler(ComputeScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * sets the move ordering used below the root, each search has its own by default
+	 * 
+	 * @param ordering the ordering, or null to try the hash move and then the rest in
+	 * square order
+	 */
+	public void setMoveOrdering(MoveOrdering ordering) {
+		this.ordering = ordering;
+	}
+	
+	/**
+	 * searches a position and returns the best move found within the limits.
+	 * If the limits run out during an iteration, the result of the last completed
+	 * iteration is returned.
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param limits depth, node and time limits for the search
+	 * @return the best move and its score
+	 */
+	public SearchResult search(long player, long opponent, SearchLimits limits) {
+		run(player, opponent, limits);
+		return new SearchResult(this.resultMove, this.resultScore, this.resultDepth, this.nodes, this.resultExact);
+	}
+	
+	/**
+	 * the same search as search(), but only returns the move, so nothing at all
+	 * is allocated. For playing lots of games without making garbage.
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param limits depth, node and time limits for the search
+	 * @return the best move's square, or Bitboard.PASS
+	 */
+	public int bestMove(long player, long opponent, SearchLimits limits) {
+		run(player, opponent, limits);
+		return this.resultMove;
+	}
+	
+	/**
+	 * runs the iterative deepening and leaves the result of the deepest completed
+	 * iteration in the result fields
+	 */
+	private void run(long player, long opponent, SearchLimits limits) {
+		this.nodes = 0;
+		this.nodeLimit = limits.getNodes() > 0 ? limits.getNodes() : Long.MAX_VALUE;
+		this.deadline = limits.getMillis() > 0 ? System.nanoTime() + limits.getMillis() * 1000000L : Long.MAX_VALUE;
+		this.stopped = false;
+		if(this.ordering != null) {
+			this.ordering.newSearch();
+		}
+		TimeManager timeManager = limits.getTimeManager();
+		if(timeManager != null) {
+			this.deadline = Math.min(this.deadline, timeManager.getHardDeadline());
+		}
+		
+		int empties = Bitboard.empties(player, opponent);
+		
+		//root move list, a single pass if there's nothing else to play
+		long moves = Bitboard.legalMoves(player, opponent);
+		int[] rootMoves = this.rootMoves;
+		int rootCount = Math.max(1, Long.bitCount(moves));
+		rootMoves[0] = Bitboard.PASS;
+		for(int i=0; moves != 0; i++) {
+			rootMoves[i] = Long.numberOfTrailingZeros(moves);
+			moves &= moves - 1;
+		}
+		
+		if(rootMoves[0] == Bitboard.PASS && Bitboard.legalMoves(opponent, player) == 0) {
+			setResult(Bitboard.PASS, Bitboard.finalScore(player, opponent), 0, true);
+			return;
+		}
+		
+		int maxDepth = empties <= limits.getExactEmpties() ? empties : Math.max(1, Math.min(limits.getDepth(), empties));
+		setResult(rootMoves[0], 0, 0, false);
+		
+		for(int depth=1; depth <= maxDepth; depth++) {
+			SearchIterationEvent event = ITERATION_EVENTS.isEnabled() ? new SearchIterationEvent() : null;
+			if(event != null) {
+				event.begin();
+			}
+			
+			int alpha = -INFINITY;
+			int best = 0;
+			try {
+				for(int i=0; i<rootCount; i++) {
+					//a pass doesn't use up any depth, the same as in negamax
+					int score = -searchMove(player, opponent, rootMoves[i], rootMoves[i] == Bitboard.PASS ? depth : depth - 1, 1, -INFINITY, -alpha);
+					if(score > alpha) {
+						alpha = score;
+						best = i;
+					}
+				}
+			}
+			catch(SearchAborted e) {
+				break;
+			}
+			
+			//the next iteration tries this iteration's best move first
+			int bestMove = rootMoves[best];
+			System.arraycopy(rootMoves, 0, rootMoves, 1, best);
+			rootMoves[0] = bestMove;
+			setResult(bestMove, alpha, depth, depth >= empties);
+			
+			if(event != null) {
+				event.end();
+				if(event.shouldCommit()) {
+					event.depth = depth;
+					event.nodes = this.nodes;
+					event.bestMove = Bitboard.squareName(bestMove);
+					event.score = alpha;
+					event.commit();
+				}
+			}
+			
+			if(timeManager != null && timeManager.shouldStop(depth, bestMove)) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * saves the result of a completed iteration
+	 */
+	private void setResult(int move, int score, int depth, boolean exact) {
+		this.resultMove = move;
+		this.resultScore = score;
+		this.resultDepth = depth;
+		this.resultExact = exact;
+	}
+	
+	/**
+	 * works out whether a position's final score with best play is at least bound,
+	 * solving to the end of the game with a null window. Much cheaper than finding
+	 * the exact score, for when only which side of a threshold it's on matters.
+	 * Ignores the node and time limits of the last search.
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param bound the score to test against
+	 * @return true if player can finish at least bound discs ahead
+	 */
+	public boolean solveAtLeast(long player, long opponent, int bound) {
+		this.nodes = 0;
+		this.nodeLimit = Long.MAX_VALUE;
+		this.deadline = Long.MAX_VALUE;
+		this.stopped = false;
+		if(this.ordering != null) {
+			this.ordering.newSearch();
+		}
+		return negamax(player, opponent, 64, 0, bound - 1, bound) >= bound;
+	}
+	
+	/**
+	 * stops a running search from another thread, it will return the result
+	 * of the last completed iteration
+	 */
+	public void stop() {
+		this.stopped = true;
+	}
+	
+	/**
+	 * returns the number of nodes searched so far by the current or last search
+	 * 
+	 * @return the node count
+	 */
+	public long getNodes() {
+		return this.nodes;
+	}
+	
+	/**
+	 * plays square for player and searches the resulting position from the
+	 * opponent's point of view
+	 */
+	private int searchMove(long player, long opponent, int square, int depth, int ply, int alpha, int beta) {
+		if(square == Bitboard.PASS) {
+			return negamax(opponent, player, depth, ply, alpha, beta);
+		}
+		long flipped = Bitboard.flips(player, opponent, square);
+		return negamax(opponent & ~flipped, player | flipped | (1L << square), depth, ply, alpha, beta);
+	}
+	
+	/**
+	 * negamax alpha-beta search
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param depth remaining depth, passes don't use any up
+	 * @param ply distance from the root, passes count
+	 * @param alpha lower bound of the search window
+	 * @param beta upper bound of the search window
+	 * @return the position's score from player's point of view
+	 */
+	private int negamax(long player, long opponent, int depth, int ply, int alpha, int beta) {
+		if((++this.nodes & CHECK_INTERVAL) == 0) {
+			checkLimits();
+		}
+		
+		long moves = Bitboard.legalMoves(player, opponent);
+		if(moves == 0) {
+			if(Bitboard.legalMoves(opponent, player) == 0) {
+				return Bitboard.finalScore(player, opponent);
+			}
+			return -negamax(opponent, player, depth, ply + 1, -beta, -alpha);
+		}
+		if(depth == 0) {
+			return this.evaluator.evaluate(player, opponent);
+		}
+		
+		//solving to the end, the opponent's stable discs cap our final score. Only worth
+		//working out when alpha is close enough to the cap for it to cut
+		if(alpha >= 64 - 2 * Long.bitCount(opponent) && depth >= Bitboard.empties(player, opponent)) {
+			int upper = 64 - 2 * Stability.count(opponent, player);
+			if(upper <= alpha) {
+				return upper;
+			}
+		}
+		
+		long hash = Bitboard.hash(player, opponent);
+		long entry = this.table.probe(hash);
+		boolean cached = this.cache != null && depth >= this.cacheDepth;
+		if(cached && (entry == 0 || TranspositionTable.depth(entry) < depth)) {
+			long stored = this.cache.probe(player, opponent);
+			if(stored != 0 && (entry == 0 || TranspositionTable.depth(stored) >= TranspositionTable.depth(entry))) {
+				entry = stored;
+			}
+		}
+		int hashMove = TranspositionTable.NO_MOVE;
+		if(entry != 0) {
+			hashMove = TranspositionTable.move(entry);
+			if(TranspositionTable.depth(entry) >= depth) {
+				int score = TranspositionTable.score(entry);
+				int bound = TranspositionTable.bound(entry);
+				if(bound == TranspositionTable.EXACT
+						|| (bound == TranspositionTable.LOWER && score >= beta)
+						|| (bound == TranspositionTable.UPPER && score <= alpha)) {
+					return score;
+				}
+			}
+		}
+		
+		if(this.probCut != null && !this.inProbCut && depth >= ProbCut.MIN_DEPTH) {
+			int cut = probCut(player, opponent, depth, ply, alpha, beta);
+			if(cut != 0) {
+				return cut > 0 ? beta : alpha;
+			}
+		}
+		
+		int originalAlpha = alpha;
+		int empties = Bitboard.empties(player, opponent);
+		int best = -INFINITY;
+		int bestMove = TranspositionTable.NO_MOVE;
+		
+		//hash move first, it often cuts off before the rest need ordering
+		if(hashMove != TranspositionTable.NO_MOVE && (moves & (1L << hashMove)) != 0) {
+			moves &= ~(1L << hashMove);
+			best = -searchMove(player, opponent, hashMove, depth - 1, ply + 1, -beta, -alpha);
+			bestMove = hashMove;
+			if(best > alpha) {
+				alpha = best;
+			}
+		}
+		
+		if(this.ordering == null) {
+			while(moves != 0 && alpha < beta) {
+				int square = Long.numberOfTrailingZeros(moves);
+				moves &= moves - 1;
+				int score = -searchMove(player, opponent, square, depth - 1, ply + 1, -beta, -alpha);
+				if(score > best) {
+					best = score;
+					bestMove = square;
+					if(score > alpha) {
+						alpha = score;
+					}
+				}
+			}
+		}
+		else if(moves != 0 && alpha < beta) {
+			int count = this.ordering.order(player, opponent, moves, ply, Math.min(depth, empties) >= MOBILITY_DEPTH);
+			for(int i=0; i<count && alpha < beta; i++) {
+				int square = this.ordering.next(ply, i, count);
+				int score = -searchMove(player, opponent, square, depth - 1, ply + 1, -beta, -alpha);
+				if(score > best) {
+					best = score;
+					bestMove = square;
+					if(score > alpha) {
+						alpha = score;
+					}
+				}
+			}
+		}
+		if(best >= beta && this.ordering != null) {
+			this.ordering.cutoff(ply, bestMove, Math.min(depth, empties));
+		}
+		
+		//anything searched at least as deep as its empty squares is solved, so it's good for any depth
+		int bound = best >= beta ? TranspositionTable.LOWER : best > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+		int storedDepth = depth >= empties ? 64 : depth;
+		this.table.store(hash, storedDepth, bound, best, bestMove);
+		if(cached) {
+			this.cache.store(player, opponent, TranspositionTable.pack(storedDepth, bound, best, bestMove));
+		}
+		return best;
+	}
+	
+	/**
+	 * Multi-ProbCut, tries each shallow search paired with this depth and checks
+	 * whether its predicted deep score is confidently outside the window.
+	 * Not used once the remaining depth reaches the end of the game, where
+	 * the search is exact.
+	 * 
+	 * @return 1 to fail high, -1 to fail low, 0 to search the node normally
+	 */
+	private int probCut(long player, long opponent, int depth, int ply, int alpha, int beta) {
+		int empties = Bitboard.empties(player, opponent);
+		if(depth >= empties) {
+			return 0;
+		}
+		double[] pairs = this.probCut.pairs(ProbCut.bucket(empties), depth);
+		double t = this.probCut.getThreshold();
+		
+		this.inProbCut = true;
+		try {
+			for(int i=0; i<pairs.length; i+=4) {
+				int shallow = (int) pairs[i];
+				double a = pairs[i + 1];
+				double b = pairs[i + 2];
+				double margin = t * pairs[i + 3];
+				
+				//shallow score needed for the deep score to be at least beta
+				int high = (int) Math.ceil((beta + margin - b) / a);
+				if(high <= 64 && negamax(player, opponent, shallow, ply, high - 1, high) >= high) {
+					return 1;
+				}
+				
+				//shallow score below which the deep score is at most alpha
+				int low = (int) Math.floor((alpha - margin - b) / a);
+				if(low >= -64 && negamax(player, opponent, shallow, ply, low, low + 1) <= low) {
+					return -1;
+				}
+			}
+		}
+		finally {
+			this.inProbCut = false;
+		}
+		return 0;
+	}
+	
+	/**
+	 * aborts the search if it has been stopped or has run out of nodes or time,
+	 * after letting the scheduler have the core back if it needs it
+	 */
+	private void checkLimits() {
+		if(this.scheduler != null) {
+			this.scheduler.checkpoint();
+		}
+		if(this.stopped || this.nodes >= this.nodeLimit || System.nanoTime() >= this.deadline) {
+			throw SearchAborted.INSTANCE;
+		}
+	}
+	
+	/**
+	 * thrown out of the search tree when a limit is hit, unwinding back to search()
+	 */
+	private static final class SearchAborted extends RuntimeException {
+		
+		private static final long serialVersionUID = 1L;
+		private static final SearchAborted INSTANCE = new SearchAborted();
+		
+		private SearchAborted() {
+			super(null, null, false, false);
+		}
+	}
+}
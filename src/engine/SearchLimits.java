@@ -0,0 +1,93 @@
+package engine;
+
+/**
+ * Limits for a single call to Search.search. A limit of 0 means unlimited for
+ * nodes and time.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class SearchLimits {
+	
+	private int depth;
+	private long nodes;
+	private long millis;
+	private int exactEmpties = 12;
+	private TimeManager timeManager;
+	
+	/**
+	 * Constructor, saves the passed in limits
+	 * 
+	 * @param depth the deepest iteration to search
+	 * @param nodes the most nodes to search, 0 for no limit
+	 * @param millis the most time to spend in milliseconds, 0 for no limit
+	 */
+	public SearchLimits(int depth, long nodes, long millis) {
+		this.depth = depth;
+		this.nodes = nodes;
+		this.millis = millis;
+	}
+	
+	/**
+	 * getter for the depth limit
+	 * 
+	 * @return the deepest iteration to search
+	 */
+	public int getDepth() {
+		return this.depth;
+	}
+	
+	/**
+	 * getter for the node limit
+	 * 
+	 * @return the most nodes to search, 0 for no limit
+	 */
+	public long getNodes() {
+		return this.nodes;
+	}
+	
+	/**
+	 * getter for the time limit
+	 * 
+	 * @return the most milliseconds to spend, 0 for no limit
+	 */
+	public long getMillis() {
+		return this.millis;
+	}
+	
+	/**
+	 * getter for the time manager
+	 * 
+	 * @return the time manager, or null if the search is only limited by getMillis
+	 */
+	public TimeManager getTimeManager() {
+		return this.timeManager;
+	}
+	
+	/**
+	 * setter for the time manager. Its startMove has to be called before each search.
+	 * 
+	 * @param timeManager the time manager, or null for none
+	 */
+	public void setTimeManager(TimeManager timeManager) {
+		this.timeManager = timeManager;
+	}
+	
+	/**
+	 * getter for the exact solve threshold
+	 * 
+	 * @return positions with this many empties or fewer are searched to the end, ignoring the depth limit
+	 */
+	public int getExactEmpties() {
+		return this.exactEmpties;
+	}
+	
+	/**
+	 * setter for the exact solve threshold
+	 * 
+	 * @param exactEmpties positions with this many empties or fewer are searched to the end, ignoring the depth limit
+	 */
+	public void setExactEmpties(int exactEmpties) {
+		this.exactEmpties = exactEmpties;
+	}
+}
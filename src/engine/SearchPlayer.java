@@ -0,0 +1,40 @@
+package engine;
+
+/**
+ * Player that picks moves with an alpha-beta Search
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class SearchPlayer implements Player {
+	
+	private final Search search;
+	private final SearchLimits limits;
+	private SearchResult lastResult;
+	
+	/**
+	 * Constructor, saves the search and the limits for each move
+	 * 
+	 * @param search the search to use, not shared with any other thread
+	 * @param limits limits for each move's search
+	 */
+	public SearchPlayer(Search search, SearchLimits limits) {
+		this.search = search;
+		this.limits = limits;
+	}
+	
+	@Override
+	public int move(long player, long opponent) {
+		this.lastResult = this.search.search(player, opponent, this.limits);
+		return this.lastResult.getMove();
+	}
+	
+	/**
+	 * getter for the result of the last search
+	 * 
+	 * @return the last move's search result, or null before the first move
+	 */
+	public SearchResult getLastResult() {
+		return this.lastResult;
+	}
+}
@@ -0,0 +1,79 @@
+package engine;
+
+/**
+ * Result of a call to Search.search, the best move of the deepest completed
+ * iteration along with its score.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class SearchResult {
+	
+	private final int move;
+	private final int score;
+	private final int depth;
+	private final long nodes;
+	private final boolean exact;
+	
+	/**
+	 * Constructor, just saves the passed in parameters into the appropriate fields
+	 * 
+	 * @param move the best move's square, or Bitboard.PASS
+	 * @param score the best move's score, from the side to move's point of view
+	 * @param depth the depth of the deepest completed iteration
+	 * @param nodes the total nodes searched
+	 * @param exact true if the score is the exact final result
+	 */
+	public SearchResult(int move, int score, int depth, long nodes, boolean exact) {
+		this.move = move;
+		this.score = score;
+		this.depth = depth;
+		this.nodes = nodes;
+		this.exact = exact;
+	}
+	
+	/**
+	 * getter for the best move
+	 * 
+	 * @return square index x*8+y, or Bitboard.PASS
+	 */
+	public int getMove() {
+		return this.move;
+	}
+	
+	/**
+	 * getter for the score
+	 * 
+	 * @return the best move's score
+	 */
+	public int getScore() {
+		return this.score;
+	}
+	
+	/**
+	 * getter for the depth
+	 * 
+	 * @return the depth of the deepest completed iteration
+	 */
+	public int getDepth() {
+		return this.depth;
+	}
+	
+	/**
+	 * getter for the node count
+	 * 
+	 * @return the total nodes searched
+	 */
+	public long getNodes() {
+		return this.nodes;
+	}
+	
+	/**
+	 * returns true if the score is the exact final result
+	 * 
+	 * @return true if the search reached the end of the game on every line
+	 */
+	public boolean isExact() {
+		return this.exact;
+	}
+}
@@ -0,0 +1,87 @@
+package engine;
+
+import java.util.Random;
+
+/**
+ * Plays games between two Players
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public final class SelfPlay {
+	
+	private SelfPlay() {
+	}
+	
+	/**
+	 * plays a game to the end
+	 * 
+	 * @param first player who moves first
+	 * @param second player who moves second
+	 * @param player first mover's starting pieces
+	 * @param opponent second mover's starting pieces
+	 * @return the finished game
+	 */
+	public static GameRecord play(Player first, Player second, long player, long opponent) {
+		long startPlayer = player;
+		long startOpponent = opponent;
+		byte[] moves = new byte[60];
+		int count = 0;
+		boolean firstToMove = true;
+		
+		while(true) {
+			if(Bitboard.legalMoves(player, opponent) == 0) {
+				if(Bitboard.legalMoves(opponent, player) == 0) {
+					break;
+				}
+				long swap = player;
+				player = opponent;
+				opponent = swap;
+				firstToMove = !firstToMove;
+			}
+			
+			int square = (firstToMove ? first : second).move(player, opponent);
+			if(square < 0 || (Bitboard.legalMoves(player, opponent) & (1L << square)) == 0) {
+				throw new IllegalStateException("Player chose illegal move " + Bitboard.squareName(square));
+			}
+			moves[count++] = (byte) square;
+			
+			long flipped = Bitboard.flips(player, opponent, square);
+			long next = opponent & ~flipped;
+			opponent = player | flipped | (1L << square);
+			player = next;
+			firstToMove = !firstToMove;
+		}
+		
+		int score = Bitboard.finalScore(player, opponent);
+		byte[] played = new byte[count];
+		System.arraycopy(moves, 0, played, 0, count);
+		return new GameRecord(startPlayer, startOpponent, played, firstToMove ? score : -score);
+	}
+	
+	/**
+	 * plays random legal moves from the starting position
+	 * 
+	 * @param random source of randomness
+	 * @param plies number of moves to play
+	 * @return the position reached, or null if the game ended first
+	 */
+	public static Position randomOpening(Random random, int plies) {
+		Position position = Position.start('W');
+		for(int i=0; i<plies; i++) {
+			long moves = Bitboard.legalMoves(position.getPlayer(), position.getOpponent());
+			if(moves == 0) {
+				if(Bitboard.legalMoves(position.getOpponent(), position.getPlayer()) == 0) {
+					return null;
+				}
+				position = position.play(Bitboard.PASS);
+				moves = Bitboard.legalMoves(position.getPlayer(), position.getOpponent());
+			}
+			for(int skip=random.nextInt(Long.bitCount(moves)); skip>0; skip--) {
+				moves &= moves - 1;
+			}
+			position = position.play(Long.numberOfTrailingZeros(moves));
+		}
+		return position;
+	}
+}
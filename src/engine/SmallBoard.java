@@ -0,0 +1,148 @@
+package engine;
+
+/**
+ * Geometry and rules for Reversi on a smaller square board, 4x4 or 6x6. The
+ * board sits in the top left corner of an ordinary bitboard (square x*8+y, the
+ * same numbering and square names as the full board), with every square outside
+ * it left empty. Nothing can flip across an empty square, so Bitboard.flips works
+ * unchanged, and legal moves only need masking to the board. That also means no
+ * column masks are needed when shifting, a line that runs off the board's edge
+ * lands on an outside square and stops there.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public final class SmallBoard {
+	
+	private final int size;
+	private final long squares;
+	
+	/**
+	 * Constructor, sets up a board of size x size squares
+	 * 
+	 * @param size the board's width, even and from 4 to 6
+	 */
+	public SmallBoard(int size) {
+		if(size < 4 || size > 6 || size % 2 != 0) {
+			throw new IllegalArgumentException("Small boards are 4x4 or 6x6, not " + size + "x" + size);
+		}
+		this.size = size;
+		long row = (1L << size) - 1;
+		long squares = 0;
+		for(int x=0; x<size; x++) {
+			squares |= row << (x * 8);
+		}
+		this.squares = squares;
+	}
+	
+	/**
+	 * getter for the board's width
+	 * 
+	 * @return squares along each side
+	 */
+	public int getSize() {
+		return this.size;
+	}
+	
+	/**
+	 * getter for the board's squares
+	 * 
+	 * @return bitmask of the squares on the board
+	 */
+	public long getSquares() {
+		return this.squares;
+	}
+	
+	/**
+	 * pieces of the side that moves first in the starting position, placed the
+	 * same way as on the full board (Bitboard.START_FIRST)
+	 * 
+	 * @return the first player's pieces
+	 */
+	public long startFirst() {
+		int c = this.size / 2;
+		return (1L << ((c - 1) * 8 + c)) | (1L << (c * 8 + c - 1));
+	}
+	
+	/**
+	 * pieces of the side that moves second in the starting position
+	 * 
+	 * @return the second player's pieces
+	 */
+	public long startSecond() {
+		int c = this.size / 2;
+		return (1L << ((c - 1) * 8 + c - 1)) | (1L << (c * 8 + c));
+	}
+	
+	/**
+	 * returns a mask of every legal move for player. A line of opponent pieces is
+	 * at most size - 2 long, so the fill stops there.
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return bitmask of the empty squares player can move to
+	 */
+	public long legalMoves(long player, long opponent) {
+		long empty = this.squares & ~(player | opponent);
+		return (lineLeft(player, opponent, 1) | lineRight(player, opponent, 1)
+				| lineLeft(player, opponent, 8) | lineRight(player, opponent, 8)
+				| lineLeft(player, opponent, 9) | lineRight(player, opponent, 9)
+				| lineLeft(player, opponent, 7) | lineRight(player, opponent, 7)) & empty;
+	}
+	
+	/**
+	 * squares just past a line of opponent pieces that starts next to one of
+	 * player's, towards higher square numbers
+	 */
+	private long lineLeft(long player, long opponent, int shift) {
+		long t = (player << shift) & opponent;
+		for(int i=3; i<this.size; i++) {
+			t |= (t << shift) & opponent;
+		}
+		return t << shift;
+	}
+	
+	/**
+	 * squares just past a line of opponent pieces that starts next to one of
+	 * player's, towards lower square numbers
+	 */
+	private long lineRight(long player, long opponent, int shift) {
+		long t = (player >>> shift) & opponent;
+		for(int i=3; i<this.size; i++) {
+			t |= (t >>> shift) & opponent;
+		}
+		return t >>> shift;
+	}
+	
+	/**
+	 * number of empty squares on the board
+	 * 
+	 * @param player pieces of one side
+	 * @param opponent pieces of the other side
+	 * @return number of empty squares
+	 */
+	public int empties(long player, long opponent) {
+		return this.size * this.size - Long.bitCount(player | opponent);
+	}
+	
+	/**
+	 * final score from player's point of view, empty squares go to the winner
+	 * like Bitboard.finalScore
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return disc difference at the end of the game
+	 */
+	public int finalScore(long player, long opponent) {
+		int p = Long.bitCount(player);
+		int o = Long.bitCount(opponent);
+		int empties = this.size * this.size - p - o;
+		if(p > o) {
+			return p - o + empties;
+		}
+		if(p < o) {
+			return p - o - empties;
+		}
+		return 0;
+	}
+}
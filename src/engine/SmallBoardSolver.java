@@ -0,0 +1,619 @@
+package engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Solves Reversi on a small board (see SmallBoard) perfectly, from the start or
+ * any other position: the exact final score with best play by both sides, and
+ * a line of play that gets it.
+ * 
+ * The top of the tree is split across a fork-join pool. Down to the split depth
+ * each node searches its first move itself (best first, by the transposition
+ * table or by fewest opponent replies), which usually narrows the window, then
+ * hands its other moves out as tasks to be searched at once. Below the split
+ * depth every subtree is searched serially by whichever thread got it. All of
+ * them share one transposition table, which takes concurrent writes without
+ * locking.
+ * 
+ * Positions at the split depth are the checkpoint: every one that's searched
+ * is appended to the checkpoint file with what was learned about its score (a
+ * bound, or the exact score). A run that's stopped and started again with the
+ * same file reads them back and skips every subtree it already knows enough
+ * about, so a run of hours only loses the subtrees that were in flight.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class SmallBoardSolver {
+	
+	/**
+	 * hears how a long solve is getting on. The last two are called from the
+	 * worker threads.
+	 */
+	public interface Listener {
+		
+		/**
+		 * called after each null window search narrows the score down
+		 * 
+		 * @param lower the score is at least this
+		 * @param upper the score is at most this
+		 * @param nodes nodes searched so far
+		 */
+		void bounds(int lower, int upper, long nodes);
+		
+		/**
+		 * called every so often while subtrees at the split depth are searched
+		 * 
+		 * @param subtrees split depth subtrees searched so far
+		 * @param nodes nodes searched so far
+		 * @param nanos time since the solver was made
+		 */
+		void progress(long subtrees, long nodes, long nanos);
+		
+		/**
+		 * called when the checkpoint can't be written, the run goes on but can't
+		 * be resumed past this point
+		 * 
+		 * @param e what went wrong
+		 */
+		void checkpointFailed(IOException e);
+	}
+	
+	//positions with fewer empty squares than this are searched without the table
+	private static final int TABLE_EMPTIES = 6;
+	
+	//positions with fewer empty squares than this try their moves in square order
+	private static final int ORDER_EMPTIES = 7;
+	
+	//a subtree that's no longer needed is noticed at the next node with at least this many empty squares
+	private static final int ABORT_EMPTIES = 10;
+	
+	//longest line the serial search can follow, passes included
+	private static final int MAX_PLY = 80;
+	
+	//"RSBC", then the board size and (player, opponent, lower, upper) for each position
+	private static final int MAGIC = 0x52534243;
+	
+	//how often progress is reported during a long run
+	private static final long REPORT_NANOS = 10000000000L;
+	
+	private final SmallBoard board;
+	private final TranspositionTable table;
+	private final ForkJoinPool pool;
+	private final int splitDepth;
+	private final int maxScore;
+	private final LongAdder nodes = new LongAdder();
+	private final ThreadLocal<Searcher> searchers = ThreadLocal.withInitial(Searcher::new);
+	private final ConcurrentHashMap<Long, Frontier> frontier = new ConcurrentHashMap<>();
+	private final AtomicLong frontierSearched = new AtomicLong();
+	private final long started = System.nanoTime();
+	private volatile long lastReport = System.nanoTime();
+	private DataOutputStream checkpoint;
+	private volatile Listener listener;
+	
+	/**
+	 * what's known about the score of a position at the split depth
+	 */
+	private static final class Frontier {
+		private final long player;
+		private final long opponent;
+		private int lower;
+		private int upper;
+		
+		private Frontier(long player, long opponent, int lower, int upper) {
+			this.player = player;
+			this.opponent = opponent;
+			this.lower = lower;
+			this.upper = upper;
+		}
+	}
+	
+	/**
+	 * thrown to unwind a serial search whose result is no longer needed, made
+	 * once and without a stack trace since it's thrown often
+	 */
+	private static final class Aborted extends RuntimeException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private static final Aborted INSTANCE = new Aborted();
+		
+		private Aborted() {
+			super(null, null, false, false);
+		}
+	}
+	
+	/**
+	 * Constructor, sets up the table and the pool
+	 * 
+	 * @param board the board to solve on
+	 * @param threads number of worker threads
+	 * @param hashBits log2 of the transposition table size
+	 * @param splitDepth plies from the root the tree is split down to, also where
+	 * the checkpoint is taken
+	 */
+	public SmallBoardSolver(SmallBoard board, int threads, int hashBits, int splitDepth) {
+		this.board = board;
+		this.table = new TranspositionTable(hashBits);
+		this.pool = new ForkJoinPool(threads);
+		this.splitDepth = splitDepth;
+		this.maxScore = board.getSize() * board.getSize();
+	}
+	
+	/**
+	 * sets what hears about the solve's progress
+	 * 
+	 * @param listener the listener, or null for none
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * checkpoints to a file, reading back whatever an earlier run with the same
+	 * file already searched. A record cut short by the earlier run being killed
+	 * is ignored.
+	 * 
+	 * @param path the checkpoint file
+	 * @return the number of positions read back
+	 * @throws IOException if the file can't be read or written, or is for another board
+	 */
+	public int setCheckpoint(Path path) throws IOException {
+		int read = 0;
+		if(Files.exists(path) && Files.size(path) > 0) {
+			try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+				if(in.readInt() != MAGIC || in.readByte() != this.board.getSize()) {
+					throw new IOException(path + " isn't a checkpoint for a " + this.board.getSize() + "x" + this.board.getSize() + " board");
+				}
+				try {
+					while(true) {
+						long player = in.readLong();
+						long opponent = in.readLong();
+						int lower = in.readByte();
+						int upper = in.readByte();
+						learn(player, opponent, lower, upper);
+						read++;
+					}
+				} catch(EOFException e) {
+					// the end of the file, or a record the last run didn't finish writing
+				}
+			}
+		}
+		boolean fresh = !Files.exists(path) || Files.size(path) == 0;
+		this.checkpoint = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+		if(fresh) {
+			this.checkpoint.writeInt(MAGIC);
+			this.checkpoint.writeByte(this.board.getSize());
+			this.checkpoint.flush();
+		}
+		return read;
+	}
+	
+	/**
+	 * solves a position with a series of null window searches (MTD(f)), each
+	 * one only asking whether the score is at least some value. With the window
+	 * never changing inside a search, moves handed out together all search with
+	 * the same bound they would have had one after another, where a wide window
+	 * would leave them searching with whatever was known when they started.
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return the final score with best play, from player's point of view
+	 */
+	public int solve(long player, long opponent) {
+		int lower = -this.maxScore;
+		int upper = this.maxScore;
+		int guess = 0;
+		while(lower < upper) {
+			int beta = Math.max(guess, lower + 1);
+			guess = this.pool.invoke(new Split(player, opponent, beta - 1, beta, 0, null));
+			if(guess < beta) {
+				upper = guess;
+			}
+			else {
+				lower = guess;
+			}
+			Listener listener = this.listener;
+			if(listener != null) {
+				listener.bounds(lower, upper, getNodes());
+			}
+		}
+		return lower;
+	}
+	
+	/**
+	 * works out a line of best play from a solved position, one move at a time,
+	 * each checked with a narrow search that the table mostly answers already
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param score the position's score, from solve
+	 * @return the moves to the end of the game, Bitboard.PASS for a pass
+	 */
+	public List<Integer> principalVariation(long player, long opponent, int score) {
+		List<Integer> line = new ArrayList<>();
+		Searcher searcher = this.searchers.get();
+		while(true) {
+			long moves = this.board.legalMoves(player, opponent);
+			if(moves == 0) {
+				if(this.board.legalMoves(opponent, player) == 0) {
+					return line;
+				}
+				line.add(Bitboard.PASS);
+			}
+			else {
+				int square = Bitboard.PASS;
+				for(; moves != 0; moves &= moves - 1) {
+					square = Long.numberOfTrailingZeros(moves);
+					long flipped = Bitboard.flips(player, opponent, square);
+					int child = -searcher.solve(opponent & ~flipped, player | flipped | (1L << square), -score - 1, -score + 1, 0);
+					if(child == score) {
+						break;
+					}
+				}
+				line.add(square);
+				long flipped = Bitboard.flips(player, opponent, square);
+				player |= flipped | (1L << square);
+				opponent &= ~flipped;
+			}
+			long swap = player;
+			player = opponent;
+			opponent = swap;
+			score = -score;
+		}
+	}
+	
+	/**
+	 * getter for the nodes searched so far
+	 * 
+	 * @return the node count
+	 */
+	public long getNodes() {
+		return this.nodes.sum();
+	}
+	
+	/**
+	 * stops the worker threads and closes the checkpoint file
+	 * 
+	 * @throws IOException if the checkpoint can't be written out
+	 */
+	public void shutdown() throws IOException {
+		this.pool.shutdown();
+		if(this.checkpoint != null) {
+			this.checkpoint.close();
+		}
+	}
+	
+	/**
+	 * adds bounds on a split depth position's score to what's known about it
+	 * 
+	 * @return what's now known
+	 */
+	private Frontier learn(long player, long opponent, int lower, int upper) {
+		Frontier known = this.frontier.computeIfAbsent(Bitboard.hash(player, opponent), h -> new Frontier(player, opponent, lower, upper));
+		synchronized(known) {
+			if(known.player == player && known.opponent == opponent) {
+				known.lower = Math.max(known.lower, lower);
+				known.upper = Math.min(known.upper, upper);
+			}
+		}
+		return known;
+	}
+	
+	/**
+	 * saves what a search of a split depth position found, and reports progress
+	 * now and then
+	 */
+	private void record(long player, long opponent, int alpha, int beta, int score) {
+		int lower = score > alpha ? score : -this.maxScore;
+		int upper = score < beta ? score : this.maxScore;
+		learn(player, opponent, lower, upper);
+		Listener listener = this.listener;
+		if(this.checkpoint != null) {
+			synchronized(this.checkpoint) {
+				try {
+					this.checkpoint.writeLong(player);
+					this.checkpoint.writeLong(opponent);
+					this.checkpoint.writeByte(lower);
+					this.checkpoint.writeByte(upper);
+					this.checkpoint.flush();
+				} catch(IOException e) {
+					// the run goes on, it just can't be resumed past this point
+					this.checkpoint = null;
+					if(listener != null) {
+						listener.checkpointFailed(e);
+					}
+				}
+			}
+		}
+		long searched = this.frontierSearched.incrementAndGet();
+		long now = System.nanoTime();
+		if(now - this.lastReport > REPORT_NANOS) {
+			this.lastReport = now;
+			if(listener != null) {
+				listener.progress(searched, getNodes(), now - this.started);
+			}
+		}
+	}
+	
+	/**
+	 * a node of the tree above the split depth, or a subtree at it. Once one of
+	 * a node's moves cuts off, the moves still being searched are cancelled: the
+	 * node is marked, and every task below it checks its ancestors every so often
+	 * and gives up, without storing anything, when one of them is marked.
+	 */
+	private final class Split extends RecursiveTask<Integer> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final long player;
+		private final long opponent;
+		private final int alpha;
+		private final int beta;
+		private final int ply;
+		private final Split parent;
+		private volatile boolean cutoff;
+		
+		private Split(long player, long opponent, int alpha, int beta, int ply, Split parent) {
+			this.player = player;
+			this.opponent = opponent;
+			this.alpha = alpha;
+			this.beta = beta;
+			this.ply = ply;
+			this.parent = parent;
+		}
+		
+		/**
+		 * whether the result is no longer needed because a node above cut off
+		 */
+		private boolean cancelled() {
+			for(Split node = this.parent; node != null; node = node.parent) {
+				if(node.cutoff) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		protected Integer compute() {
+			long player = this.player;
+			long opponent = this.opponent;
+			int alpha = this.alpha;
+			int beta = this.beta;
+			
+			if(cancelled()) {
+				return 0;
+			}
+			if(this.ply >= splitDepth || board.empties(player, opponent) < ORDER_EMPTIES) {
+				return subtree(player, opponent, alpha, beta);
+			}
+			
+			long moves = board.legalMoves(player, opponent);
+			if(moves == 0) {
+				if(board.legalMoves(opponent, player) == 0) {
+					return board.finalScore(player, opponent);
+				}
+				return -new Split(opponent, player, -beta, -alpha, this.ply + 1, this).compute();
+			}
+			
+			//the first move is searched before the rest are handed out, so they get its bound
+			int[] squares = new int[Long.bitCount(moves)];
+			int count = searchers.get().order(player, opponent, moves, squares, 0);
+			long flipped = Bitboard.flips(player, opponent, squares[0]);
+			int best = -new Split(opponent & ~flipped, player | flipped | (1L << squares[0]), -beta, -alpha, this.ply + 1, this).compute();
+			int bestMove = squares[0];
+			if(best > alpha) {
+				alpha = best;
+			}
+			if(alpha < beta && count > 1) {
+				//forked last to first so this thread takes them back best first, other threads steal the worst
+				Split[] rest = new Split[count];
+				for(int i=count - 1; i>0; i--) {
+					flipped = Bitboard.flips(player, opponent, squares[i]);
+					rest[i] = new Split(opponent & ~flipped, player | flipped | (1L << squares[i]), -beta, -alpha, this.ply + 1, this);
+					rest[i].fork();
+				}
+				for(int i=1; i<count; i++) {
+					int score = -rest[i].join();
+					if(score > best && !this.cutoff) {
+						best = score;
+						bestMove = squares[i];
+						if(best >= beta) {
+							this.cutoff = true;
+						}
+					}
+				}
+			}
+			if(cancelled()) {
+				return 0;
+			}
+			store(player, opponent, this.alpha, beta, best, bestMove);
+			return best;
+		}
+		
+		/**
+		 * searches a whole subtree on this thread, answering it from the
+		 * checkpoint if an earlier run already did
+		 */
+		private int subtree(long player, long opponent, int alpha, int beta) {
+			boolean checkpointed = this.ply == splitDepth;
+			if(checkpointed) {
+				Frontier known = frontier.get(Bitboard.hash(player, opponent));
+				if(known != null && known.player == player && known.opponent == opponent) {
+					synchronized(known) {
+						if(known.lower >= beta || known.lower == known.upper) {
+							return known.lower;
+						}
+						if(known.upper <= alpha) {
+							return known.upper;
+						}
+					}
+				}
+			}
+			Searcher searcher = searchers.get();
+			int score;
+			searcher.task = this;
+			try {
+				score = searcher.solve(player, opponent, alpha, beta, 0);
+			} catch(Aborted e) {
+				return 0;
+			} finally {
+				searcher.task = null;
+				nodes.add(searcher.nodes);
+				searcher.nodes = 0;
+			}
+			if(checkpointed) {
+				record(player, opponent, alpha, beta, score);
+			}
+			return score;
+		}
+	}
+	
+	/**
+	 * stores a searched position in the table
+	 */
+	private void store(long player, long opponent, int alpha, int beta, int score, int move) {
+		int bound = score >= beta ? TranspositionTable.LOWER : score > alpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+		this.table.store(Bitboard.hash(player, opponent), this.board.empties(player, opponent), bound, score, move);
+	}
+	
+	/**
+	 * serial alpha-beta solver, one for each thread. Move lists for every ply are
+	 * kept in its own arrays so nothing is allocated while it searches.
+	 */
+	private final class Searcher {
+		
+		private final int[] squares = new int[MAX_PLY * 32];
+		private final int[] scores = new int[MAX_PLY * 32];
+		private long nodes;
+		
+		//the task being searched, checked now and then in case it's been cancelled
+		private Split task;
+		
+		/**
+		 * puts the moves in the order to try them: the table's move, then fewest
+		 * opponent replies first
+		 * 
+		 * @return the number of moves
+		 */
+		private int order(long player, long opponent, long moves, int[] squares, int base) {
+			long entry = table.probe(Bitboard.hash(player, opponent));
+			int hashMove = entry == 0 ? TranspositionTable.NO_MOVE : TranspositionTable.move(entry);
+			int count = 0;
+			for(; moves != 0; moves &= moves - 1) {
+				int square = Long.numberOfTrailingZeros(moves);
+				long flipped = Bitboard.flips(player, opponent, square);
+				int score = square == hashMove ? Integer.MAX_VALUE
+						: -Long.bitCount(board.legalMoves(opponent & ~flipped, player | flipped | (1L << square)));
+				
+				//insertion, the lists are short
+				int i = count++;
+				for(; i > 0 && this.scores[base + i - 1] < score; i--) {
+					squares[base + i] = squares[base + i - 1];
+					this.scores[base + i] = this.scores[base + i - 1];
+				}
+				squares[base + i] = square;
+				this.scores[base + i] = score;
+			}
+			return count;
+		}
+		
+		/**
+		 * fail-soft alpha-beta search to the end of the game
+		 */
+		private int solve(long player, long opponent, int alpha, int beta, int ply) {
+			this.nodes++;
+			long moves = board.legalMoves(player, opponent);
+			if(moves == 0) {
+				if(board.legalMoves(opponent, player) == 0) {
+					return board.finalScore(player, opponent);
+				}
+				return -solve(opponent, player, -beta, -alpha, ply + 1);
+			}
+			int empties = board.empties(player, opponent);
+			
+			//near the end it's cheaper to just search than to look things up or sort
+			if(empties < TABLE_EMPTIES) {
+				int best = -maxScore - 1;
+				for(; moves != 0; moves &= moves - 1) {
+					int square = Long.numberOfTrailingZeros(moves);
+					long flipped = Bitboard.flips(player, opponent, square);
+					int score = -solve(opponent & ~flipped, player | flipped | (1L << square), -beta, -alpha, ply + 1);
+					if(score > best) {
+						best = score;
+						if(score > alpha) {
+							alpha = score;
+							if(alpha >= beta) {
+								break;
+							}
+						}
+					}
+				}
+				return best;
+			}
+			
+			long entry = table.probe(Bitboard.hash(player, opponent));
+			if(entry != 0) {
+				int score = TranspositionTable.score(entry);
+				int bound = TranspositionTable.bound(entry);
+				if(bound == TranspositionTable.EXACT
+						|| (bound == TranspositionTable.LOWER && score >= beta)
+						|| (bound == TranspositionTable.UPPER && score <= alpha)) {
+					return score;
+				}
+			}
+			
+			if(empties >= ABORT_EMPTIES && this.task != null && this.task.cancelled()) {
+				throw Aborted.INSTANCE;
+			}
+			
+			int originalAlpha = alpha;
+			int best = -maxScore - 1;
+			int bestMove = TranspositionTable.NO_MOVE;
+			int base = ply * 32;
+			int count;
+			if(empties >= ORDER_EMPTIES) {
+				count = order(player, opponent, moves, this.squares, base);
+			}
+			else {
+				for(count = 0; moves != 0; moves &= moves - 1) {
+					this.squares[base + count++] = Long.numberOfTrailingZeros(moves);
+				}
+			}
+			for(int i=0; i<count; i++) {
+				int square = this.squares[base + i];
+				long flipped = Bitboard.flips(player, opponent, square);
+				int score = -solve(opponent & ~flipped, player | flipped | (1L << square), -beta, -alpha, ply + 1);
+				if(score > best) {
+					best = score;
+					bestMove = square;
+					if(score > alpha) {
+						alpha = score;
+						if(alpha >= beta) {
+							break;
+						}
+					}
+				}
+			}
+			store(player, opponent, originalAlpha, beta, best, bestMove);
+			return best;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package engine;
+
+/**
+ * Stable disc analysis. A disc is stable when no sequence of moves can ever
+ * flip it, which gives hard bounds on the final score: the side to move can't
+ * end up with more than 64 minus twice the opponent's stable discs.
+ * 
+ * The set found is a safe under-estimate built with bitwise operations. A disc
+ * can only be flipped along one of the four lines through it, and it can't be
+ * flipped along a line when that line is full or when one of its neighbours on
+ * the line is the board's edge or a stable disc of the same colour. Discs that
+ * are safe along all four lines are stable, which makes more discs safe, so the
+ * set is grown from the corners and full lines until nothing changes.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public final class Stability {
+	
+	//edge squares, where a line has no neighbour on one side
+	private static final long EDGE_COLUMNS = 0x8181818181818181L;
+	private static final long EDGE_ROWS = 0xFF000000000000FFL;
+	private static final long EDGE_RING = EDGE_COLUMNS | EDGE_ROWS;
+	
+	private Stability() {
+	}
+	
+	/**
+	 * finds the discs that can never be flipped
+	 * 
+	 * @param discs the pieces to check
+	 * @param other the other side's pieces
+	 * @return bitmask of the stable discs in discs
+	 */
+	public static long stableDiscs(long discs, long other) {
+		if(discs == 0) {
+			return 0;
+		}
+		long empty = ~(discs | other);
+		
+		//squares safe along each line whatever their neighbours are: full lines and edges
+		long horizontal = ~(spreadUp(empty, 1, Bitboard.NOT_COL_0) | spreadDown(empty, 1, Bitboard.NOT_COL_7)) | EDGE_COLUMNS;
+		long vertical = ~(spreadUp(empty, 8, -1L) | spreadDown(empty, 8, -1L)) | EDGE_ROWS;
+		long diagonal = ~(spreadUp(empty, 9, Bitboard.NOT_COL_0) | spreadDown(empty, 9, Bitboard.NOT_COL_7)) | EDGE_RING;
+		long antiDiagonal = ~(spreadUp(empty, 7, Bitboard.NOT_COL_7) | spreadDown(empty, 7, Bitboard.NOT_COL_0)) | EDGE_RING;
+		
+		long stable = 0;
+		while(true) {
+			//discs with a stable disc next to them along each line
+			long safe = discs & ~stable
+					& (horizontal | ((stable << 1) & Bitboard.NOT_COL_0) | ((stable >>> 1) & Bitboard.NOT_COL_7))
+					& (vertical | (stable << 8) | (stable >>> 8))
+					& (diagonal | ((stable << 9) & Bitboard.NOT_COL_0) | ((stable >>> 9) & Bitboard.NOT_COL_7))
+					& (antiDiagonal | ((stable << 7) & Bitboard.NOT_COL_7) | ((stable >>> 7) & Bitboard.NOT_COL_0));
+			if(safe == 0) {
+				return stable;
+			}
+			stable |= safe;
+		}
+	}
+	
+	/**
+	 * counts the side to move's stable discs
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return number of player's discs that can never be flipped
+	 */
+	public static int count(long player, long opponent) {
+		return Long.bitCount(stableDiscs(player, opponent));
+	}
+	
+	/**
+	 * spreads bits as far as they go towards higher squares, s bits at a time,
+	 * with mask the squares a shift by s is allowed to land on
+	 */
+	private static long spreadUp(long bits, int s, long mask) {
+		bits |= mask & (bits << s);
+		mask &= mask << s;
+		bits |= mask & (bits << (2 * s));
+		mask &= mask << (2 * s);
+		return bits | (mask & (bits << (4 * s)));
+	}
+	
+	/**
+	 * spreads bits as far as they go towards lower squares, like spreadUp
+	 */
+	private static long spreadDown(long bits, int s, long mask) {
+		bits |= mask & (bits >>> s);
+		mask &= mask >>> s;
+		bits |= mask & (bits >>> (2 * s));
+		mask &= mask >>> (2 * s);
+		return bits | (mask & (bits >>> (4 * s)));
+	}
+}
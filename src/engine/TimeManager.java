@@ -0,0 +1,115 @@
+package engine;
+
+/**
+ * Decides how long the engine thinks about each move on a GameClock. The
+ * remaining time is split over the moves the side still expects to make,
+ * giving a soft target that's stretched when the best move keeps changing
+ * between iterations, and a hard deadline that the search is aborted at no
+ * matter what. A move with only one legal reply is played right away.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class TimeManager {
+	
+	//time kept back on every move for applying it and updating the board
+	private static final long OVERHEAD_MILLIS = 30;
+	
+	//fewest moves the remaining time is ever split over
+	private static final int MIN_MOVES_LEFT = 3;
+	
+	//an iteration takes a few times longer than the last, so don't start one past this fraction of the target
+	private static final double START_FRACTION = 0.45;
+	
+	private final GameClock clock;
+	private long startNanos;
+	private long softMillis;
+	private long hardMillis;
+	private boolean forced;
+	private int lastBest;
+	private int changes;
+	
+	/**
+	 * Constructor, saves the clock time is taken from
+	 * 
+	 * @param clock the game clock
+	 */
+	public TimeManager(GameClock clock) {
+		this.clock = clock;
+	}
+	
+	/**
+	 * works out the time budget for a move, call right before searching it
+	 * 
+	 * @param side color of the side to move, 'W' or 'B'
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 */
+	public void startMove(char side, long player, long opponent) {
+		this.startNanos = System.nanoTime();
+		this.forced = Long.bitCount(Bitboard.legalMoves(player, opponent)) <= 1;
+		this.lastBest = Integer.MIN_VALUE;
+		this.changes = 0;
+		
+		long left = Math.max(1, this.clock.remaining(side) - OVERHEAD_MILLIS);
+		if(this.clock.isFixedPerMove()) {
+			this.softMillis = left;
+			this.hardMillis = left;
+			return;
+		}
+		
+		int movesLeft = Math.max(MIN_MOVES_LEFT, (Bitboard.empties(player, opponent) + 1) / 2);
+		long increment = this.clock.getIncrement();
+		this.softMillis = Math.min(left, left / movesLeft + increment * 3 / 4);
+		this.hardMillis = Math.min(left, Math.min(this.softMillis * 3, Math.max(this.softMillis, left / 4 + increment)));
+	}
+	
+	/**
+	 * returns the time the search must be aborted at
+	 * 
+	 * @return deadline in System.nanoTime() terms
+	 */
+	public long getHardDeadline() {
+		return this.startNanos + this.hardMillis * 1000000L;
+	}
+	
+	/**
+	 * called after every completed iteration, decides whether to start another
+	 * 
+	 * @param depth the depth just completed
+	 * @param bestMove that iteration's best move
+	 * @return true to stop searching and play the move
+	 */
+	public boolean shouldStop(int depth, int bestMove) {
+		if(this.forced) {
+			return true;
+		}
+		if(this.lastBest != Integer.MIN_VALUE && bestMove != this.lastBest) {
+			this.changes++;
+		}
+		this.lastBest = bestMove;
+		
+		//an unstable best move gets up to 2.5 times the normal target
+		double target = Math.min(this.hardMillis, this.softMillis * (1 + 0.5 * Math.min(this.changes, 3)));
+		double elapsed = (System.nanoTime() - this.startNanos) / 1e6;
+		return elapsed >= target * START_FRACTION;
+	}
+	
+	/**
+	 * getter for the soft target of the current move
+	 * 
+	 * @return milliseconds the move is meant to take
+	 */
+	public long getSoftMillis() {
+		return this.softMillis;
+	}
+	
+	/**
+	 * getter for the hard limit of the current move
+	 * 
+	 * @return milliseconds the move can never go past
+	 */
+	public long getHardMillis() {
+		return this.hardMillis;
+	}
+}
@@ -0,0 +1,129 @@
+package engine;
+
+/**
+ * Fixed size hash table of search results, indexed by Bitboard.hash. Each slot
+ * is a key and a packed data word, with the key stored xor'd with the data so a
+ * slot torn by two threads writing at once just reads back as a miss.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class TranspositionTable {
+	
+	/** score is a lower bound, the search failed high */
+	public static final int LOWER = 1;
+	
+	/** score is an upper bound, the search failed low */
+	public static final int UPPER = 2;
+	
+	/** score is exact */
+	public static final int EXACT = 3;
+	
+	/** move value meaning no move is stored */
+	public static final int NO_MOVE = 127;
+	
+	//bit 63 is always set on a stored entry so that 0 means empty
+	private static final long VALID = 1L << 63;
+	
+	private final long[] keys;
+	private final long[] data;
+	private final int mask;
+	
+	/**
+	 * Constructor, creates an empty table of 2^bits slots
+	 * 
+	 * @param bits log2 of the number of slots
+	 */
+	public TranspositionTable(int bits) {
+		if(bits < 1 || bits > 30) {
+			throw new IllegalArgumentException("Table size must be between 2^1 and 2^30 slots.");
+		}
+		this.keys = new long[1 << bits];
+		this.data = new long[1 << bits];
+		this.mask = (1 << bits) - 1;
+	}
+	
+	/**
+	 * looks a position up
+	 * 
+	 * @param hash the position's hash
+	 * @return the packed entry, or 0 if the position isn't stored
+	 */
+	public long probe(long hash) {
+		int index = (int) hash & this.mask;
+		long d = this.data[index];
+		if(d != 0 && (this.keys[index] ^ d) == hash) {
+			return d;
+		}
+		return 0;
+	}
+	
+	/**
+	 * stores a search result, replacing whatever was in its slot
+	 * 
+	 * @param hash the position's hash
+	 * @param depth depth the position was searched to
+	 * @param bound LOWER, UPPER or EXACT
+	 * @param score the score found
+	 * @param move the best move found, or NO_MOVE
+	 */
+	public void store(long hash, int depth, int bound, int score, int move) {
+		int index = (int) hash & this.mask;
+		long d = pack(depth, bound, score, move);
+		this.data[index] = d;
+		this.keys[index] = hash ^ d;
+	}
+	
+	/**
+	 * empties the table
+	 */
+	public void clear() {
+		java.util.Arrays.fill(this.keys, 0);
+		java.util.Arrays.fill(this.data, 0);
+	}
+	
+	/**
+	 * packs an entry's fields into a data word
+	 * 
+	 * @param depth depth the position was searched to
+	 * @param bound LOWER, UPPER or EXACT
+	 * @param score the score found
+	 * @param move the best move found, or NO_MOVE
+	 * @return the packed data word
+	 */
+	public static long pack(int depth, int bound, int score, int move) {
+		return VALID | ((long) (move & 0x7F) << 26) | ((long) bound << 24) | ((long) (depth & 0xFF) << 16) | (score & 0xFFFF);
+	}
+	
+	/**
+	 * @param entry a packed entry
+	 * @return the entry's score
+	 */
+	public static int score(long entry) {
+		return (short) entry;
+	}
+	
+	/**
+	 * @param entry a packed entry
+	 * @return the depth the entry was searched to
+	 */
+	public static int depth(long entry) {
+		return (int) (entry >>> 16) & 0xFF;
+	}
+	
+	/**
+	 * @param entry a packed entry
+	 * @return LOWER, UPPER or EXACT
+	 */
+	public static int bound(long entry) {
+		return (int) (entry >>> 24) & 0x3;
+	}
+	
+	/**
+	 * @param entry a packed entry
+	 * @return the entry's best move, or NO_MOVE
+	 */
+	public static int move(long entry) {
+		return (int) (entry >>> 26) & 0x7F;
+	}
+}
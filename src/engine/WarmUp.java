@@ -0,0 +1,82 @@
+package engine;
+
+/**
+ * Runs a search over throwaway positions so the JIT has compiled the search, the
+ * evaluation and the endgame solver before they're needed for a real move. Without
+ * it the computer's first move or two are searched largely in the interpreter and
+ * come out several times shallower than later ones in the same time.
+ * 
+ * The positions come from random games played out from the start, each searched
+ * with a small node limit, and the endgame of every game is solved, so all of the
+ * search's code paths get hot.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public final class WarmUp {
+	
+	//nodes searched at each position, small enough to get through lots of positions
+	private static final long NODES = 20000;
+	
+	//how deep each position is searched at most
+	private static final int DEPTH = 8;
+	
+	//endgames with this many empty squares are solved instead
+	private static final int EXACT_EMPTIES = 14;
+	
+	private WarmUp() {
+	}
+	
+	/**
+	 * searches random positions with the search until the time runs out. The
+	 * search should be one that isn't in use yet and has no persistent cache set,
+	 * its transposition table is left with entries for the warm-up positions.
+	 * 
+	 * @param search the search to warm up
+	 * @param millis how long to keep searching
+	 * @return the number of positions searched
+	 */
+	public static int run(Search search, long millis) {
+		SearchLimits limits = new SearchLimits(DEPTH, NODES, 0);
+		limits.setExactEmpties(EXACT_EMPTIES);
+		long deadline = System.nanoTime() + millis * 1000000L;
+		long seed = System.nanoTime() | 1;
+		int searched = 0;
+		
+		while(System.nanoTime() < deadline) {
+			long player = Bitboard.START_FIRST;
+			long opponent = Bitboard.START_SECOND;
+			boolean passed = false;
+			while(System.nanoTime() < deadline) {
+				long moves = Bitboard.legalMoves(player, opponent);
+				if(moves == 0) {
+					if(passed) {
+						break;
+					}
+					passed = true;
+				}
+				else {
+					passed = false;
+					search.search(player, opponent, limits);
+					searched++;
+					
+					//random moves keep the games varied, xorshift is plenty
+					seed ^= seed << 13;
+					seed ^= seed >>> 7;
+					seed ^= seed << 17;
+					for(int skip = (int) ((seed >>> 1) % Long.bitCount(moves)); skip > 0; skip--) {
+						moves &= moves - 1;
+					}
+					int square = Long.numberOfTrailingZeros(moves);
+					long flips = Bitboard.flips(player, opponent, square);
+					player |= flips | 1L << square;
+					opponent &= ~flips;
+				}
+				long swap = player;
+				player = opponent;
+				opponent = swap;
+			}
+		}
+		return searched;
+	}
+}
@@ -0,0 +1,36 @@
+package events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for saving or loading the game state file.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+@Name("reversi.GameState")
+@Label("Game State I/O")
+@Category({"Reversi", "I/O"})
+@Description("A save or load of the serialized game state")
+@StackTrace(false)
+public class GameStateEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	@Description("save or load")
+	public String operation;
+	
+	@Label("Path")
+	public String path;
+	
+	@Label("Size")
+	@DataAmount
+	public long bytes;
+	
+	@Label("Success")
+	public boolean success;
+}
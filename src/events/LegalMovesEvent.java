@@ -0,0 +1,27 @@
+package events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a call to ReversiController.calculateLegal()
+ * 
+ * @author Wes Rodgers
+ *
+ */
+@Name("reversi.CalculateLegal")
+@Label("Calculate Legal Moves")
+@Category({"Reversi", "Game"})
+@Description("Recalculation of the legal moves for both sides")
+@StackTrace(false)
+public class LegalMovesEvent extends jdk.jfr.Event {
+
+	@Label("Human Moves")
+	public int humanMoves;
+	
+	@Label("Computer Moves")
+	public int computerMoves;
+}
@@ -0,0 +1,34 @@
+package events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one iteration of the computer player's search.
+ * The event duration is the time spent on that iteration alone.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+@Name("reversi.SearchIteration")
+@Label("Search Iteration")
+@Category({"Reversi", "Engine"})
+@Description("One completed iteration of the computer player's move search")
+@StackTrace(false)
+public class SearchIterationEvent extends jdk.jfr.Event {
+
+	@Label("Depth")
+	public int depth;
+	
+	@Label("Nodes")
+	public long nodes;
+	
+	@Label("Best Move")
+	public String bestMove;
+	
+	@Label("Score")
+	public int score;
+}
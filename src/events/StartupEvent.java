@@ -0,0 +1,32 @@
+package events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a milestone in starting up the game: the board
+ * showing, the background data loading finishing, the engine being warmed up
+ * and the computer's first move.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+@Name("reversi.Startup")
+@Label("Startup")
+@Category({"Reversi", "Startup"})
+@Description("A point reached while starting the game, timed from the launch of the JVM")
+@StackTrace(false)
+public class StartupEvent extends jdk.jfr.Event {
+	
+	@Label("Milestone")
+	@Description("interactive, data loaded, engine ready or first move")
+	public String milestone;
+	
+	@Label("Since Launch")
+	@Timespan(Timespan.MILLISECONDS)
+	public long sinceLaunch;
+}
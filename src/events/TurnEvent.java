@@ -0,0 +1,38 @@
+package events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering a single turn made through the controller,
+ * from the legality check until the last flipped piece has been set.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+@Name("reversi.Turn")
+@Label("Turn")
+@Category({"Reversi", "Game"})
+@Description("A human or computer turn applied to the board")
+@StackTrace(false)
+public class TurnEvent extends jdk.jfr.Event {
+
+	@Label("Side")
+	@Description("human or computer")
+	public String side;
+	
+	@Label("Row")
+	public int x;
+	
+	@Label("Column")
+	public int y;
+	
+	@Label("Human Score")
+	public int humanScore;
+	
+	@Label("Computer Score")
+	public int computerScore;
+}
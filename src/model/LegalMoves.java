@@ -1,20 +1,26 @@
 package model;
 
-import java.util.HashMap;
-
 /**
- * Provides methods and a HashMap to keep track of legal moves and the points they're
- * worth
+ * Keeps track of legal moves and the points they're worth, as a bitmask of the
+ * squares (x*8+y) and an array of points. Nothing is allocated after it's made,
+ * the controller clears and refills the same lists every turn.
  * 
  * @author Wes Rodgers
  *
  */
 public class LegalMoves {
 	
-	private HashMap<ReversiMove, Integer> moveList;
+	private long squares;
+	private final int[] points = new int[64];
 	
 	public LegalMoves() {
-		this.moveList = new HashMap<ReversiMove, Integer>();
+	}
+	
+	/**
+	 * empties the list so it can be filled for the next turn
+	 */
+	public void clear() {
+		this.squares = 0;
 	}
 	
 	/**
@@ -23,22 +29,21 @@ public class LegalMoves {
 	 * @return the number of legal moves
 	 */
 	public int length() {
-		return moveList.size();
+		return Long.bitCount(this.squares);
 	}
 	
 	/**
-	 * adds a move at position (x,y) to the HashMap
+	 * adds a move at position (x,y) to the list
 	 * 
 	 * @param x
 	 * @param y
 	 */
 	public void addMove(int x, int y) {
-		ReversiMove move = new ReversiMove(x, y);
-		moveList.put(move, 0);
+		addMove(x, y, 0);
 	}
 	
 	/**
-	 * adds a move at position (x,y) the the HashMap,
+	 * adds a move at position (x,y) to the list,
 	 * update the point count if it already exists
 	 * 
 	 * @param x
@@ -46,12 +51,13 @@ public class LegalMoves {
 	 * @param pointCount the number of points the move is worth
 	 */
 	public void addMove(int x, int y, int pointCount) {
-		ReversiMove move = new ReversiMove(x, y);
-		if(moveList.containsKey(move)) {
-			moveList.put(move, moveList.get(move) + pointCount);
+		int square = x * 8 + y;
+		if((this.squares & (1L << square)) != 0) {
+			this.points[square] += pointCount;
 		}
 		else {
-			moveList.put(move, pointCount);
+			this.squares |= 1L << square;
+			this.points[square] = pointCount;
 		}
 	}
 	
@@ -60,25 +66,37 @@ public class LegalMoves {
 	 * 
 	 * @param x
 	 * @param y
-	 * @return true if a move at (x,y) is in the HashMap, false otherwise
+	 * @return true if a move at (x,y) is in the list, false otherwise
 	 */
 	public boolean contains(int x, int y) {
-		return moveList.containsKey(new ReversiMove(x, y));
+		return (this.squares & (1L << (x * 8 + y))) != 0;
 	}
 	
 	
 	/**
-	 * computer's "AI". Finds the move with the highest point count and returns it.
+	 * computer's "AI". Finds the move with the highest point count and returns it,
+	 * the first in square order if several are worth the most.
 	 * 
-	 * @return the move in the HashMap worth the most points
+	 * @return the move in the list worth the most points, or null if there are none
 	 */
 	public ReversiMove bestMove() {
+		int best = bestSquare();
+		return best < 0 ? null : new ReversiMove(best / 8, best % 8);
+	}
+	
+	/**
+	 * the same pick as bestMove, as a square index so nothing is allocated
+	 * 
+	 * @return the square x*8+y of the move worth the most points, or -1 if there are none
+	 */
+	public int bestSquare() {
 		int count = -1;
-		ReversiMove most = null;
-		for(ReversiMove move : moveList.keySet()) {
-			if(moveList.get(move) > count) {
-				count = moveList.get(move);
-				most = move;
+		int most = -1;
+		for(long moves = this.squares; moves != 0; moves &= moves - 1) {
+			int square = Long.numberOfTrailingZeros(moves);
+			if(this.points[square] > count) {
+				count = this.points[square];
+				most = square;
 			}
 		}
 		
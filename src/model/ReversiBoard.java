@@ -18,6 +18,9 @@ public class ReversiBoard implements Serializable{
 	char movecolor;
 	public boolean humanTurn;
 	
+	//where setMove records changes, made with the board so a game's first change doesn't allocate
+	private transient int[] changed = new int[2];
+	
 	/**
 	 * Constructor, just saves the passed in parameters into the appropriate fields
 	 * 
@@ -35,6 +38,30 @@ public class ReversiBoard implements Serializable{
 		this.movecolor = movecolor;
 	}
 	
+	/**
+	 * records the latest change to the board in place. The model keeps one
+	 * ReversiBoard for the whole game rather than making a new one for every
+	 * square it changes.
+	 * 
+	 * @param humanCount the human's new score
+	 * @param computerCount the computer's new score
+	 * @param x x coordinate of the changed square
+	 * @param y y coordinate of the changed square
+	 * @param movecolor the square's new color
+	 */
+	void setMove(int humanCount, int computerCount, int x, int y, char movecolor) {
+		//transient, so a board read back from a save doesn't have one yet
+		if(this.changed == null) {
+			this.changed = new int[2];
+		}
+		this.move = this.changed;
+		this.humanCount = humanCount;
+		this.computerCount = computerCount;
+		this.move[0] = x;
+		this.move[1] = y;
+		this.movecolor = movecolor;
+	}
+	
 	/**
 	 * getter for board field
 	 * 
@@ -115,13 +115,13 @@ public class ReversiModel extends Observable{
 		
 		this.board[x][y] = color;
 		
-		int[] move = new int[2];
-		move[0] = x;
-		move[1] = y;
-		char movecolor = color;
-		observableBoard = new ReversiBoard(this.board, humanCount, computerCount, move, movecolor);
-		setChanged();
-		notifyObservers(observableBoard);
+		//the same board object is updated for every change, and with nobody watching
+		//(games played without the GUI) there's nobody to notify, so nothing is allocated
+		observableBoard.setMove(humanCount, computerCount, x, y, color);
+		if(countObservers() > 0) {
+			setChanged();
+			notifyObservers(observableBoard);
+		}
 	}
 
 	/**
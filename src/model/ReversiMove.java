@@ -1,8 +1,8 @@
 package model;
 
 /**
- * provides a move class for LegalMoves, has hashCode() and equals() overrides
- * to make sure HashMap can properly check whether it contains them.
+ * provides a move class for LegalMoves.bestMove(), has hashCode() and equals()
+ * overrides so moves at the same coordinates count as the same move.
  * 
  * @author Wes Rodgers
  *
@@ -36,6 +36,14 @@ public class ReversiMove {
 		return this.getX() == ((ReversiMove) o).getX() && this.getY() == ((ReversiMove) o).getY();
 	}
 
+	/**
+	 * returns the move in board notation, column letter followed by row number (e.g. "d3")
+	 */
+	@Override
+	public String toString() {
+		return "" + (char) ('a' + this.y) + (this.x + 1);
+	}
+
 	/**
 	 * getter for y coordinate
 	 * 
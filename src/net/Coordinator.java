@@ -0,0 +1,381 @@
+package net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import engine.Bitboard;
+import engine.EngineSettings;
+import engine.GameRecord;
+import engine.Position;
+import engine.SelfPlay;
+import model.IllegalUserInputException;
+
+/**
+ * Hands self-play or analysis jobs out to any number of Worker processes over
+ * TCP and collects their results into one output file. Each connection gets
+ * one job at a time. A worker that disconnects or misses heartbeats for the
+ * timeout has its job put back at the front of the queue for someone else.
+ * A worker that can't run a job says so and gets another one, the job goes to
+ * the back of the queue. Either way a job is only tried so many times, after
+ * that it's set aside as failed so one bad job can't take down every worker
+ * in turn. Self-play results are written as binary GameRecords, analysis
+ * results as BatchSolver style text lines.
+ * 
+ * Usage: Coordinator output [--port p] [--timeout ms] [--tries n] [--mode selfplay|analysis]
+ *        selfplay: [--first engine] [--second engine] [--openings file | --games n --random-plies k --seed s]
+ *        analysis: --positions file [--engine engine]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class Coordinator {
+	
+	private final LinkedBlockingDeque<Job> queue = new LinkedBlockingDeque<Job>();
+	private final Set<Long> done = ConcurrentHashMap.newKeySet();
+	private final Map<Long, Integer> failures = new ConcurrentHashMap<Long, Integer>();
+	private final Map<Long, String> failed = new ConcurrentSkipListMap<Long, String>();
+	private final CountDownLatch finished;
+	private final long timeoutMillis;
+	private final int tries;
+	private final DataOutputStream output;
+	private final AtomicInteger connections = new AtomicInteger();
+	
+	/**
+	 * Constructor, queues the jobs
+	 * 
+	 * @param jobs every job of the run
+	 * @param output where results are written
+	 * @param timeoutMillis how long a worker can go quiet before it's dropped
+	 * @param tries how many times a job is handed out before it counts as failed
+	 */
+	public Coordinator(List<Job> jobs, DataOutputStream output, long timeoutMillis, int tries) {
+		if(tries < 1) {
+			throw new IllegalArgumentException("A job has to be tried at least once, not " + tries);
+		}
+		this.queue.addAll(jobs);
+		this.finished = new CountDownLatch(jobs.size());
+		this.output = output;
+		this.timeoutMillis = timeoutMillis;
+		this.tries = tries;
+	}
+	
+	/**
+	 * the jobs that were set aside after failing too many times
+	 * 
+	 * @return job ids, in order, with the last reason each failed
+	 */
+	public Map<Long, String> getFailed() {
+		return this.failed;
+	}
+	
+	/**
+	 * accepts workers until every job has a result
+	 * 
+	 * @param port the port to listen on
+	 * @throws IOException if the port can't be opened
+	 * @throws InterruptedException if interrupted while waiting for results
+	 */
+	public void run(int port) throws IOException, InterruptedException {
+		try(ServerSocket server = new ServerSocket(port)) {
+			Thread acceptor = new Thread(() -> {
+				while(!server.isClosed()) {
+					try {
+						Socket socket = server.accept();
+						Thread connection = new Thread(() -> serve(socket), "worker-" + socket.getRemoteSocketAddress());
+						connection.setDaemon(true);
+						connection.start();
+					}
+					catch(IOException e) {
+						// server closed
+					}
+				}
+			}, "coordinator-accept");
+			acceptor.setDaemon(true);
+			acceptor.start();
+			
+			System.err.println("Coordinator listening on port " + server.getLocalPort() + " with " + this.finished.getCount() + " jobs");
+			while(!this.finished.await(10, TimeUnit.SECONDS)) {
+				System.err.println(this.done.size() + " done (" + this.failed.size() + " failed), " + this.finished.getCount() + " to go");
+			}
+			
+			//give idle workers a moment to be told to shut down
+			long giveUp = System.currentTimeMillis() + 2 * this.timeoutMillis;
+			while(this.connections.get() > 0 && System.currentTimeMillis() < giveUp) {
+				Thread.sleep(50);
+			}
+		}
+	}
+	
+	/**
+	 * looks after one worker connection, handing it jobs until there are none
+	 * left or it goes away
+	 */
+	private void serve(Socket socket) {
+		Job current = null;
+		String name = socket.getRemoteSocketAddress().toString();
+		this.connections.incrementAndGet();
+		try(Socket s = socket) {
+			s.setSoTimeout((int) this.timeoutMillis);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			
+			out.writeInt(Protocol.MAGIC);
+			out.flush();
+			if(in.readInt() != Protocol.MAGIC || in.readByte() != Protocol.HELLO) {
+				return;
+			}
+			name = in.readUTF() + "@" + name;
+			System.err.println("Worker " + name + " connected");
+			
+			while(true) {
+				current = nextJob();
+				if(current == null) {
+					out.writeByte(Protocol.SHUTDOWN);
+					out.flush();
+					return;
+				}
+				out.writeByte(Protocol.JOB);
+				current.write(out);
+				out.flush();
+				
+				//anything but a heartbeat, the result or the job failing is a protocol error
+				byte type;
+				while((type = in.readByte()) == Protocol.HEARTBEAT) {
+				}
+				if((type != Protocol.RESULT && type != Protocol.FAILED) || in.readLong() != current.getId()) {
+					throw new IOException("Unexpected message from worker");
+				}
+				if(type == Protocol.FAILED) {
+					String reason = in.readUTF();
+					System.err.println("Worker " + name + " couldn't run job " + current.getId() + ": " + reason);
+					failed(current, reason, false);
+				}
+				else {
+					readResult(current, in);
+				}
+				current = null;
+			}
+		}
+		catch(SocketTimeoutException e) {
+			System.err.println("Worker " + name + " missed its heartbeats, dropping it");
+		}
+		catch(IOException e) {
+			System.err.println("Worker " + name + " disconnected: " + e.getMessage());
+		}
+		finally {
+			if(current != null) {
+				failed(current, "worker " + name + " went away", true);
+			}
+			this.connections.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * puts a job that didn't get a result back on the queue, or sets it aside
+	 * once it's been tried as many times as it's allowed
+	 * 
+	 * @param job the job
+	 * @param reason why it didn't get a result
+	 * @param front true to try it again next, false to let the rest of the queue go first
+	 */
+	private void failed(Job job, String reason, boolean front) {
+		if(this.done.contains(job.getId())) {
+			return;
+		}
+		if(this.failures.merge(job.getId(), 1, Integer::sum) < this.tries) {
+			if(front) {
+				this.queue.addFirst(job);
+			}
+			else {
+				this.queue.addLast(job);
+			}
+		}
+		else if(this.done.add(job.getId())) {
+			System.err.println("Job " + job.getId() + " failed " + this.tries + " times, giving up on it: " + reason);
+			this.failed.put(job.getId(), reason);
+			this.finished.countDown();
+		}
+	}
+	
+	/**
+	 * takes the next job off the queue, waiting while other workers still have
+	 * jobs out in case one of them has to be re-queued
+	 * 
+	 * @return the next job, or null once every job is done
+	 */
+	private Job nextJob() throws IOException {
+		try {
+			while(this.finished.getCount() > 0) {
+				Job job = this.queue.poll(1, TimeUnit.SECONDS);
+				if(job != null && !this.done.contains(job.getId())) {
+					return job;
+				}
+			}
+			return null;
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a job", e);
+		}
+	}
+	
+	/**
+	 * reads a job's result and writes it to the output, ignoring duplicates from
+	 * a job that was re-queued but finished anyway
+	 */
+	private void readResult(Job job, DataInputStream in) throws IOException {
+		GameRecord game = null;
+		String line = null;
+		if(job.getKind() == Job.SELF_PLAY) {
+			game = GameRecord.read(in);
+		}
+		else {
+			int move = in.readByte();
+			int score = in.readInt();
+			int depth = in.readInt();
+			boolean exact = in.readBoolean();
+			line = new Position(job.getPlayer(), job.getOpponent(), job.getSide()) + " " + Bitboard.squareName(move) + " " + score + " "
+					+ (exact ? "exact" : Integer.toString(depth)) + "\n";
+		}
+		
+		if(!this.done.add(job.getId())) {
+			return;
+		}
+		synchronized(this.output) {
+			if(game != null) {
+				game.write(this.output);
+			}
+			else {
+				this.output.write(line.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		this.finished.countDown();
+	}
+	
+	/**
+	 * command line entry point
+	 * 
+	 * @param args output file, then any options
+	 * @throws Exception if the jobs can't be set up or the run fails
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.err.println("Usage: Coordinator output [--port p] [--timeout ms] [--tries n] [--mode selfplay|analysis] [--first engine] [--second engine]"
+					+ " [--openings file | --games n --random-plies k --seed s] [--positions file --engine engine]");
+			System.exit(1);
+		}
+		
+		int port = 7341;
+		long timeout = 5000;
+		int tries = 3;
+		String mode = "selfplay";
+		String first = "search,depth=4";
+		String second = "search,depth=4";
+		String openings = null;
+		String positions = null;
+		int games = 100;
+		int randomPlies = 8;
+		long seed = 1;
+		for(int i=1; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--port": port = Integer.parseInt(args[i+1]); break;
+				case "--timeout": timeout = Long.parseLong(args[i+1]); break;
+				case "--tries": tries = Integer.parseInt(args[i+1]); break;
+				case "--mode": mode = args[i+1]; break;
+				case "--first": first = args[i+1]; break;
+				case "--second": second = args[i+1]; break;
+				case "--engine": first = args[i+1]; break;
+				case "--openings": openings = args[i+1]; break;
+				case "--positions": positions = args[i+1]; break;
+				case "--games": games = Integer.parseInt(args[i+1]); break;
+				case "--random-plies": randomPlies = Integer.parseInt(args[i+1]); break;
+				case "--seed": seed = Long.parseLong(args[i+1]); break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.exit(1);
+			}
+		}
+		
+		//catch bad engine settings here rather than on every worker
+		EngineSettings analysisEngine = EngineSettings.parse(first);
+		EngineSettings.parse(second);
+		
+		List<Job> jobs = new ArrayList<Job>();
+		if(mode.equals("analysis")) {
+			if(positions == null) {
+				throw new IllegalUserInputException("Analysis needs --positions");
+			}
+			if(!analysisEngine.getType().equals("search")) {
+				throw new IllegalUserInputException("Analysis needs a search engine, got " + first);
+			}
+			for(String line : Files.readAllLines(Paths.get(positions), StandardCharsets.UTF_8)) {
+				if(line.isEmpty() || line.charAt(0) == '#') {
+					continue;
+				}
+				Position p = Position.parse(line);
+				jobs.add(new Job(jobs.size(), Job.ANALYSIS, first, first, p.getPlayer(), p.getOpponent(), p.getSide()));
+			}
+		}
+		else {
+			//every opening is played twice with the engines swapped
+			List<Position> starts = new ArrayList<Position>();
+			if(openings != null) {
+				for(String line : Files.readAllLines(Paths.get(openings), StandardCharsets.UTF_8)) {
+					if(!line.isEmpty() && line.charAt(0) != '#') {
+						starts.add(Position.parse(line));
+					}
+				}
+			}
+			else {
+				Random random = new Random(seed);
+				while(starts.size() < (games + 1) / 2) {
+					Position p = SelfPlay.randomOpening(random, randomPlies);
+					if(p != null) {
+						starts.add(p);
+					}
+				}
+			}
+			for(Position p : starts) {
+				jobs.add(new Job(jobs.size(), Job.SELF_PLAY, first, second, p.getPlayer(), p.getOpponent(), p.getSide()));
+				jobs.add(new Job(jobs.size(), Job.SELF_PLAY, second, first, p.getPlayer(), p.getOpponent(), p.getSide()));
+			}
+		}
+		
+		Coordinator coordinator;
+		try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[0])))) {
+			coordinator = new Coordinator(jobs, output, timeout, tries);
+			coordinator.run(port);
+		}
+		Map<Long, String> failed = coordinator.getFailed();
+		if(failed.isEmpty()) {
+			System.err.println("All " + jobs.size() + " jobs done");
+			return;
+		}
+		System.err.println((jobs.size() - failed.size()) + " of " + jobs.size() + " jobs done, these failed:");
+		for(Map.Entry<Long, String> job : failed.entrySet()) {
+			System.err.println("  job " + job.getKey() + ": " + job.getValue());
+		}
+		System.exit(1);
+	}
+}
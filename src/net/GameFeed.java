@@ -0,0 +1,164 @@
+package net;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import model.ReversiBoard;
+
+/**
+ * One game's spectator stream. Observes the game's ReversiModel and turns each
+ * change notification into a text line ("set d3 W") stored in a ring buffer that
+ * every spectator of the game reads from at its own pace. Publishing never
+ * waits on readers, a reader that falls a whole ring behind finds its next
+ * line overwritten and has to resync from a snapshot.
+ * 
+ * A snapshot ("snapshot" and the 64 squares, row by row) is kept up to date
+ * every SNAPSHOT_INTERVAL lines, so a late joiner starts from it and only has
+ * a short tail of lines to catch up on.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+@SuppressWarnings("deprecation")
+public class GameFeed implements Observer {
+	
+	/** lines kept in the ring */
+	public static final int CAPACITY = 4096;
+	
+	//lines between snapshots, small next to CAPACITY so a new snapshot's tail is never overwritten yet
+	private static final int SNAPSHOT_INTERVAL = 64;
+	
+	/**
+	 * a line of the stream and its sequence number
+	 */
+	static final class Line {
+		final long seq;
+		final byte[] bytes;
+		
+		Line(long seq, byte[] bytes) {
+			this.seq = seq;
+			this.bytes = bytes;
+		}
+	}
+	
+	private final String name;
+	private final AtomicReferenceArray<Line> ring = new AtomicReferenceArray<Line>(CAPACITY);
+	private final char[] board = new char[64];
+	private volatile long published = -1;
+	private volatile Line snapshot;
+	private Runnable listener;
+	
+	/**
+	 * Constructor for a feed starting from an empty board
+	 * 
+	 * @param name the name spectators ask for
+	 */
+	public GameFeed(String name) {
+		this.name = name;
+		Arrays.fill(this.board, '_');
+		this.snapshot = new Line(-1, snapshotBytes());
+	}
+	
+	/**
+	 * getter for the name
+	 * 
+	 * @return the game's name
+	 */
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * sets what to call after each new line, used by SpectatorServer to wake its selector
+	 * 
+	 * @param listener the callback, must not block
+	 */
+	synchronized void setListener(Runnable listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * starts the stream over from a whole board, e.g. when a new game starts or
+	 * a saved one is loaded. Spectators get the new board as a snapshot line.
+	 * 
+	 * @param current the board to start from
+	 */
+	public synchronized void reset(ReversiBoard current) {
+		for(int i=0; i<64; i++) {
+			this.board[i] = current.getColorAt(i / 8, i % 8);
+		}
+		byte[] bytes = snapshotBytes();
+		publish(bytes);
+		this.snapshot = new Line(this.published, bytes);
+	}
+	
+	/**
+	 * called by the model for every square it changes
+	 */
+	@Override
+	public synchronized void update(Observable o, Object arg) {
+		if(!(arg instanceof ReversiBoard)) {
+			return;
+		}
+		ReversiBoard changed = (ReversiBoard) arg;
+		int[] move = changed.getMove();
+		if(move == null) {
+			return;
+		}
+		char color = changed.getMoveColor();
+		this.board[move[0] * 8 + move[1]] = color;
+		publish(("set " + (char) ('a' + move[1]) + (move[0] + 1) + " " + color + "\n").getBytes(StandardCharsets.US_ASCII));
+		
+		if(this.published % SNAPSHOT_INTERVAL == 0) {
+			this.snapshot = new Line(this.published, snapshotBytes());
+		}
+	}
+	
+	/**
+	 * adds a line to the ring and tells the listener
+	 */
+	private void publish(byte[] bytes) {
+		long seq = this.published + 1;
+		this.ring.set((int) (seq % CAPACITY), new Line(seq, bytes));
+		this.published = seq;
+		if(this.listener != null) {
+			this.listener.run();
+		}
+	}
+	
+	/**
+	 * sequence number of the newest line
+	 * 
+	 * @return the sequence number, -1 before the first line
+	 */
+	long getPublished() {
+		return this.published;
+	}
+	
+	/**
+	 * returns line seq, or null if it has been overwritten (or isn't published yet)
+	 * 
+	 * @param seq the line's sequence number
+	 * @return the line
+	 */
+	Line get(long seq) {
+		Line line = this.ring.get((int) (seq % CAPACITY));
+		return line != null && line.seq == seq ? line : null;
+	}
+	
+	/**
+	 * returns the newest snapshot, its seq is the last line it already includes
+	 * 
+	 * @return the snapshot
+	 */
+	Line getSnapshot() {
+		return this.snapshot;
+	}
+	
+	private byte[] snapshotBytes() {
+		return ("snapshot " + new String(this.board) + "\n").getBytes(StandardCharsets.US_ASCII);
+	}
+}
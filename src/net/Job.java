@@ -0,0 +1,141 @@
+package net;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A unit of work the Coordinator hands to a Worker: either a self-play game
+ * between two engines from a starting position, or an analysis search of a
+ * single position.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class Job {
+	
+	/** play a game between first and second from the position */
+	public static final byte SELF_PLAY = 1;
+	
+	/** search the position with first */
+	public static final byte ANALYSIS = 2;
+	
+	private final long id;
+	private final byte kind;
+	private final String first;
+	private final String second;
+	private final long player;
+	private final long opponent;
+	private final char side;
+	
+	/**
+	 * Constructor, just saves the passed in parameters into the appropriate fields
+	 * 
+	 * @param id the job's number, unique within a run
+	 * @param kind SELF_PLAY or ANALYSIS
+	 * @param first EngineSettings of the side to move
+	 * @param second EngineSettings of the other side, unused for analysis
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param side color of the side to move
+	 */
+	public Job(long id, byte kind, String first, String second, long player, long opponent, char side) {
+		this.id = id;
+		this.kind = kind;
+		this.first = first;
+		this.second = second;
+		this.player = player;
+		this.opponent = opponent;
+		this.side = side;
+	}
+	
+	/**
+	 * writes the job to a worker connection
+	 * 
+	 * @param out the connection's output
+	 * @throws IOException if writing fails
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(this.id);
+		out.writeByte(this.kind);
+		out.writeUTF(this.first);
+		out.writeUTF(this.second);
+		out.writeLong(this.player);
+		out.writeLong(this.opponent);
+		out.writeChar(this.side);
+	}
+	
+	/**
+	 * reads a job written by write
+	 * 
+	 * @param in the connection's input
+	 * @return the job
+	 * @throws IOException if reading fails
+	 */
+	public static Job read(DataInput in) throws IOException {
+		return new Job(in.readLong(), in.readByte(), in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), in.readChar());
+	}
+	
+	/**
+	 * getter for id
+	 * 
+	 * @return the job's number
+	 */
+	public long getId() {
+		return this.id;
+	}
+	
+	/**
+	 * getter for kind
+	 * 
+	 * @return SELF_PLAY or ANALYSIS
+	 */
+	public byte getKind() {
+		return this.kind;
+	}
+	
+	/**
+	 * getter for first
+	 * 
+	 * @return EngineSettings of the side to move
+	 */
+	public String getFirst() {
+		return this.first;
+	}
+	
+	/**
+	 * getter for second
+	 * 
+	 * @return EngineSettings of the other side
+	 */
+	public String getSecond() {
+		return this.second;
+	}
+	
+	/**
+	 * getter for player
+	 * 
+	 * @return pieces of the side to move
+	 */
+	public long getPlayer() {
+		return this.player;
+	}
+	
+	/**
+	 * getter for opponent
+	 * 
+	 * @return pieces of the other side
+	 */
+	public long getOpponent() {
+		return this.opponent;
+	}
+	
+	/**
+	 * getter for side
+	 * 
+	 * @return color of the side to move
+	 */
+	public char getSide() {
+		return this.side;
+	}
+}
@@ -0,0 +1,32 @@
+package net;
+
+/**
+ * Message types for the coordinator/worker connection. Every message is a
+ * type byte followed by its fields, written with DataOutputStream.
+ * 
+ * Worker to coordinator: HELLO (worker name), HEARTBEAT, RESULT (job id, then
+ * a GameRecord for self-play or move, score, depth and exact flag for analysis),
+ * FAILED (job id and why, for a job the worker couldn't run).
+ * Coordinator to worker: JOB (a Job), SHUTDOWN.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+final class Protocol {
+	
+	/** first thing sent on a connection by both sides */
+	static final int MAGIC = 0x52565331; // "RVS1"
+	
+	static final byte HELLO = 1;
+	static final byte HEARTBEAT = 2;
+	static final byte RESULT = 3;
+	static final byte JOB = 4;
+	static final byte SHUTDOWN = 5;
+	static final byte FAILED = 6;
+	
+	/** how often workers send a heartbeat while they're busy */
+	static final long HEARTBEAT_MILLIS = 1000;
+	
+	private Protocol() {
+	}
+}
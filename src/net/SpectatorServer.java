@@ -0,0 +1,309 @@
+package net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams GameFeeds to spectators over TCP. A spectator connects and sends
+ * "watch name", then gets the game's latest snapshot line followed by every
+ * "set" line after it. One selector thread serves every connection with
+ * non-blocking writes, so games publishing lines never wait on it and a slow
+ * spectator never holds up the others.
+ * 
+ * Each spectator has a small output buffer. Once it's full nothing more is
+ * copied in until the socket drains, and the spectator falls behind in the
+ * feed's ring. If it falls a whole ring behind it's resynced with a fresh
+ * snapshot, and after MAX_RESYNCS of those it's dropped.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class SpectatorServer implements Closeable {
+	
+	/** default port spectators connect to */
+	public static final int DEFAULT_PORT = 7342;
+	
+	//per spectator output buffer, a few hundred lines
+	private static final int BUFFER_SIZE = 8192;
+	
+	//longest request line accepted
+	private static final int REQUEST_SIZE = 128;
+	
+	//times a spectator can fall a whole ring behind before it's dropped
+	private static final int MAX_RESYNCS = 3;
+	
+	/**
+	 * one spectator connection
+	 */
+	private static final class Spectator {
+		final SocketChannel channel;
+		final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+		ByteBuffer request = ByteBuffer.allocate(REQUEST_SIZE);
+		GameFeed feed;
+		long next;
+		boolean resync;
+		int resyncs;
+		
+		Spectator(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+	
+	private final Map<String, GameFeed> feeds = new ConcurrentHashMap<String, GameFeed>();
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final List<Spectator> spectators = new ArrayList<Spectator>();
+	private final AtomicBoolean wakeupPending = new AtomicBoolean();
+	private final Thread thread;
+	
+	//where whatever spectators send after their request goes, only used on the selector thread
+	private final ByteBuffer discard = ByteBuffer.allocate(256);
+	private volatile boolean running = true;
+	
+	/**
+	 * opens the port and starts the selector thread
+	 * 
+	 * @param port the port to listen on
+	 * @throws IOException if the port can't be opened
+	 */
+	public SpectatorServer(int port) throws IOException {
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		this.server.bind(new InetSocketAddress(port));
+		this.server.configureBlocking(false);
+		this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+		this.thread = new Thread(this::serve, "spectator-server");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/**
+	 * makes a feed available to spectators
+	 * 
+	 * @param feed the feed, spectators ask for it by name
+	 */
+	public void addFeed(GameFeed feed) {
+		feed.setListener(this::wakeup);
+		this.feeds.put(feed.getName(), feed);
+	}
+	
+	/**
+	 * wakes the selector for new lines, at most once until it has run
+	 */
+	private void wakeup() {
+		if(!this.wakeupPending.getAndSet(true)) {
+			this.selector.wakeup();
+		}
+	}
+	
+	/**
+	 * the selector thread's loop
+	 */
+	private void serve() {
+		while(this.running) {
+			try {
+				this.selector.select();
+				this.wakeupPending.set(false);
+				
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid()) {
+						continue;
+					}
+					if(key.isAcceptable()) {
+						accept();
+					}
+					else if(key.isReadable()) {
+						read(key);
+					}
+				}
+				
+				//every spectator gets whatever its feed published since the last pass
+				for(int i=this.spectators.size()-1; i>=0; i--) {
+					Spectator s = this.spectators.get(i);
+					if(s.feed != null && !pump(s)) {
+						drop(i);
+					}
+				}
+			}
+			catch(IOException e) {
+				if(this.running) {
+					System.err.println("Spectator server: " + e.getMessage());
+				}
+			}
+		}
+	}
+	
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while((channel = this.server.accept()) != null) {
+			channel.configureBlocking(false);
+			Spectator s = new Spectator(channel);
+			channel.register(this.selector, SelectionKey.OP_READ, s);
+			this.spectators.add(s);
+		}
+	}
+	
+	/**
+	 * reads the request line of a new spectator, anything sent after it is ignored
+	 */
+	private void read(SelectionKey key) {
+		Spectator s = (Spectator) key.attachment();
+		try {
+			if(s.request == null) {
+				this.discard.clear();
+				if(s.channel.read(this.discard) < 0) {
+					close(s);
+				}
+				return;
+			}
+			if(s.channel.read(s.request) < 0) {
+				close(s);
+				return;
+			}
+			
+			String text = new String(s.request.array(), 0, s.request.position(), StandardCharsets.US_ASCII);
+			int end = text.indexOf('\n');
+			if(end < 0) {
+				if(!s.request.hasRemaining()) {
+					refuse(s, "request too long");
+				}
+				return;
+			}
+			
+			String[] words = text.substring(0, end).trim().split("\\s+");
+			GameFeed feed = words.length == 2 && words[0].equals("watch") ? this.feeds.get(words[1]) : null;
+			if(feed == null) {
+				refuse(s, words.length == 2 ? "unknown game " + words[1] : "expected watch <game>");
+				return;
+			}
+			s.request = null;
+			s.feed = feed;
+			s.resync = true;
+		}
+		catch(IOException e) {
+			close(s);
+		}
+	}
+	
+	/**
+	 * copies a spectator's unread lines into its buffer and writes what the socket takes
+	 * 
+	 * @return false if the spectator has to be dropped
+	 */
+	private boolean pump(Spectator s) {
+		try {
+			GameFeed feed = s.feed;
+			long published = feed.getPublished();
+			
+			//a snapshot only goes into an empty buffer, so it can't split a half written line.
+			//A spectator that doesn't even drain that much before being lapped again is dropped
+			if(s.resync) {
+				if(s.out.position() == 0) {
+					GameFeed.Line snapshot = feed.getSnapshot();
+					s.out.put(snapshot.bytes);
+					s.next = snapshot.seq + 1;
+					s.resync = false;
+				}
+				else if(published - s.next >= GameFeed.CAPACITY) {
+					if(++s.resyncs > MAX_RESYNCS) {
+						return false;
+					}
+					s.next = published;
+				}
+			}
+			
+			while(!s.resync && s.next <= published) {
+				GameFeed.Line line = feed.get(s.next);
+				if(line == null) {
+					//fell a whole ring behind, laps while waiting to resync are counted from here
+					if(++s.resyncs > MAX_RESYNCS) {
+						return false;
+					}
+					s.resync = true;
+					s.next = published;
+					break;
+				}
+				if(s.out.remaining() < line.bytes.length) {
+					break;
+				}
+				s.out.put(line.bytes);
+				s.next++;
+			}
+			
+			if(s.out.position() > 0) {
+				s.out.flip();
+				s.channel.write(s.out);
+				s.out.compact();
+			}
+			
+			//only ask to hear about the socket draining while something is waiting to go out
+			SelectionKey key = s.channel.keyFor(this.selector);
+			int ops = s.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+			if(key.interestOps() != ops) {
+				key.interestOps(ops);
+			}
+			return true;
+		}
+		catch(IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * sends an error line to a spectator whose request was bad and hangs up
+	 */
+	private void refuse(Spectator s, String message) throws IOException {
+		s.channel.write(ByteBuffer.wrap(("error " + message + "\n").getBytes(StandardCharsets.US_ASCII)));
+		close(s);
+	}
+	
+	private void drop(int index) {
+		close(this.spectators.get(index));
+	}
+	
+	private void close(Spectator s) {
+		this.spectators.remove(s);
+		try {
+			s.channel.close();
+		}
+		catch(IOException e) {
+			// closing anyway
+		}
+	}
+	
+	/**
+	 * stops the server and disconnects every spectator
+	 */
+	@Override
+	public void close() throws IOException {
+		this.running = false;
+		this.selector.wakeup();
+		try {
+			this.thread.join(1000);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for(Spectator s : new ArrayList<Spectator>(this.spectators)) {
+			close(s);
+		}
+		this.server.close();
+		this.selector.close();
+	}
+}
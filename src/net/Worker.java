@@ -0,0 +1,215 @@
+package net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import engine.EngineSettings;
+import engine.GameRecord;
+import engine.Player;
+import engine.SearchPlayer;
+import engine.SearchResult;
+import engine.SelfPlay;
+import model.IllegalUserInputException;
+
+/**
+ * Connects to a Coordinator and runs the jobs it hands out until it says to
+ * shut down. A background thread sends heartbeats while a job runs so the
+ * coordinator can tell a slow job from a dead worker. Run as many workers as
+ * there are cores, on as many hosts as needed.
+ * 
+ * Usage: Worker host [--port p] [--name n]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class Worker {
+	
+	private final String name;
+	private final Map<String, Player> players = new HashMap<String, Player>();
+	private DataOutputStream out;
+	
+	/**
+	 * Constructor, saves the name the worker reports to the coordinator
+	 * 
+	 * @param name the worker's name
+	 */
+	public Worker(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * connects and runs jobs until the coordinator shuts the worker down
+	 * 
+	 * @param host the coordinator's host
+	 * @param port the coordinator's port
+	 * @return number of jobs run
+	 * @throws IOException if the connection fails
+	 */
+	public int run(String host, int port) throws IOException {
+		int jobs = 0;
+		try(Socket socket = new Socket(host, port)) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			
+			if(in.readInt() != Protocol.MAGIC) {
+				throw new IOException(host + ":" + port + " isn't a coordinator");
+			}
+			synchronized(this.out) {
+				this.out.writeInt(Protocol.MAGIC);
+				this.out.writeByte(Protocol.HELLO);
+				this.out.writeUTF(this.name);
+				this.out.flush();
+			}
+			
+			Thread heartbeat = new Thread(this::heartbeat, "worker-heartbeat");
+			heartbeat.setDaemon(true);
+			heartbeat.start();
+			
+			try {
+				while(true) {
+					byte type = in.readByte();
+					if(type == Protocol.SHUTDOWN) {
+						return jobs;
+					}
+					if(type != Protocol.JOB) {
+						throw new IOException("Unexpected message " + type + " from coordinator");
+					}
+					if(runJob(Job.read(in))) {
+						jobs++;
+					}
+				}
+			}
+			finally {
+				heartbeat.interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * runs one job and sends back its result. A job that can't be run here (bad
+	 * engine settings, a weights or ProbCut file this host doesn't have) is
+	 * reported as failed instead, the coordinator decides whether anyone else
+	 * tries it. Only a broken connection is thrown.
+	 * 
+	 * @return true if the job ran
+	 */
+	private boolean runJob(Job job) throws IOException {
+		GameRecord game = null;
+		SearchResult result = null;
+		try {
+			Player first = player(job.getFirst());
+			if(job.getKind() == Job.SELF_PLAY) {
+				game = SelfPlay.play(first, player(job.getSecond()), job.getPlayer(), job.getOpponent());
+			}
+			else {
+				if(!(first instanceof SearchPlayer)) {
+					throw new IllegalUserInputException("Analysis needs a search engine, got " + job.getFirst());
+				}
+				first.move(job.getPlayer(), job.getOpponent());
+				result = ((SearchPlayer) first).getLastResult();
+			}
+		}
+		catch(IOException | IllegalUserInputException | RuntimeException e) {
+			System.err.println("Job " + job.getId() + " failed: " + e.getMessage());
+			synchronized(this.out) {
+				this.out.writeByte(Protocol.FAILED);
+				this.out.writeLong(job.getId());
+				this.out.writeUTF(String.valueOf(e.getMessage()));
+				this.out.flush();
+			}
+			return false;
+		}
+		
+		if(game != null) {
+			synchronized(this.out) {
+				this.out.writeByte(Protocol.RESULT);
+				this.out.writeLong(job.getId());
+				game.write(this.out);
+				this.out.flush();
+			}
+			return true;
+		}
+		synchronized(this.out) {
+			this.out.writeByte(Protocol.RESULT);
+			this.out.writeLong(job.getId());
+			this.out.writeByte(result.getMove());
+			this.out.writeInt(result.getScore());
+			this.out.writeInt(result.getDepth());
+			this.out.writeBoolean(result.isExact());
+			this.out.flush();
+		}
+		return true;
+	}
+	
+	/**
+	 * returns the player for some engine settings, built once and reused so
+	 * its transposition table carries over between jobs
+	 */
+	private Player player(String settings) throws IOException {
+		Player player = this.players.get(settings);
+		if(player == null) {
+			try {
+				player = EngineSettings.parse(settings).createPlayer();
+			}
+			catch(IllegalUserInputException e) {
+				throw new IOException("Bad engine settings from coordinator", e);
+			}
+			this.players.put(settings, player);
+		}
+		return player;
+	}
+	
+	/**
+	 * sends a heartbeat every Protocol.HEARTBEAT_MILLIS until interrupted
+	 */
+	private void heartbeat() {
+		try {
+			while(true) {
+				Thread.sleep(Protocol.HEARTBEAT_MILLIS);
+				synchronized(this.out) {
+					this.out.writeByte(Protocol.HEARTBEAT);
+					this.out.flush();
+				}
+			}
+		}
+		catch(InterruptedException | IOException e) {
+			// connection is done
+		}
+	}
+	
+	/**
+	 * command line entry point
+	 * 
+	 * @param args coordinator host, then any options
+	 * @throws IOException if the connection fails
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: Worker host [--port p] [--name n]");
+			System.exit(1);
+		}
+		
+		int port = 7341;
+		String name = InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+		for(int i=1; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--port": port = Integer.parseInt(args[i+1]); break;
+				case "--name": name = args[i+1]; break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.exit(1);
+			}
+		}
+		
+		int jobs = new Worker(name).run(args[0], port);
+		System.err.println("Worker " + name + " ran " + jobs + " jobs");
+	}
+}
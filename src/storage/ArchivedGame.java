@@ -0,0 +1,69 @@
+package storage;
+
+import engine.GameRecord;
+
+/**
+ * A finished game as kept in a game archive: the moves and result, who played
+ * each side and when it was played.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class ArchivedGame {
+	
+	private final String first;
+	private final String second;
+	private final long date;
+	private final GameRecord record;
+	
+	/**
+	 * Constructor, just saves the passed in parameters into the appropriate fields
+	 * 
+	 * @param first name of the player who moved first
+	 * @param second name of the other player
+	 * @param date when the game finished, in milliseconds since the epoch
+	 * @param record the game's moves and result
+	 */
+	public ArchivedGame(String first, String second, long date, GameRecord record) {
+		this.first = first;
+		this.second = second;
+		this.date = date;
+		this.record = record;
+	}
+	
+	/**
+	 * getter for the first mover's name
+	 * 
+	 * @return the name
+	 */
+	public String getFirst() {
+		return this.first;
+	}
+	
+	/**
+	 * getter for the second mover's name
+	 * 
+	 * @return the name
+	 */
+	public String getSecond() {
+		return this.second;
+	}
+	
+	/**
+	 * getter for the date
+	 * 
+	 * @return when the game finished, in milliseconds since the epoch
+	 */
+	public long getDate() {
+		return this.date;
+	}
+	
+	/**
+	 * getter for the game record
+	 * 
+	 * @return the moves and result
+	 */
+	public GameRecord getRecord() {
+		return this.record;
+	}
+}
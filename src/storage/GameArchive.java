@@ -0,0 +1,129 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import engine.Bitboard;
+import engine.GameRecord;
+
+/**
+ * File layout shared by GameArchiveWriter and GameArchiveReader.
+ * 
+ * A 16 byte header, then blocks of up to BLOCK_GAMES games, each a game count
+ * and compressed length followed by the deflated games. After the last block
+ * comes the block index (offset, compressed length and game count of every
+ * block) and a footer pointing at it, rewritten whenever the archive is closed.
+ * Because every block carries its own lengths, an archive whose index never got
+ * written can still be recovered by walking the blocks. Space the writer gave up
+ * (an old index, or a partly filled block it wrote again elsewhere) starts with
+ * a skip record, a SKIP count and the number of bytes after it, which the walk
+ * steps over.
+ * 
+ * A game is a flags byte (bit 0 for the usual start with the first mover on
+ * Bitboard.START_FIRST, bit 1 for it on START_SECOND, neither for a custom start
+ * followed by both bitboards), the move count and one byte per move, the score
+ * byte, the date and both player names.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+final class GameArchive {
+	
+	static final int MAGIC = 0x52474152; // "RGAR"
+	static final int VERSION = 1;
+	static final int HEADER = 16;
+	static final int BLOCK_HEADER = 8;
+	static final int INDEX_ENTRY = 16;
+	static final int FOOTER = 24;
+	static final int BLOCK_GAMES = 4096;
+	static final int SKIP = -1;
+	
+	/** most bytes one game can take in a block */
+	static final int MAX_GAME = 1 + 16 + 1 + 60 + 1 + 8 + 2 * (1 + 255);
+	
+	private static final int START_FIRST = 1;
+	private static final int START_SECOND = 2;
+	
+	private GameArchive() {
+	}
+	
+	/**
+	 * adds a game's bytes to an uncompressed block
+	 */
+	static void encode(ArchivedGame game, ByteBuffer out) {
+		GameRecord record = game.getRecord();
+		long player = record.getStartPlayer();
+		long opponent = record.getStartOpponent();
+		if(player == Bitboard.START_FIRST && opponent == Bitboard.START_SECOND) {
+			out.put((byte) START_FIRST);
+		}
+		else if(player == Bitboard.START_SECOND && opponent == Bitboard.START_FIRST) {
+			out.put((byte) START_SECOND);
+		}
+		else {
+			out.put((byte) 0);
+			out.putLong(player);
+			out.putLong(opponent);
+		}
+		out.put((byte) record.getMoves().length);
+		out.put(record.getMoves());
+		out.put((byte) record.getScore());
+		out.putLong(game.getDate());
+		putName(game.getFirst(), out);
+		putName(game.getSecond(), out);
+	}
+	
+	/**
+	 * reads every game of an uncompressed block into games
+	 */
+	static void decode(ByteBuffer in, int count, List<ArchivedGame> games) throws IOException {
+		try {
+			for(int i=0; i<count; i++) {
+				int flags = in.get();
+				long player = Bitboard.START_FIRST;
+				long opponent = Bitboard.START_SECOND;
+				if(flags == START_SECOND) {
+					player = Bitboard.START_SECOND;
+					opponent = Bitboard.START_FIRST;
+				}
+				else if(flags != START_FIRST) {
+					player = in.getLong();
+					opponent = in.getLong();
+				}
+				int moveCount = in.get() & 0xFF;
+				if(moveCount > 60) {
+					throw new IOException("Archived game with " + moveCount + " moves");
+				}
+				byte[] moves = new byte[moveCount];
+				in.get(moves);
+				int score = in.get();
+				long date = in.getLong();
+				String first = getName(in);
+				String second = getName(in);
+				games.add(new ArchivedGame(first, second, date, new GameRecord(player, opponent, moves, score)));
+			}
+		}
+		catch(RuntimeException e) {
+			throw new IOException("Damaged archive block", e);
+		}
+	}
+	
+	/**
+	 * writes a name as a length byte and up to 255 bytes of UTF-8
+	 */
+	private static void putName(String name, ByteBuffer out) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int length = Math.min(255, bytes.length);
+		out.put((byte) length);
+		out.put(bytes, 0, length);
+	}
+	
+	private static String getName(ByteBuffer in) {
+		int length = in.get() & 0xFF;
+		String name = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return name;
+	}
+}
@@ -0,0 +1,294 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a game archive written by GameArchiveWriter. Games can be streamed in
+ * order through the iterator, which only holds one block in memory at a time,
+ * or looked up by number through the block index. Blocks are read with
+ * positional reads, so readBlock can be called from several threads at once
+ * to process an archive in parallel.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class GameArchiveReader implements Closeable, Iterable<ArchivedGame> {
+	
+	/**
+	 * the block index, where each block starts and how many games come before it
+	 */
+	static final class Index {
+		long[] offsets = new long[16];
+		int[] lengths = new int[16];
+		int[] counts = new int[16];
+		long[] firstGames = new long[16];
+		int blocks;
+		long games;
+		long end = GameArchive.HEADER;
+		long indexEnd = GameArchive.HEADER;
+		
+		void add(long offset, int length, int count) {
+			if(this.blocks == this.offsets.length) {
+				int size = this.blocks * 2;
+				this.offsets = Arrays.copyOf(this.offsets, size);
+				this.lengths = Arrays.copyOf(this.lengths, size);
+				this.counts = Arrays.copyOf(this.counts, size);
+				this.firstGames = Arrays.copyOf(this.firstGames, size);
+			}
+			this.offsets[this.blocks] = offset;
+			this.lengths[this.blocks] = length;
+			this.counts[this.blocks] = count;
+			this.firstGames[this.blocks] = this.games;
+			this.blocks++;
+			this.games += count;
+		}
+		
+		void removeLast() {
+			this.blocks--;
+			this.games -= this.counts[this.blocks];
+			this.end = this.offsets[this.blocks];
+		}
+	}
+	
+	private final FileChannel channel;
+	private final Index index;
+	
+	/**
+	 * opens an archive for reading
+	 * 
+	 * @param path the archive file
+	 * @return the reader
+	 * @throws IOException if the file can't be read or isn't an archive
+	 */
+	public static GameArchiveReader open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new GameArchiveReader(channel, readIndex(channel, path));
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private GameArchiveReader(FileChannel channel, Index index) {
+		this.channel = channel;
+		this.index = index;
+	}
+	
+	/**
+	 * reads the block index from the footer, or rebuilds it by walking the
+	 * blocks if the archive wasn't closed properly
+	 */
+	static Index readIndex(FileChannel channel, Path path) throws IOException {
+		long size = channel.size();
+		ByteBuffer header = read(channel, 0, GameArchive.HEADER);
+		if(header == null || header.getInt() != GameArchive.MAGIC || header.getInt() != GameArchive.VERSION) {
+			throw new IOException(path + " isn't a game archive");
+		}
+		
+		Index index = new Index();
+		ByteBuffer footer = size >= GameArchive.HEADER + GameArchive.FOOTER ? read(channel, size - GameArchive.FOOTER, GameArchive.FOOTER) : null;
+		if(footer != null) {
+			long indexOffset = footer.getLong();
+			int blocks = footer.getInt();
+			long games = footer.getLong();
+			if(footer.getInt() == GameArchive.MAGIC && blocks >= 0
+					&& indexOffset + (long) blocks * GameArchive.INDEX_ENTRY + GameArchive.FOOTER == size) {
+				ByteBuffer entries = read(channel, indexOffset, blocks * GameArchive.INDEX_ENTRY);
+				for(int i=0; i<blocks; i++) {
+					index.add(entries.getLong(), entries.getInt(), entries.getInt());
+				}
+				if(index.games == games) {
+					index.end = indexOffset;
+					index.indexEnd = size;
+					return index;
+				}
+				index = new Index();
+			}
+		}
+		
+		//no usable index, keep every whole block from the start, stepping over skipped space
+		long position = GameArchive.HEADER;
+		ByteBuffer block;
+		while((block = read(channel, position, GameArchive.BLOCK_HEADER)) != null) {
+			int count = block.getInt();
+			int length = block.getInt();
+			if(count != GameArchive.SKIP && (count < 1 || count > GameArchive.BLOCK_GAMES)
+					|| length < 0 || position + GameArchive.BLOCK_HEADER + length > size) {
+				break;
+			}
+			if(count != GameArchive.SKIP) {
+				index.add(position, length, count);
+			}
+			position += GameArchive.BLOCK_HEADER + length;
+		}
+		index.end = position;
+		index.indexEnd = position;
+		return index;
+	}
+	
+	/**
+	 * reads length bytes at position, or returns null if the file ends first
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				return null;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * getter for the number of games
+	 * 
+	 * @return the game count
+	 */
+	public long getGameCount() {
+		return this.index.games;
+	}
+	
+	/**
+	 * getter for the number of blocks
+	 * 
+	 * @return the block count
+	 */
+	public int getBlockCount() {
+		return this.index.blocks;
+	}
+	
+	/**
+	 * reads and decompresses one block
+	 * 
+	 * @param block the block number
+	 * @return the block's games, in order
+	 * @throws IOException if the block can't be read or is damaged
+	 */
+	public List<ArchivedGame> readBlock(int block) throws IOException {
+		return readBlock(this.channel, this.index, block);
+	}
+	
+	/**
+	 * reads and decompresses one block of an archive, for the reader and for a
+	 * writer picking a partly filled block back up
+	 */
+	static List<ArchivedGame> readBlock(FileChannel channel, Index index, int block) throws IOException {
+		int length = index.lengths[block];
+		int count = index.counts[block];
+		ByteBuffer compressed = read(channel, index.offsets[block] + GameArchive.BLOCK_HEADER, length);
+		if(compressed == null) {
+			throw new IOException("Archive ends inside block " + block);
+		}
+		
+		//most games are well under a hundred bytes, grow for the ones that aren't
+		byte[] games = new byte[count * 96];
+		int size = 0;
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed.array(), 0, length);
+			while(!inflater.finished()) {
+				if(size == games.length) {
+					games = Arrays.copyOf(games, Math.min(games.length * 2, count * GameArchive.MAX_GAME + 1));
+				}
+				int n = inflater.inflate(games, size, games.length - size);
+				if(n == 0 && (inflater.needsInput() || inflater.needsDictionary() || size == games.length)) {
+					throw new IOException("Damaged archive block " + block);
+				}
+				size += n;
+			}
+		}
+		catch(DataFormatException e) {
+			throw new IOException("Damaged archive block " + block, e);
+		}
+		finally {
+			inflater.end();
+		}
+		
+		List<ArchivedGame> list = new ArrayList<ArchivedGame>(count);
+		GameArchive.decode(ByteBuffer.wrap(games, 0, size), count, list);
+		return list;
+	}
+	
+	/**
+	 * looks up a game by its number
+	 * 
+	 * @param game the game's number, counting from 0 in the order they were added
+	 * @return the game
+	 * @throws IOException if its block can't be read
+	 */
+	public ArchivedGame get(long game) throws IOException {
+		if(game < 0 || game >= this.index.games) {
+			throw new IndexOutOfBoundsException("Game " + game + " of " + this.index.games);
+		}
+		int low = 0;
+		int high = this.index.blocks - 1;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if(this.index.firstGames[mid] <= game) {
+				low = mid;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		return readBlock(low).get((int) (game - this.index.firstGames[low]));
+	}
+	
+	/**
+	 * streams every game in order, a block at a time. A block that can't be
+	 * read is thrown as an UncheckedIOException.
+	 */
+	@Override
+	public Iterator<ArchivedGame> iterator() {
+		return new Iterator<ArchivedGame>() {
+			private int nextBlock;
+			private Iterator<ArchivedGame> games = Collections.emptyIterator();
+			
+			@Override
+			public boolean hasNext() {
+				while(!this.games.hasNext() && this.nextBlock < index.blocks) {
+					try {
+						this.games = readBlock(this.nextBlock++).iterator();
+					}
+					catch(IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+				return this.games.hasNext();
+			}
+			
+			@Override
+			public ArchivedGame next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return this.games.next();
+			}
+		};
+	}
+	
+	/**
+	 * closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
@@ -0,0 +1,283 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Appends finished games to a game archive (see GameArchive for the layout).
+ * Games are collected into blocks which are deflated and written as they fill,
+ * each with a new block index, and the last block and index on close. Opening an existing archive carries
+ * on filling its last block if that isn't full, so an archive added to a few
+ * games at a time still ends up in full blocks that compress well. The file
+ * isn't touched until a block fills or the writer is closed, until then it
+ * reads as it did before it was opened.
+ * 
+ * Nothing the current index points at is ever overwritten. A block goes into
+ * space no live block or index uses, at the end of the file if there's no room
+ * before it, then the new index and footer go after everything and are forced
+ * to disk. Only then is the old index, and the partly filled block a refilled
+ * one replaces, given up. A crash at any point leaves either the old archive or
+ * the new one. Given up space is marked as a skip record so the blocks can
+ * still be walked, and is reused by later blocks, so it doesn't add up.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class GameArchiveWriter implements Closeable {
+	
+	private final FileChannel channel;
+	private final GameArchiveReader.Index index;
+	private final ByteBuffer block = ByteBuffer.allocate(GameArchive.BLOCK_GAMES * GameArchive.MAX_GAME);
+	private final Deflater deflater = new Deflater();
+	private byte[] compressed = new byte[1 << 16];
+	private int blockGames;
+	
+	//the partly filled last block whose games were read back into this one, or -1
+	private int replaced = -1;
+	
+	//where the index and footer on disk start and end, the same if there aren't any
+	private long indexStart;
+	private long indexEnd;
+	
+	/**
+	 * opens an archive for appending, creating it if it doesn't exist
+	 * 
+	 * @param path the archive file
+	 * @return the writer
+	 * @throws IOException if the file can't be opened or isn't an archive
+	 */
+	public static GameArchiveWriter open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			GameArchiveReader.Index index;
+			if(channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(GameArchive.HEADER);
+				header.putInt(GameArchive.MAGIC).putInt(GameArchive.VERSION).putLong(0).flip();
+				channel.write(header, 0);
+				index = new GameArchiveReader.Index();
+			}
+			else {
+				index = GameArchiveReader.readIndex(channel, path);
+			}
+			
+			//a partly filled last block is read back in and written again, somewhere
+			//else, once it's filled up (or on close)
+			List<ArchivedGame> last = Collections.emptyList();
+			if(index.blocks > 0 && index.counts[index.blocks - 1] < GameArchive.BLOCK_GAMES) {
+				try {
+					last = GameArchiveReader.readBlock(channel, index, index.blocks - 1);
+				}
+				catch(IOException e) {
+					// a damaged block is left as it is, new games go after it
+				}
+			}
+			GameArchiveWriter writer = new GameArchiveWriter(channel, index);
+			for(ArchivedGame game : last) {
+				GameArchive.encode(game, writer.block);
+			}
+			if(!last.isEmpty()) {
+				writer.blockGames = last.size();
+				writer.replaced = index.blocks - 1;
+			}
+			return writer;
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private GameArchiveWriter(FileChannel channel, GameArchiveReader.Index index) {
+		this.channel = channel;
+		this.index = index;
+		this.indexStart = index.end;
+		this.indexEnd = index.indexEnd;
+	}
+	
+	/**
+	 * adds a game to the archive
+	 * 
+	 * @param game the game
+	 * @throws IOException if a full block can't be written
+	 */
+	public void add(ArchivedGame game) throws IOException {
+		GameArchive.encode(game, this.block);
+		if(++this.blockGames == GameArchive.BLOCK_GAMES) {
+			writeBlock();
+		}
+	}
+	
+	/**
+	 * getter for the number of games in the archive, including ones not written yet
+	 * 
+	 * @return the game count
+	 */
+	public long getGameCount() {
+		long reread = this.replaced < 0 ? 0 : this.index.counts[this.replaced];
+		return this.index.games - reread + this.blockGames;
+	}
+	
+	/**
+	 * deflates the current block, writes it where it doesn't overwrite anything
+	 * the archive still uses and commits an index with it in place of the block
+	 * it refilled
+	 */
+	private void writeBlock() throws IOException {
+		this.deflater.reset();
+		this.deflater.setInput(this.block.array(), 0, this.block.position());
+		this.deflater.finish();
+		int length = 0;
+		while(!this.deflater.finished()) {
+			if(length == this.compressed.length) {
+				byte[] bigger = new byte[this.compressed.length * 2];
+				System.arraycopy(this.compressed, 0, bigger, 0, length);
+				this.compressed = bigger;
+			}
+			length += this.deflater.deflate(this.compressed, length, this.compressed.length - length);
+		}
+		
+		long at = place(GameArchive.BLOCK_HEADER + length);
+		ByteBuffer header = ByteBuffer.allocate(GameArchive.BLOCK_HEADER);
+		header.putInt(this.blockGames).putInt(length).flip();
+		writeFully(header, at);
+		writeFully(ByteBuffer.wrap(this.compressed, 0, length), at + GameArchive.BLOCK_HEADER);
+		
+		if(this.replaced >= 0) {
+			this.index.removeLast();
+			this.replaced = -1;
+		}
+		this.index.add(at, length, this.blockGames);
+		this.block.clear();
+		this.blockGames = 0;
+		commit();
+	}
+	
+	/**
+	 * where a block of size bytes can go: straight after the blocks that stay,
+	 * after the block it replaces, or after the index, whichever is first to have
+	 * room before the next thing in use. What's left of a gap has to be empty or
+	 * big enough for a skip record.
+	 */
+	private long place(long size) {
+		int kept = this.replaced >= 0 ? this.replaced : this.index.blocks;
+		long[] candidates = {
+				kept == 0 ? GameArchive.HEADER : end(kept - 1),
+				this.replaced >= 0 ? end(this.replaced) : -1,
+				this.indexEnd};
+		for(long at : candidates) {
+			long limit = Long.MAX_VALUE;
+			if(this.replaced >= 0 && this.index.offsets[this.replaced] >= at) {
+				limit = this.index.offsets[this.replaced];
+			}
+			else if(this.indexStart < this.indexEnd && this.indexStart >= at) {
+				limit = this.indexStart;
+			}
+			if(at >= 0 && (at + size == limit || at + size + GameArchive.BLOCK_HEADER <= limit)) {
+				return at;
+			}
+		}
+		return this.indexEnd;
+	}
+	
+	/**
+	 * writes the index and footer after everything and forces them, which is what
+	 * makes the new blocks part of the archive. Then they're copied back to right
+	 * after the last block if they fit before the first copy, and the file is cut
+	 * there. Whatever's left between blocks is marked as skipped.
+	 */
+	private void commit() throws IOException {
+		long last = this.index.blocks == 0 ? GameArchive.HEADER : end(this.index.blocks - 1);
+		long at = Math.max(last, this.indexEnd);
+		int size = writeIndex(at);
+		this.channel.truncate(at + size);
+		this.channel.force(false);
+		this.indexStart = at;
+		this.indexEnd = at + size;
+		
+		if(last < at && last + size <= at) {
+			writeIndex(last);
+			this.channel.force(false);
+			this.channel.truncate(last + size);
+			this.channel.force(false);
+			this.indexStart = last;
+			this.indexEnd = last + size;
+		}
+		
+		markGaps();
+		this.channel.force(false);
+	}
+	
+	/**
+	 * writes the block index and footer at a position
+	 * 
+	 * @return the bytes written
+	 */
+	private int writeIndex(long at) throws IOException {
+		ByteBuffer tail = ByteBuffer.allocate(this.index.blocks * GameArchive.INDEX_ENTRY + GameArchive.FOOTER);
+		for(int i=0; i<this.index.blocks; i++) {
+			tail.putLong(this.index.offsets[i]).putInt(this.index.lengths[i]).putInt(this.index.counts[i]);
+		}
+		tail.putLong(at).putInt(this.index.blocks).putLong(this.index.games).putInt(GameArchive.MAGIC).flip();
+		writeFully(tail, at);
+		return tail.limit();
+	}
+	
+	/**
+	 * turns every gap before a block or the index into a skip record, so
+	 * walking the blocks steps over given up space instead of stopping at it
+	 */
+	private void markGaps() throws IOException {
+		long at = GameArchive.HEADER;
+		for(int i=0; i<=this.index.blocks; i++) {
+			long next = i < this.index.blocks ? this.index.offsets[i] : this.indexStart;
+			if(next - at >= GameArchive.BLOCK_HEADER) {
+				ByteBuffer skip = ByteBuffer.allocate(GameArchive.BLOCK_HEADER);
+				skip.putInt(GameArchive.SKIP).putInt((int) (next - at - GameArchive.BLOCK_HEADER)).flip();
+				writeFully(skip, at);
+			}
+			if(i < this.index.blocks) {
+				at = end(i);
+			}
+		}
+	}
+	
+	/**
+	 * where a block ends
+	 */
+	private long end(int block) {
+		return this.index.offsets[block] + GameArchive.BLOCK_HEADER + this.index.lengths[block];
+	}
+	
+	private void writeFully(ByteBuffer buffer, long at) throws IOException {
+		while(buffer.hasRemaining()) {
+			at += this.channel.write(buffer, at);
+		}
+	}
+	
+	/**
+	 * writes the last partial block and the block index, then closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			boolean reread = this.replaced >= 0 && this.blockGames == this.index.counts[this.replaced];
+			if(this.blockGames > 0 && !reread) {
+				writeBlock();
+			}
+			else if(this.indexStart == this.indexEnd) {
+				commit();
+			}
+		}
+		finally {
+			this.deflater.end();
+			this.channel.close();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import engine.Bitboard;
+
+/**
+ * Memory-mapped hash table from canonical position hash (Bitboard.canonicalHash)
+ * to game statistics. Slots are claimed and counters bumped with atomic
+ * operations directly on the mapped file, so many threads can add games at once
+ * and nothing but the mapping lives on the heap. The file is split into
+ * segments so tables bigger than a single 2GB mapping work.
+ * 
+ * Slot layout: key (8 bytes), games, wins, draws, score sum (4 bytes each).
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class PositionIndex implements Closeable {
+	
+	private static final int MAGIC = 0x52505849; // "RPXI"
+	private static final int VERSION = 1;
+	private static final int HEADER = 64;
+	private static final int SLOT = 24;
+	private static final int SEGMENT_BITS = 26;
+	
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] segments;
+	private final int bits;
+	private final long mask;
+	
+	/**
+	 * opens an index file, creating an empty one of 2^bits slots if it doesn't exist
+	 * 
+	 * @param path the index file
+	 * @param bits log2 of the slot count, only used when creating the file
+	 * @return the opened index
+	 * @throws IOException if the file can't be mapped or isn't an index
+	 */
+	public static PositionIndex open(Path path, int bits) throws IOException {
+		if(bits < 1 || bits > 40) {
+			throw new IllegalArgumentException("Index size must be between 2^1 and 2^40 slots.");
+		}
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+			header.order(ByteOrder.nativeOrder());
+			if(channel.size() == HEADER && header.getInt(0) == 0) {
+				header.putInt(0, MAGIC);
+				header.putInt(4, VERSION);
+				header.putInt(8, bits);
+			}
+			else if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException(path + " isn't a position index");
+			}
+			return new PositionIndex(channel, header, header.getInt(8), FileChannel.MapMode.READ_WRITE);
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * opens an existing index file for lookups only, the file is never written
+	 * to, so one that isn't a finished index is left as it is for the importer
+	 * 
+	 * @param path the index file
+	 * @return the opened index, add can't be called on it
+	 * @throws IOException if the file can't be mapped or isn't an index
+	 */
+	public static PositionIndex openReadOnly(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if(channel.size() < HEADER) {
+				throw new IOException(path + " isn't a position index");
+			}
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+			header.order(ByteOrder.nativeOrder());
+			if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException(path + " isn't a position index");
+			}
+			return new PositionIndex(channel, header, header.getInt(8), FileChannel.MapMode.READ_ONLY);
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Constructor, maps every segment of the table
+	 */
+	private PositionIndex(FileChannel channel, MappedByteBuffer header, int bits, FileChannel.MapMode mode) throws IOException {
+		if(bits < 1 || bits > 40) {
+			throw new IOException("Bad index size 2^" + bits);
+		}
+		this.channel = channel;
+		this.header = header;
+		this.bits = bits;
+		this.mask = (1L << bits) - 1;
+		
+		int segmentBits = Math.min(bits, SEGMENT_BITS);
+		int count = 1 << (bits - segmentBits);
+		long segmentBytes = (long) SLOT << segmentBits;
+		this.segments = new MappedByteBuffer[count];
+		for(int i=0; i<count; i++) {
+			this.segments[i] = channel.map(mode, HEADER + i * segmentBytes, segmentBytes);
+			this.segments[i].order(ByteOrder.nativeOrder());
+		}
+	}
+	
+	/**
+	 * adds one game's result for a position, safe to call from many threads at once
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param score final disc difference for the side to move
+	 */
+	public void add(long player, long opponent, int score) {
+		long key = key(player, opponent);
+		for(long i=0; i<=this.mask; i++) {
+			long slot = (key + i) & this.mask;
+			MappedByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			long existing = (long) LONGS.getVolatile(segment, offset);
+			if(existing == 0) {
+				existing = (long) LONGS.compareAndExchange(segment, offset, 0L, key);
+				if(existing == 0) {
+					existing = key;
+				}
+			}
+			if(existing == key) {
+				INTS.getAndAdd(segment, offset + 8, 1);
+				if(score > 0) {
+					INTS.getAndAdd(segment, offset + 12, 1);
+				}
+				else if(score == 0) {
+					INTS.getAndAdd(segment, offset + 16, 1);
+				}
+				INTS.getAndAdd(segment, offset + 20, score);
+				return;
+			}
+		}
+		throw new IllegalStateException("Position index is full");
+	}
+	
+	/**
+	 * looks a position up, any of its 8 symmetric versions gives the same result
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return the position's statistics, or null if no game reached it
+	 */
+	public PositionStats lookup(long player, long opponent) {
+		long key = key(player, opponent);
+		for(long i=0; i<=this.mask; i++) {
+			long slot = (key + i) & this.mask;
+			MappedByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			long existing = (long) LONGS.getVolatile(segment, offset);
+			if(existing == 0) {
+				return null;
+			}
+			if(existing == key) {
+				return new PositionStats((int) INTS.getVolatile(segment, offset + 8), (int) INTS.getVolatile(segment, offset + 12),
+						(int) INTS.getVolatile(segment, offset + 16), (int) INTS.getVolatile(segment, offset + 20));
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * getter for the table size
+	 * 
+	 * @return log2 of the number of slots
+	 */
+	public int getBits() {
+		return this.bits;
+	}
+	
+	/**
+	 * flushes every segment to disk
+	 */
+	public void force() {
+		this.header.force();
+		for(MappedByteBuffer segment : this.segments) {
+			segment.force();
+		}
+	}
+	
+	/**
+	 * flushes the table and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		force();
+		this.channel.close();
+	}
+	
+	/**
+	 * the slot key for a position, never 0 since 0 marks an empty slot
+	 */
+	private static long key(long player, long opponent) {
+		long key = Bitboard.canonicalHash(player, opponent);
+		return key == 0 ? 1 : key;
+	}
+	
+	private MappedByteBuffer segment(long slot) {
+		return this.segments[(int) (slot >>> SEGMENT_BITS)];
+	}
+	
+	private static int offset(long slot) {
+		return (int) (slot & ((1 << SEGMENT_BITS) - 1)) * SLOT;
+	}
+}
@@ -0,0 +1,76 @@
+package storage;
+
+/**
+ * Aggregated results of every game that went through a position, from the
+ * point of view of the side to move in that position.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class PositionStats {
+	
+	private final int games;
+	private final int wins;
+	private final int draws;
+	private final long scoreSum;
+	
+	/**
+	 * Constructor, just saves the passed in parameters into the appropriate fields
+	 * 
+	 * @param games number of games through the position
+	 * @param wins games the side to move went on to win
+	 * @param draws games that ended in a draw
+	 * @param scoreSum sum of the final disc differences
+	 */
+	public PositionStats(int games, int wins, int draws, long scoreSum) {
+		this.games = games;
+		this.wins = wins;
+		this.draws = draws;
+		this.scoreSum = scoreSum;
+	}
+	
+	/**
+	 * getter for the game count
+	 * 
+	 * @return number of games through the position
+	 */
+	public int getGames() {
+		return this.games;
+	}
+	
+	/**
+	 * getter for the win count
+	 * 
+	 * @return games the side to move went on to win
+	 */
+	public int getWins() {
+		return this.wins;
+	}
+	
+	/**
+	 * getter for the draw count
+	 * 
+	 * @return games that ended in a draw
+	 */
+	public int getDraws() {
+		return this.draws;
+	}
+	
+	/**
+	 * returns the average final disc difference
+	 * 
+	 * @return average final score for the side to move, 0 if there are no games
+	 */
+	public double getAverageScore() {
+		return this.games == 0 ? 0 : (double) this.scoreSum / this.games;
+	}
+	
+	/**
+	 * returns the fraction of games won, counting draws as half
+	 * 
+	 * @return win rate between 0 and 1
+	 */
+	public double getWinRate() {
+		return this.games == 0 ? 0 : (this.wins + this.draws / 2.0) / this.games;
+	}
+}
@@ -0,0 +1,328 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import engine.Bitboard;
+
+/**
+ * Memory-mapped set of unique positions with game statistics for each, for
+ * building datasets out of lots of self-play. Like PositionIndex the table
+ * lives in the mapped file, not on the heap, and is filled with atomic
+ * operations straight on the mapping so many threads can add positions at
+ * once without locking. Unlike PositionIndex it keeps the positions
+ * themselves, each in its canonical form (see Bitboard.canonicalSymmetry), so
+ * the 8 symmetric versions of a position are one entry and a hash collision
+ * can never merge two different positions.
+ * 
+ * A position is claimed in two steps: the key word goes from empty to CLAIMED
+ * by compare and swap, the position is written, then the real key is
+ * published. Anyone probing past a CLAIMED slot waits the few nanoseconds until
+ * it's published, so the same position added by two threads at once ends up in
+ * one slot. If the process dies with a slot CLAIMED, the next open finds the
+ * store wasn't closed and turns such slots into tombstones, which are skipped.
+ * 
+ * Slot layout: key (8 bytes), player, opponent (8 each), games, wins, draws (4
+ * each), 4 unused, score sum (8).
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class PositionStore implements Closeable {
+	
+	/**
+	 * receives each position in the store
+	 */
+	public interface Visitor {
+		
+		/**
+		 * called once for every stored position
+		 * 
+		 * @param player pieces of the side to move, canonical form
+		 * @param opponent pieces of the other side, canonical form
+		 * @param games number of games through the position
+		 * @param wins games the side to move went on to win
+		 * @param draws games that ended in a draw
+		 * @param scoreSum sum of the final disc differences
+		 */
+		void visit(long player, long opponent, int games, int wins, int draws, long scoreSum);
+	}
+	
+	private static final int MAGIC = 0x52504F53; // "RPOS"
+	private static final int VERSION = 1;
+	private static final int HEADER = 64;
+	private static final int SLOT = 48;
+	private static final int SEGMENT_BITS = 25;
+	
+	//header fields: magic, version, bits, open flag, then the position count
+	private static final int OPEN = 12;
+	private static final int COUNT = 16;
+	
+	//key words below FIRST_KEY (unsigned) mark a slot's state, every real key is at least FIRST_KEY
+	private static final long EMPTY = 0;
+	private static final long CLAIMED = 1;
+	private static final long TOMBSTONE = 2;
+	private static final long FIRST_KEY = 3;
+	
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] segments;
+	private final int bits;
+	private final long mask;
+	
+	/**
+	 * opens a store file, creating an empty one of 2^bits slots if it doesn't exist
+	 * 
+	 * @param path the store file
+	 * @param bits log2 of the slot count, only used when creating the file
+	 * @return the opened store
+	 * @throws IOException if the file can't be mapped or isn't a position store
+	 */
+	public static PositionStore open(Path path, int bits) throws IOException {
+		if(bits < 1 || bits > 40) {
+			throw new IllegalArgumentException("Store size must be between 2^1 and 2^40 slots.");
+		}
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+			header.order(ByteOrder.nativeOrder());
+			if(channel.size() == HEADER && header.getInt(0) == 0) {
+				header.putInt(0, MAGIC);
+				header.putInt(4, VERSION);
+				header.putInt(8, bits);
+			}
+			else if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException(path + " isn't a position store");
+			}
+			PositionStore store = new PositionStore(channel, header, header.getInt(8));
+			if(header.getInt(OPEN) != 0) {
+				store.repair();
+			}
+			header.putInt(OPEN, 1);
+			header.force();
+			return store;
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Constructor, maps every segment of the table
+	 */
+	private PositionStore(FileChannel channel, MappedByteBuffer header, int bits) throws IOException {
+		if(bits < 1 || bits > 40) {
+			throw new IOException("Bad store size 2^" + bits);
+		}
+		this.channel = channel;
+		this.header = header;
+		this.bits = bits;
+		this.mask = (1L << bits) - 1;
+		
+		int segmentBits = Math.min(bits, SEGMENT_BITS);
+		int count = 1 << (bits - segmentBits);
+		long segmentBytes = (long) SLOT << segmentBits;
+		this.segments = new MappedByteBuffer[count];
+		for(int i=0; i<count; i++) {
+			this.segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + i * segmentBytes, segmentBytes);
+			this.segments[i].order(ByteOrder.nativeOrder());
+		}
+	}
+	
+	/**
+	 * adds one game's result for a position, safe to call from many threads at once
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param score final disc difference for the side to move
+	 * @return true if the position (or a symmetric version of it) wasn't in the store yet
+	 * @throws IllegalStateException if the store is full
+	 */
+	public boolean add(long player, long opponent, int score) {
+		int symmetry = Bitboard.canonicalSymmetry(player, opponent);
+		player = Bitboard.transform(player, symmetry);
+		opponent = Bitboard.transform(opponent, symmetry);
+		long key = key(player, opponent);
+		
+		for(long i=0; i<=this.mask; i++) {
+			long slot = (key + i) & this.mask;
+			MappedByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			long existing = published(segment, offset);
+			boolean added = false;
+			if(existing == EMPTY) {
+				existing = (long) LONGS.compareAndExchange(segment, offset, EMPTY, CLAIMED);
+				if(existing == EMPTY) {
+					LONGS.set(segment, offset + 8, player);
+					LONGS.set(segment, offset + 16, opponent);
+					LONGS.setVolatile(segment, offset, key);
+					LONGS.getAndAdd(this.header, COUNT, 1L);
+					existing = key;
+					added = true;
+				}
+				else {
+					existing = published(segment, offset);
+				}
+			}
+			if(existing == key && (added || matches(segment, offset, player, opponent))) {
+				INTS.getAndAdd(segment, offset + 24, 1);
+				if(score > 0) {
+					INTS.getAndAdd(segment, offset + 28, 1);
+				}
+				else if(score == 0) {
+					INTS.getAndAdd(segment, offset + 32, 1);
+				}
+				LONGS.getAndAdd(segment, offset + 40, (long) score);
+				return added;
+			}
+		}
+		throw new IllegalStateException("Position store is full");
+	}
+	
+	/**
+	 * looks a position up, any of its 8 symmetric versions gives the same result
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return the position's statistics, or null if it isn't in the store
+	 */
+	public PositionStats lookup(long player, long opponent) {
+		int symmetry = Bitboard.canonicalSymmetry(player, opponent);
+		player = Bitboard.transform(player, symmetry);
+		opponent = Bitboard.transform(opponent, symmetry);
+		long key = key(player, opponent);
+		
+		for(long i=0; i<=this.mask; i++) {
+			long slot = (key + i) & this.mask;
+			MappedByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			long existing = published(segment, offset);
+			if(existing == EMPTY) {
+				return null;
+			}
+			if(existing == key && matches(segment, offset, player, opponent)) {
+				return new PositionStats((int) INTS.getVolatile(segment, offset + 24), (int) INTS.getVolatile(segment, offset + 28),
+						(int) INTS.getVolatile(segment, offset + 32), (long) LONGS.getVolatile(segment, offset + 40));
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * calls the visitor for every position in the store, in table order. Positions
+	 * added while it runs may or may not be visited.
+	 * 
+	 * @param visitor receives each position
+	 */
+	public void forEach(Visitor visitor) {
+		for(long slot=0; slot<=this.mask; slot++) {
+			MappedByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			if(Long.compareUnsigned((long) LONGS.getVolatile(segment, offset), FIRST_KEY) >= 0) {
+				visitor.visit((long) LONGS.get(segment, offset + 8), (long) LONGS.get(segment, offset + 16),
+						(int) INTS.getVolatile(segment, offset + 24), (int) INTS.getVolatile(segment, offset + 28),
+						(int) INTS.getVolatile(segment, offset + 32), (long) LONGS.getVolatile(segment, offset + 40));
+			}
+		}
+	}
+	
+	/**
+	 * getter for the number of positions
+	 * 
+	 * @return how many different positions have been added
+	 */
+	public long size() {
+		return (long) LONGS.getVolatile(this.header, COUNT);
+	}
+	
+	/**
+	 * getter for the table size
+	 * 
+	 * @return log2 of the number of slots
+	 */
+	public int getBits() {
+		return this.bits;
+	}
+	
+	/**
+	 * flushes every segment to disk
+	 */
+	public void force() {
+		for(MappedByteBuffer segment : this.segments) {
+			segment.force();
+		}
+		this.header.force();
+	}
+	
+	/**
+	 * flushes the table, marks the file as closed properly and closes it
+	 */
+	@Override
+	public void close() throws IOException {
+		force();
+		this.header.putInt(OPEN, 0);
+		this.header.force();
+		this.channel.close();
+	}
+	
+	/**
+	 * turns slots left CLAIMED by a process that died mid-add into tombstones.
+	 * They can't just be emptied, positions added after them may have probed
+	 * past them.
+	 */
+	private void repair() {
+		for(long slot=0; slot<=this.mask; slot++) {
+			MappedByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			if((long) LONGS.get(segment, offset) == CLAIMED) {
+				LONGS.set(segment, offset, TOMBSTONE);
+			}
+		}
+	}
+	
+	/**
+	 * reads a slot's key word, waiting out another thread's claim
+	 */
+	private static long published(MappedByteBuffer segment, int offset) {
+		long existing = (long) LONGS.getVolatile(segment, offset);
+		while(existing == CLAIMED) {
+			Thread.onSpinWait();
+			existing = (long) LONGS.getVolatile(segment, offset);
+		}
+		return existing;
+	}
+	
+	/**
+	 * whether a published slot holds the position, not just one with the same key
+	 */
+	private static boolean matches(MappedByteBuffer segment, int offset, long player, long opponent) {
+		return (long) LONGS.get(segment, offset + 8) == player && (long) LONGS.get(segment, offset + 16) == opponent;
+	}
+	
+	/**
+	 * the slot key for a canonical position, never one of the slot states
+	 */
+	private static long key(long player, long opponent) {
+		long key = Bitboard.hash(player, opponent);
+		return Long.compareUnsigned(key, FIRST_KEY) < 0 ? key + FIRST_KEY : key;
+	}
+	
+	private MappedByteBuffer segment(long slot) {
+		return this.segments[(int) (slot >>> SEGMENT_BITS)];
+	}
+	
+	private static int offset(long slot) {
+		return (int) (slot & ((1 << SEGMENT_BITS) - 1)) * SLOT;
+	}
+}
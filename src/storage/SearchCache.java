@@ -0,0 +1,268 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import engine.Bitboard;
+import engine.ResultCache;
+import engine.TranspositionTable;
+
+/**
+ * Persistent cache of expensive search results (deep searches and exact endgame
+ * solves) kept in a fixed size, memory-mapped, hash-addressed file so later runs
+ * and other engine processes can reuse them. Pages are only read in as slots are
+ * touched. Stores only write to the mapping and a background thread forces the
+ * dirty pages out in batches, so the search never waits on the disk.
+ * 
+ * Every slot carries a checksum over its contents. A slot torn by a crash
+ * mid-write, or otherwise damaged, fails the check and reads as empty, and a
+ * file whose header doesn't check out has its slots zeroed in place and is
+ * started over. A file in use is never shrunk, since another process may have
+ * it mapped, so an existing cache keeps the size it was made with.
+ * 
+ * Depth limited scores are only as good as the evaluation and pruning that
+ * produced them, so each slot's checksum also covers the fingerprint of the
+ * search that stored it (see Search.fingerprint). A slot stored by a search with
+ * different weights or ProbCut parameters fails the check and reads as empty,
+ * and gets overwritten like any other empty slot. Processes with different
+ * searches can share a file without ever seeing each other's scores.
+ * 
+ * Slot layout: player, opponent, packed TranspositionTable entry, checksum (8 bytes each).
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class SearchCache implements ResultCache, Closeable {
+	
+	private static final int MAGIC = 0x52534343; // "RSCC"
+	private static final int VERSION = 3;
+	private static final int HEADER = 64;
+	private static final int SLOT = 32;
+	private static final long SALT = 0x5DEECE66DL;
+	private static final long FLUSH_MILLIS = 500;
+	
+	private final FileChannel channel;
+	private final MappedByteBuffer slots;
+	private final int mask;
+	private final long fingerprint;
+	private final Thread flusher;
+	
+	private volatile boolean dirty;
+	private volatile boolean closed;
+	
+	/**
+	 * opens a cache file, creating it with 2^bits slots if it doesn't exist or
+	 * wiping it if its header is damaged or from a different version. A valid
+	 * file keeps its own size whatever bits asks for.
+	 * 
+	 * @param path the cache file
+	 * @param bits log2 of the number of slots for a new or wiped file
+	 * @param fingerprint Search.fingerprint of the search that will use the cache
+	 * @return the opened cache
+	 * @throws IOException if the file can't be opened or mapped
+	 */
+	public static SearchCache open(Path path, int bits, long fingerprint) throws IOException {
+		if(bits < 1 || bits > 25) {
+			throw new IllegalArgumentException("Cache size must be between 2^1 and 2^25 slots.");
+		}
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			return new SearchCache(channel, bits, fingerprint);
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Constructor, checks the header and maps the slots
+	 */
+	private SearchCache(FileChannel channel, int bits, long fingerprint) throws IOException {
+		this.channel = channel;
+		this.fingerprint = fingerprint;
+		
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		int fileBits = header.getInt(8);
+		boolean valid = header.getInt(0) == MAGIC
+				&& header.getInt(4) == VERSION
+				&& fileBits >= 1 && fileBits <= 25
+				&& header.getLong(16) == headerCheck(fileBits)
+				&& channel.size() >= HEADER + ((long) SLOT << fileBits);
+		if(valid) {
+			bits = fileBits;
+		}
+		else {
+			//anything we can't vouch for is thrown away rather than trusted, in
+			//place, so a process that still has the file mapped never loses pages
+			header.putLong(16, 0);
+			header.force();
+			wipe(channel, Math.max(channel.size() - HEADER, (long) SLOT << bits));
+		}
+		this.mask = (1 << bits) - 1;
+		
+		this.slots = channel.map(FileChannel.MapMode.READ_WRITE, HEADER, (long) SLOT << bits);
+		this.slots.order(ByteOrder.LITTLE_ENDIAN);
+		
+		if(!valid) {
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, bits);
+			header.putLong(16, headerCheck(bits));
+			header.force();
+		}
+		
+		this.flusher = new Thread(this::flushLoop, "search-cache-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+	
+	/**
+	 * zeroes every slot of the file, growing it to at least the given size but
+	 * never shrinking it
+	 */
+	private static void wipe(FileChannel channel, long bytes) throws IOException {
+		ByteBuffer zeros = ByteBuffer.allocate(1 << 16);
+		for(long position = HEADER; position < HEADER + bytes; position += zeros.capacity()) {
+			zeros.clear();
+			zeros.limit((int) Math.min(zeros.capacity(), HEADER + bytes - position));
+			while(zeros.hasRemaining()) {
+				channel.write(zeros, position + zeros.position());
+			}
+		}
+		channel.force(false);
+	}
+	
+	/**
+	 * looks a position up
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @return the packed TranspositionTable entry, or 0 if the position isn't cached
+	 */
+	@Override
+	public long probe(long player, long opponent) {
+		int offset = ((int) Bitboard.hash(player, opponent) & this.mask) * SLOT;
+		long p = this.slots.getLong(offset);
+		long o = this.slots.getLong(offset + 8);
+		long data = this.slots.getLong(offset + 16);
+		long check = this.slots.getLong(offset + 24);
+		if(p != player || o != opponent || check != slotCheck(p, o, data, this.fingerprint)) {
+			return 0;
+		}
+		return data;
+	}
+	
+	/**
+	 * saves a result into the mapped slots. This only touches memory, the
+	 * background thread takes care of getting dirty pages onto the disk.
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param entry packed TranspositionTable entry
+	 */
+	@Override
+	public void store(long player, long opponent, long entry) {
+		if(this.closed) {
+			return;
+		}
+		write(player, opponent, entry);
+		this.dirty = true;
+	}
+	
+	/**
+	 * flushes the cache, stops the background thread and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			this.closed = true;
+			notifyAll();
+		}
+		try {
+			this.flusher.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.channel.close();
+	}
+	
+	/**
+	 * background thread, forces the slots written since the last pass to disk
+	 * every FLUSH_MILLIS so write-back happens in batches off the search thread
+	 */
+	private void flushLoop() {
+		while(true) {
+			boolean last;
+			synchronized(this) {
+				if(!this.closed) {
+					try {
+						wait(FLUSH_MILLIS);
+					}
+					catch(InterruptedException e) {
+						this.closed = true;
+					}
+				}
+				last = this.closed;
+			}
+			
+			if(this.dirty) {
+				this.dirty = false;
+				this.slots.force();
+			}
+			if(last) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * writes one slot, keeping whatever is there if it took more work.
+	 * Two threads writing the same slot at once can leave it torn, which just
+	 * fails its checksum and reads as empty.
+	 */
+	private void write(long player, long opponent, long entry) {
+		int offset = ((int) Bitboard.hash(player, opponent) & this.mask) * SLOT;
+		long p = this.slots.getLong(offset);
+		long o = this.slots.getLong(offset + 8);
+		long data = this.slots.getLong(offset + 16);
+		if(this.slots.getLong(offset + 24) == slotCheck(p, o, data, this.fingerprint) && work(p, o, data) > work(player, opponent, entry)) {
+			return;
+		}
+		this.slots.putLong(offset, player);
+		this.slots.putLong(offset + 8, opponent);
+		this.slots.putLong(offset + 16, entry);
+		this.slots.putLong(offset + 24, slotCheck(player, opponent, entry, this.fingerprint));
+	}
+	
+	/**
+	 * how much searching an entry stands for, its depth but no more than
+	 * the empty squares left since an exact solve is stored as depth 64
+	 */
+	private static int work(long player, long opponent, long entry) {
+		return Math.min(TranspositionTable.depth(entry), Bitboard.empties(player, opponent));
+	}
+	
+	/**
+	 * checksum of a slot's contents and the fingerprint of the search storing
+	 * it, never 0 for an all zero slot
+	 */
+	private static long slotCheck(long player, long opponent, long entry, long fingerprint) {
+		return Bitboard.hash(player ^ SALT ^ fingerprint, opponent ^ Long.rotateLeft(entry, 23)) ^ entry;
+	}
+	
+	/**
+	 * checksum of the header fields
+	 */
+	private static long headerCheck(int bits) {
+		return Bitboard.hash(((long) MAGIC << 32) | VERSION, bits ^ SALT);
+	}
+}
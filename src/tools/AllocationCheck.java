@@ -0,0 +1,136 @@
+package tools;
+
+import java.lang.management.ManagementFactory;
+
+import controller.ReversiController;
+import engine.Bitboard;
+import engine.Search;
+import model.IllegalMoveException;
+import model.ReversiModel;
+
+/**
+ * Regression check for garbage in the game loop. Plays games through
+ * ReversiController the way the view does (legal moves, human turn, legal
+ * moves, computer turn) with random human moves, and counts the bytes the
+ * thread allocates during the moves with the JVM's per thread allocation
+ * counter. Setting up each game is left out, it's the moves that run
+ * thousands of times when lots of games share a JVM. After a few games to
+ * warm up, allocating fails the check with exit code 1, so it can be run as
+ * part of a build. A few stray bytes are let through (the JIT recompiling
+ * something now and then can allocate), anything made on every move isn't.
+ * 
+ * Usage: AllocationCheck [--games n] [--warmup n] [--seed n]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class AllocationCheck {
+	
+	//more than this on average fails the check, a single object made every move is at least 16
+	private static final double BYTES_PER_MOVE = 1.0;
+	
+	private final com.sun.management.ThreadMXBean threads;
+	private final long thread = Thread.currentThread().getId();
+	private final Search search = ReversiController.createSearch();
+	private long seed;
+	
+	/**
+	 * Constructor, checks the JVM can count allocations
+	 * 
+	 * @param seed seed for the human's random moves
+	 */
+	public AllocationCheck(long seed) {
+		if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			throw new UnsupportedOperationException("This JVM can't count allocated bytes per thread");
+		}
+		this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		this.threads.setThreadAllocatedMemoryEnabled(true);
+		this.seed = seed | 1;
+	}
+	
+	/**
+	 * plays one game, the controller's search carries over between games like
+	 * it does in the view
+	 * 
+	 * @return bytes allocated during the game's moves, and the number of moves
+	 */
+	private long[] playGame() throws IllegalMoveException {
+		ReversiModel model = new ReversiModel();
+		ReversiController controller = new ReversiController(model);
+		controller.setSearch(this.search);
+		char[][] board = model.getBoard().getBoard();
+		long moves = 0;
+		
+		long before = this.threads.getThreadAllocatedBytes(this.thread);
+		while(true) {
+			controller.calculateLegal();
+			if(!controller.hasLegal(true) && !controller.hasLegal(false)) {
+				break;
+			}
+			if(controller.hasLegal(true)) {
+				int square = randomMove(Bitboard.legalMoves(Bitboard.fromBoard(board, 'W'), Bitboard.fromBoard(board, 'B')));
+				controller.humanTurn(square / 8, square % 8);
+				moves++;
+			}
+			controller.calculateLegal();
+			if(controller.hasLegal(false)) {
+				controller.computerTurn();
+				moves++;
+			}
+		}
+		long allocated = this.threads.getThreadAllocatedBytes(this.thread) - before;
+		return new long[] {allocated, moves};
+	}
+	
+	/**
+	 * picks one of the moves at random
+	 */
+	private int randomMove(long moves) {
+		this.seed ^= this.seed << 13;
+		this.seed ^= this.seed >>> 7;
+		this.seed ^= this.seed << 17;
+		for(int skip = (int) ((this.seed >>> 1) % Long.bitCount(moves)); skip > 0; skip--) {
+			moves &= moves - 1;
+		}
+		return Long.numberOfTrailingZeros(moves);
+	}
+	
+	/**
+	 * Runs the check
+	 * 
+	 * @param args options
+	 * @throws IllegalMoveException never, the human only plays legal moves
+	 */
+	public static void main(String[] args) throws IllegalMoveException {
+		int games = 20;
+		int warmUp = 5;
+		long seed = 1;
+		for(int i=0; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--games": games = Integer.parseInt(args[i+1]); break;
+				case "--warmup": warmUp = Integer.parseInt(args[i+1]); break;
+				case "--seed": seed = Long.parseLong(args[i+1]); break;
+				default:
+					System.err.println("Usage: AllocationCheck [--games n] [--warmup n] [--seed n]");
+					System.exit(1);
+			}
+		}
+		
+		AllocationCheck check = new AllocationCheck(seed);
+		for(int i=0; i<warmUp; i++) {
+			check.playGame();
+		}
+		long allocated = 0;
+		long moves = 0;
+		for(int i=0; i<games; i++) {
+			long[] game = check.playGame();
+			allocated += game[0];
+			moves += game[1];
+		}
+		System.out.printf("%d games, %d moves, %d bytes allocated (%.1f a move)%n", games, moves, allocated, (double) allocated / moves);
+		if(allocated > BYTES_PER_MOVE * moves) {
+			System.out.println("FAILED: the game loop allocates");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import engine.Bitboard;
+import engine.GameRecord;
+import storage.ArchivedGame;
+import storage.GameArchiveReader;
+import storage.GameArchiveWriter;
+
+/**
+ * Command line access to game archives.
+ * 
+ * "import" adds GameRecord files (e.g. self-play from net.Coordinator) to an
+ * archive. "replay" plays every archived game back through the move engine,
+ * checking each move is legal, with blocks shared out across threads, and
+ * reports the results and how fast it went. "show" prints one game.
+ * 
+ * Usage: ArchiveTool import archive.rga games.bin... [--first name] [--second name]
+ *        ArchiveTool replay archive.rga [--threads n]
+ *        ArchiveTool show archive.rga game
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class ArchiveTool {
+	
+	/**
+	 * command line entry point
+	 * 
+	 * @param args the command and its arguments
+	 * @throws Exception if an archive can't be read or written
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length >= 3 && args[0].equals("import")) {
+			importGames(args);
+		}
+		else if(args.length >= 2 && args[0].equals("replay")) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			if(args.length >= 4 && args[2].equals("--threads")) {
+				threads = Integer.parseInt(args[3]);
+			}
+			replay(args[1], threads);
+		}
+		else if(args.length == 3 && args[0].equals("show")) {
+			show(args[1], Long.parseLong(args[2]));
+		}
+		else {
+			System.err.println("Usage: ArchiveTool import archive.rga games.bin... [--first name] [--second name]");
+			System.err.println("       ArchiveTool replay archive.rga [--threads n]");
+			System.err.println("       ArchiveTool show archive.rga game");
+			System.exit(1);
+		}
+	}
+	
+	private static void importGames(String[] args) throws IOException {
+		String first = "first";
+		String second = "second";
+		List<String> inputs = new ArrayList<String>();
+		for(int i=2; i<args.length; i++) {
+			if(args[i].equals("--first") && i+1 < args.length) {
+				first = args[++i];
+			}
+			else if(args[i].equals("--second") && i+1 < args.length) {
+				second = args[++i];
+			}
+			else {
+				inputs.add(args[i]);
+			}
+		}
+		
+		long count = 0;
+		try(GameArchiveWriter archive = GameArchiveWriter.open(Paths.get(args[1]))) {
+			for(String input : inputs) {
+				long date = Files.getLastModifiedTime(Paths.get(input)).toMillis();
+				try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(input)), 1 << 16))) {
+					while(true) {
+						GameRecord record;
+						try {
+							record = GameRecord.read(in);
+						}
+						catch(EOFException e) {
+							break;
+						}
+						archive.add(new ArchivedGame(first, second, date, record));
+						count++;
+					}
+				}
+			}
+			System.err.println("Added " + count + " games, " + archive.getGameCount() + " in the archive");
+		}
+	}
+	
+	private static void replay(String path, int threads) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		long[] totals = new long[4];
+		try(GameArchiveReader archive = GameArchiveReader.open(Paths.get(path))) {
+			AtomicInteger nextBlock = new AtomicInteger();
+			List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+			for(int t=0; t<threads; t++) {
+				tasks.add(() -> {
+					//games, first mover wins, draws, moves
+					long[] counts = new long[4];
+					int block;
+					while((block = nextBlock.getAndIncrement()) < archive.getBlockCount()) {
+						for(ArchivedGame game : archive.readBlock(block)) {
+							GameRecord record = game.getRecord();
+							record.replay((player, opponent, move, score) -> {
+							});
+							counts[0]++;
+							counts[1] += record.getScore() > 0 ? 1 : 0;
+							counts[2] += record.getScore() == 0 ? 1 : 0;
+							counts[3] += record.getMoves().length;
+						}
+					}
+					return counts;
+				});
+			}
+			
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				for(Future<long[]> f : pool.invokeAll(tasks)) {
+					long[] counts = f.get();
+					for(int i=0; i<totals.length; i++) {
+						totals[i] += counts[i];
+					}
+				}
+			}
+			catch(ExecutionException e) {
+				throw new IOException("Replay failed: " + e.getCause().getMessage(), e.getCause());
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+		
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Replayed %d games (%d moves) in %.2fs, %.0f games/minute%n", totals[0], totals[3], seconds, totals[0] * 60 / seconds);
+		System.out.printf("First mover won %d, drew %d, lost %d%n", totals[1], totals[2], totals[0] - totals[1] - totals[2]);
+	}
+	
+	private static void show(String path, long number) throws IOException {
+		try(GameArchiveReader archive = GameArchiveReader.open(Paths.get(path))) {
+			ArchivedGame game = archive.get(number);
+			GameRecord record = game.getRecord();
+			StringBuilder moves = new StringBuilder();
+			for(byte m : record.getMoves()) {
+				moves.append(moves.length() == 0 ? "" : " ").append(Bitboard.squareName(m));
+			}
+			System.out.println(game.getFirst() + " vs " + game.getSecond() + ", " + new Date(game.getDate()) + ", " + record.getScore());
+			System.out.println(moves);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import engine.Bitboard;
+import engine.Evaluator;
+import engine.Position;
+import engine.ProbCut;
+import engine.Search;
+import engine.SearchLimits;
+import engine.SearchResult;
+import engine.TranspositionTable;
+import model.IllegalUserInputException;
+
+/**
+ * Command line batch mode. Reads positions one per line (see Position for the
+ * format), searches them in parallel on a pool of worker threads and writes
+ * the position, best move, score and depth for each, in input order. Only a
+ * bounded window of positions is in flight at once, so the input is streamed
+ * rather than read into memory.
+ * 
+ * Usage: BatchSolver input output [--threads n] [--depth d] [--nodes n]
+ *        [--millis ms] [--exact empties] [--hash bits] [--probcut file] [--weights file]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class BatchSolver {
+	
+	private final int threads;
+	private final SearchLimits limits;
+	private final int hashBits;
+	private Evaluator evaluator = new Evaluator();
+	private final ThreadLocal<Search> searches;
+	private ProbCut probCut;
+	
+	/**
+	 * Constructor, sets up the per-thread searches
+	 * 
+	 * @param threads number of worker threads
+	 * @param limits limits for each position's search
+	 * @param hashBits log2 of the transposition table size for each thread
+	 */
+	public BatchSolver(int threads, SearchLimits limits, int hashBits) {
+		this.threads = threads;
+		this.limits = limits;
+		this.hashBits = hashBits;
+		this.searches = ThreadLocal.withInitial(() -> {
+			Search search = new Search(this.evaluator, new TranspositionTable(this.hashBits));
+			search.setProbCut(this.probCut);
+			return search;
+		});
+	}
+	
+	/**
+	 * sets ProbCut parameters for every position's search, must be called before run
+	 * 
+	 * @param probCut the parameters, or null for none
+	 */
+	public void setProbCut(ProbCut probCut) {
+		this.probCut = probCut;
+	}
+	
+	/**
+	 * sets the evaluator every position's search uses, must be called before run
+	 * 
+	 * @param evaluator the evaluator
+	 */
+	public void setEvaluator(Evaluator evaluator) {
+		this.evaluator = evaluator;
+	}
+	
+	/**
+	 * solves every position read from in and writes the results to out
+	 * 
+	 * @param in reader of position lines
+	 * @param out writer for result lines
+	 * @return number of positions solved
+	 * @throws IOException if reading or writing fails
+	 */
+	public long run(BufferedReader in, BufferedWriter out) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+		ArrayDeque<Future<String>> window = new ArrayDeque<Future<String>>();
+		int maxInFlight = this.threads * 64;
+		long count = 0;
+		
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.isEmpty() || line.charAt(0) == '#') {
+					continue;
+				}
+				final String position = line;
+				window.add(pool.submit(() -> solve(position)));
+				count++;
+				
+				//write out finished results from the front to keep the window bounded and in order
+				while(window.size() >= maxInFlight || (!window.isEmpty() && window.peek().isDone())) {
+					writeResult(window.poll(), out);
+				}
+			}
+			while(!window.isEmpty()) {
+				writeResult(window.poll(), out);
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		return count;
+	}
+	
+	/**
+	 * searches a single position line
+	 * 
+	 * @param line the position's text form
+	 * @return the result line
+	 */
+	String solve(String line) {
+		Position position;
+		try {
+			position = Position.parse(line);
+		}
+		catch(IllegalUserInputException e) {
+			return line + " error " + e.getMessage();
+		}
+		
+		SearchResult result = this.searches.get().search(position.getPlayer(), position.getOpponent(), this.limits);
+		return position + " " + Bitboard.squareName(result.getMove()) + " " + result.getScore() + " "
+				+ (result.isExact() ? "exact" : Integer.toString(result.getDepth()));
+	}
+	
+	/**
+	 * waits for a result and writes it out
+	 */
+	private static void writeResult(Future<String> result, BufferedWriter out) throws IOException {
+		try {
+			out.write(result.get());
+			out.newLine();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a result", e);
+		}
+		catch(ExecutionException e) {
+			throw new IOException("Position search failed", e.getCause());
+		}
+	}
+	
+	/**
+	 * command line entry point
+	 * 
+	 * @param args input file, output file, then any options
+	 * @throws IOException if reading or writing fails
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.err.println("Usage: BatchSolver input output [--threads n] [--depth d] [--nodes n] [--millis ms] [--exact empties] [--hash bits] [--probcut file] [--weights file]");
+			System.exit(1);
+		}
+		
+		int threads = Runtime.getRuntime().availableProcessors();
+		int depth = 8;
+		long nodes = 0;
+		long millis = 0;
+		int exact = 12;
+		int hashBits = 20;
+		ProbCut probCut = null;
+		Evaluator evaluator = new Evaluator();
+		for(int i=2; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--threads": threads = Integer.parseInt(args[i+1]); break;
+				case "--depth": depth = Integer.parseInt(args[i+1]); break;
+				case "--nodes": nodes = Long.parseLong(args[i+1]); break;
+				case "--millis": millis = Long.parseLong(args[i+1]); break;
+				case "--exact": exact = Integer.parseInt(args[i+1]); break;
+				case "--hash": hashBits = Integer.parseInt(args[i+1]); break;
+				case "--probcut": probCut = ProbCut.load(Paths.get(args[i+1])); break;
+				case "--weights": evaluator = Evaluator.load(Paths.get(args[i+1])); break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.exit(1);
+			}
+		}
+		
+		SearchLimits limits = new SearchLimits(depth, nodes, millis);
+		limits.setExactEmpties(exact);
+		BatchSolver solver = new BatchSolver(threads, limits, hashBits);
+		solver.setProbCut(probCut);
+		solver.setEvaluator(evaluator);
+		
+		long start = System.nanoTime();
+		long count;
+		try(BufferedReader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8);
+				BufferedWriter out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+			count = solver.run(in, out);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("Solved %d positions in %.1fs (%.0f/s) on %d threads%n", count, seconds, count / seconds, threads);
+	}
+}
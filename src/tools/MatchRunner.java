@@ -0,0 +1,367 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import engine.EngineSettings;
+import engine.Evaluator;
+import engine.GameRecord;
+import engine.Player;
+import engine.Position;
+import engine.Search;
+import engine.SearchLimits;
+import engine.SelfPlay;
+import engine.TranspositionTable;
+import model.IllegalUserInputException;
+
+/**
+ * Plays two engines against each other to measure the difference between them.
+ * Every opening is played twice with the engines swapping colours, and the pairs
+ * are played in parallel. Openings come from a file or are random openings kept
+ * only if a shallow search calls them roughly even.
+ * 
+ * After every pair the match is checked with a sequential probability ratio test
+ * between elo0 and elo1 (normal approximation on the pair scores, which accounts
+ * for the two games of a pair being correlated), and stops as soon as either
+ * hypothesis is accepted or the game limit is hit. Elo, its 95% error and the
+ * likelihood of superiority are reported from the first engine's point of view.
+ * 
+ * Usage: MatchRunner --first engine --second engine [--games max] [--threads n]
+ *        [--elo0 e] [--elo1 e] [--alpha a] [--beta b]
+ *        [--openings file | --random-plies k --balance score --seed s]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class MatchRunner {
+	
+	//pair results are counted in half points of the first engine's total over the two games, 0 to 4
+	private static final int PAIR_RESULTS = 5;
+	
+	//weak prior added to every pair result count, so a few one-sided pairs (or deterministic
+	//engines repeating the same result) don't look like zero variance and end the match at once
+	private static final double PRIOR_COUNT = 0.2;
+	
+	//depth of the search that checks random openings are even
+	private static final int BALANCE_DEPTH = 6;
+	
+	private final EngineSettings first;
+	private final EngineSettings second;
+	private final List<Position> openings;
+	private final int randomPlies;
+	private final int balance;
+	private final long seed;
+	private final int pairLimit;
+	private final double elo0;
+	private final double elo1;
+	private final double lowerBound;
+	private final double upperBound;
+	
+	private final AtomicInteger nextPair = new AtomicInteger();
+	private final long[] pairs = new long[PAIR_RESULTS];
+	private int wins;
+	private int losses;
+	private int draws;
+	private volatile String decision;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param first the engine being measured
+	 * @param second the engine it's measured against
+	 * @param openings starting positions, or null to generate balanced random ones
+	 * @param randomPlies length of generated openings
+	 * @param balance largest shallow search score a generated opening can have
+	 * @param seed seed for generated openings
+	 * @param games most games to play
+	 * @param elo0 Elo difference of the null hypothesis
+	 * @param elo1 Elo difference of the alternative hypothesis
+	 * @param alpha chance of accepting elo1 when elo0 is true
+	 * @param beta chance of accepting elo0 when elo1 is true
+	 */
+	public MatchRunner(EngineSettings first, EngineSettings second, List<Position> openings, int randomPlies, int balance,
+			long seed, int games, double elo0, double elo1, double alpha, double beta) {
+		this.first = first;
+		this.second = second;
+		this.openings = openings;
+		this.randomPlies = randomPlies;
+		this.balance = balance;
+		this.seed = seed;
+		this.pairLimit = (games + 1) / 2;
+		this.elo0 = elo0;
+		this.elo1 = elo1;
+		this.lowerBound = Math.log(beta / (1 - alpha));
+		this.upperBound = Math.log((1 - beta) / alpha);
+	}
+	
+	/**
+	 * plays the match until the test decides or the games run out
+	 * 
+	 * @param threads number of pairs played at once
+	 * @return the decision, "H1" if the first engine is at least elo1 better,
+	 * "H0" if it's at most elo0 better or "none" if the game limit was hit first
+	 * @throws IOException if an engine's data files can't be loaded
+	 */
+	public String run(int threads) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int t=0; t<threads; t++) {
+			tasks.add(() -> {
+				playPairs();
+				return null;
+			});
+		}
+		try {
+			for(Future<Void> f : pool.invokeAll(tasks)) {
+				f.get();
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Match interrupted", e);
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("Match game failed", e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		return this.decision == null ? "none" : this.decision;
+	}
+	
+	/**
+	 * one thread's share of the match, its own players take pairs until there are none left
+	 */
+	private void playPairs() throws IOException {
+		Player a = this.first.createPlayer();
+		Player b = this.second.createPlayer();
+		Search balanceSearch = this.openings == null ? new Search(new Evaluator(), new TranspositionTable(16)) : null;
+		
+		int pair;
+		while(this.decision == null && (pair = this.nextPair.getAndIncrement()) < this.pairLimit) {
+			Position start = this.openings != null ? this.openings.get(pair % this.openings.size()) : balancedOpening(pair, balanceSearch);
+			GameRecord aFirst = SelfPlay.play(a, b, start.getPlayer(), start.getOpponent());
+			GameRecord bFirst = SelfPlay.play(b, a, start.getPlayer(), start.getOpponent());
+			record(halfPoints(aFirst.getScore()), halfPoints(-bFirst.getScore()));
+		}
+	}
+	
+	/**
+	 * generates the opening for a pair, the same one every run for the same seed
+	 */
+	private Position balancedOpening(int pair, Search search) {
+		Random random = new Random(this.seed * 1000003 + pair);
+		SearchLimits limits = new SearchLimits(BALANCE_DEPTH, 0, 0);
+		while(true) {
+			Position p = SelfPlay.randomOpening(random, this.randomPlies);
+			if(p != null && Math.abs(search.search(p.getPlayer(), p.getOpponent(), limits).getScore()) <= this.balance) {
+				return p;
+			}
+		}
+	}
+	
+	/**
+	 * converts a final score to half points, 2 for a win, 1 for a draw
+	 */
+	private static int halfPoints(int score) {
+		return score > 0 ? 2 : score == 0 ? 1 : 0;
+	}
+	
+	/**
+	 * adds a pair's result and checks whether the test has decided
+	 * 
+	 * @param firstGame the first engine's half points with it moving first
+	 * @param secondGame the first engine's half points with it moving second
+	 */
+	private synchronized void record(int firstGame, int secondGame) {
+		this.pairs[firstGame + secondGame]++;
+		for(int points : new int[] {firstGame, secondGame}) {
+			if(points == 2) {
+				this.wins++;
+			}
+			else if(points == 1) {
+				this.draws++;
+			}
+			else {
+				this.losses++;
+			}
+		}
+		
+		double llr = llr();
+		if(this.decision == null) {
+			if(llr >= this.upperBound) {
+				this.decision = "H1";
+			}
+			else if(llr <= this.lowerBound) {
+				this.decision = "H0";
+			}
+		}
+		if((this.wins + this.losses + this.draws) % 20 == 0 || this.decision != null) {
+			System.err.println(report(llr));
+		}
+	}
+	
+	/**
+	 * count of a pair result for the statistics, see PRIOR_COUNT
+	 */
+	private double count(int points) {
+		return this.pairs[points] + PRIOR_COUNT;
+	}
+	
+	private double pairCount() {
+		double n = 0;
+		for(int i=0; i<PAIR_RESULTS; i++) {
+			n += count(i);
+		}
+		return n;
+	}
+	
+	/**
+	 * mean pair score as a fraction of the points available
+	 */
+	private double mean() {
+		double sum = 0;
+		for(int i=0; i<PAIR_RESULTS; i++) {
+			sum += count(i) * i / 4.0;
+		}
+		return sum / pairCount();
+	}
+	
+	/**
+	 * variance of a single pair's score
+	 */
+	private double variance() {
+		double mean = mean();
+		double sum = 0;
+		for(int i=0; i<PAIR_RESULTS; i++) {
+			double d = i / 4.0 - mean;
+			sum += count(i) * d * d;
+		}
+		return sum / pairCount();
+	}
+	
+	/**
+	 * log likelihood ratio of elo1 against elo0 for the pairs so far
+	 */
+	private double llr() {
+		double variance = variance();
+		double s0 = expectedScore(this.elo0);
+		double s1 = expectedScore(this.elo1);
+		return pairCount() * (s1 - s0) * (2 * mean() - s0 - s1) / (2 * variance);
+	}
+	
+	/**
+	 * one line summary of the match so far
+	 */
+	private String report(double llr) {
+		double mean = mean();
+		double error = Math.sqrt(variance() / pairCount());
+		double elo = elo(mean);
+		double margin = (elo(mean + 1.96 * error) - elo(mean - 1.96 * error)) / 2;
+		double los = normalCdf((mean - 0.5) / error);
+		return String.format("Games %d: +%d -%d =%d  Elo %.1f +/- %.1f  LOS %.1f%%  LLR %.2f [%.2f, %.2f]%s",
+				this.wins + this.losses + this.draws, this.wins, this.losses, this.draws, elo, margin, 100 * los,
+				llr, this.lowerBound, this.upperBound, this.decision == null ? "" : "  " + this.decision + " accepted");
+	}
+	
+	/**
+	 * expected score for an Elo difference
+	 */
+	private static double expectedScore(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+	
+	/**
+	 * Elo difference for an expected score, capped short of infinity for a clean sweep
+	 */
+	private static double elo(double score) {
+		double s = Math.max(1e-3, Math.min(1 - 1e-3, score));
+		return -400 * Math.log10(1 / s - 1);
+	}
+	
+	/**
+	 * standard normal cumulative distribution, Abramowitz and Stegun 7.1.26 for erf
+	 */
+	private static double normalCdf(double x) {
+		double z = Math.abs(x) / Math.sqrt(2);
+		double t = 1 / (1 + 0.3275911 * z);
+		double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-z * z);
+		return x >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+	}
+	
+	/**
+	 * command line entry point
+	 * 
+	 * @param args options
+	 * @throws Exception if the engines or openings can't be loaded
+	 */
+	public static void main(String[] args) throws Exception {
+		String first = null;
+		String second = null;
+		String openings = null;
+		int games = 20000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		double elo0 = 0;
+		double elo1 = 10;
+		double alpha = 0.05;
+		double beta = 0.05;
+		int randomPlies = 8;
+		int balance = 8;
+		long seed = 1;
+		for(int i=0; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--first": first = args[i+1]; break;
+				case "--second": second = args[i+1]; break;
+				case "--openings": openings = args[i+1]; break;
+				case "--games": games = Integer.parseInt(args[i+1]); break;
+				case "--threads": threads = Integer.parseInt(args[i+1]); break;
+				case "--elo0": elo0 = Double.parseDouble(args[i+1]); break;
+				case "--elo1": elo1 = Double.parseDouble(args[i+1]); break;
+				case "--alpha": alpha = Double.parseDouble(args[i+1]); break;
+				case "--beta": beta = Double.parseDouble(args[i+1]); break;
+				case "--random-plies": randomPlies = Integer.parseInt(args[i+1]); break;
+				case "--balance": balance = Integer.parseInt(args[i+1]); break;
+				case "--seed": seed = Long.parseLong(args[i+1]); break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.exit(1);
+			}
+		}
+		if(first == null || second == null) {
+			System.err.println("Usage: MatchRunner --first engine --second engine [--games max] [--threads n] [--elo0 e] [--elo1 e]"
+					+ " [--alpha a] [--beta b] [--openings file | --random-plies k --balance score --seed s]");
+			System.exit(1);
+		}
+		
+		List<Position> starts = null;
+		if(openings != null) {
+			starts = new ArrayList<Position>();
+			for(String line : Files.readAllLines(Paths.get(openings), StandardCharsets.UTF_8)) {
+				if(!line.isEmpty() && line.charAt(0) != '#') {
+					starts.add(Position.parse(line));
+				}
+			}
+			if(starts.isEmpty()) {
+				throw new IllegalUserInputException("No openings in " + openings);
+			}
+		}
+		
+		MatchRunner match = new MatchRunner(EngineSettings.parse(first), EngineSettings.parse(second), starts, randomPlies, balance,
+				seed, games, elo0, elo1, alpha, beta);
+		System.out.println(match.run(threads));
+	}
+}
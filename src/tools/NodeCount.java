@@ -0,0 +1,135 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import engine.Evaluator;
+import engine.MoveOrdering;
+import engine.Position;
+import engine.Search;
+import engine.SearchLimits;
+import engine.SearchResult;
+import engine.TranspositionTable;
+import model.IllegalUserInputException;
+
+/**
+ * Benchmark for move ordering. Searches each position in a file (see Position
+ * for the format) once with the plain order, the hash move and then square
+ * order, and once with MoveOrdering, each time with an empty transposition
+ * table, then prints the nodes and time both took. Fewer nodes for the same
+ * search is the whole point of ordering, the time shows whether it's worth
+ * what it costs. Solved positions have to get the same score both ways, a
+ * difference is reported as a mismatch.
+ * 
+ * Usage: NodeCount positions [--depth d] [--exact empties] [--count n] [--hash bits] [--weights file]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class NodeCount {
+	
+	/**
+	 * totals for one way of ordering
+	 */
+	private static final class Totals {
+		private long nodes;
+		private long nanos;
+		private final List<SearchResult> results = new ArrayList<>();
+	}
+	
+	/**
+	 * searches every position with a fresh table and adds up the nodes and time
+	 * 
+	 * @param positions the positions to search
+	 * @param limits limits for each search
+	 * @param evaluator evaluation for the searches
+	 * @param hashBits log2 of the transposition table size
+	 * @param ordered whether to use MoveOrdering
+	 * @return the totals
+	 */
+	private static Totals run(List<Position> positions, SearchLimits limits, Evaluator evaluator, int hashBits, boolean ordered) {
+		Totals totals = new Totals();
+		TranspositionTable table = new TranspositionTable(hashBits);
+		for(Position position : positions) {
+			table.clear();
+			Search search = new Search(evaluator, table);
+			search.setMoveOrdering(ordered ? new MoveOrdering() : null);
+			long start = System.nanoTime();
+			SearchResult result = search.search(position.getPlayer(), position.getOpponent(), limits);
+			totals.nanos += System.nanoTime() - start;
+			totals.nodes += result.getNodes();
+			totals.results.add(result);
+		}
+		return totals;
+	}
+	
+	/**
+	 * Runs the benchmark
+	 * 
+	 * @param args positions file and options
+	 * @throws IOException if the positions or weights can't be read
+	 * @throws IllegalUserInputException if a position can't be parsed
+	 */
+	public static void main(String[] args) throws IOException, IllegalUserInputException {
+		if(args.length < 1) {
+			System.err.println("Usage: NodeCount positions [--depth d] [--exact empties] [--count n] [--hash bits] [--weights file]");
+			System.exit(1);
+		}
+		
+		int depth = 8;
+		int exact = 12;
+		int count = Integer.MAX_VALUE;
+		int hashBits = 20;
+		Evaluator evaluator = new Evaluator();
+		for(int i=1; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--depth": depth = Integer.parseInt(args[i+1]); break;
+				case "--exact": exact = Integer.parseInt(args[i+1]); break;
+				case "--count": count = Integer.parseInt(args[i+1]); break;
+				case "--hash": hashBits = Integer.parseInt(args[i+1]); break;
+				case "--weights": evaluator = Evaluator.load(Paths.get(args[i+1])); break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.exit(1);
+			}
+		}
+		
+		List<Position> positions = new ArrayList<>();
+		for(String line : Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+			if(positions.size() == count) {
+				break;
+			}
+			if(!line.trim().isEmpty()) {
+				positions.add(Position.parse(line));
+			}
+		}
+		SearchLimits limits = new SearchLimits(depth, 0, 0);
+		limits.setExactEmpties(exact);
+		
+		//both ways get the JIT warmed up on a few positions first, so neither is timed in the interpreter
+		List<Position> warmUp = positions.subList(0, Math.min(20, positions.size()));
+		run(warmUp, limits, evaluator, hashBits, false);
+		run(warmUp, limits, evaluator, hashBits, true);
+		Totals plain = run(positions, limits, evaluator, hashBits, false);
+		Totals ordered = run(positions, limits, evaluator, hashBits, true);
+		
+		int mismatches = 0;
+		for(int i=0; i<positions.size(); i++) {
+			SearchResult a = plain.results.get(i);
+			SearchResult b = ordered.results.get(i);
+			if(a.isExact() && b.isExact() && a.getScore() != b.getScore()) {
+				mismatches++;
+				System.out.println("Mismatch: " + positions.get(i) + " " + a.getScore() + " vs " + b.getScore());
+			}
+		}
+		System.out.printf("%d positions, depth %d, exact from %d empties%n", positions.size(), depth, exact);
+		System.out.printf("plain order:   %,14d nodes  %8.2fs%n", plain.nodes, plain.nanos / 1e9);
+		System.out.printf("move ordering: %,14d nodes  %8.2fs%n", ordered.nodes, ordered.nanos / 1e9);
+		System.out.printf("%.2fx fewer nodes, %.2fx faster%s%n", (double) plain.nodes / ordered.nodes,
+				(double) plain.nanos / ordered.nanos, mismatches == 0 ? "" : ", " + mismatches + " MISMATCHES");
+	}
+}
@@ -0,0 +1,167 @@
+package tools;
+
+import engine.BatchMoveGenerator;
+import engine.Bitboard;
+
+/**
+ * Counts the positions reached by every sequence of moves from the start
+ * position, a check on move generation that also makes a handy benchmark. A
+ * pass counts as a move and a finished game counts as one position however deep
+ * it was meant to go. Counts are worked out both one position at a time with
+ * Bitboard and in batches with BatchMoveGenerator, and the two must agree.
+ * 
+ * Usage: Perft depth [--batch lanes]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class Perft {
+	
+	private final long[] players;
+	private final long[] opponents;
+	private final int[] squares;
+	private final long[] scratch;
+	private int lanes;
+	private long count;
+	
+	/**
+	 * Constructor, allocates the batch buffers
+	 * 
+	 * @param batch number of lanes in a batch, at least 64
+	 */
+	public Perft(int batch) {
+		this.players = new long[batch];
+		this.opponents = new long[batch];
+		this.squares = new int[batch];
+		this.scratch = new long[batch];
+	}
+	
+	/**
+	 * counts the positions depth moves on from a position one at a time
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param depth number of moves to look ahead
+	 * @return the number of positions reached
+	 */
+	public static long scalar(long player, long opponent, int depth) {
+		if(depth == 0) {
+			return 1;
+		}
+		long moves = Bitboard.legalMoves(player, opponent);
+		if(moves == 0) {
+			return Bitboard.legalMoves(opponent, player) == 0 ? 1 : scalar(opponent, player, depth - 1);
+		}
+		if(depth == 1) {
+			return Long.bitCount(moves);
+		}
+		long total = 0;
+		while(moves != 0) {
+			int square = Long.numberOfTrailingZeros(moves);
+			moves &= moves - 1;
+			long flipped = Bitboard.flips(player, opponent, square);
+			total += scalar(opponent & ~flipped, player | flipped | (1L << square), depth - 1);
+		}
+		return total;
+	}
+	
+	/**
+	 * counts the positions depth moves on from a position, leaving the last two
+	 * moves of every line to batches
+	 * 
+	 * @param player pieces of the side to move
+	 * @param opponent pieces of the other side
+	 * @param depth number of moves to look ahead
+	 * @return the number of positions reached
+	 */
+	public long batched(long player, long opponent, int depth) {
+		if(depth < 2) {
+			return scalar(player, opponent, depth);
+		}
+		this.count = 0;
+		this.lanes = 0;
+		expand(player, opponent, depth);
+		flush();
+		return this.count;
+	}
+	
+	/**
+	 * walks the tree down to two moves from the end, where each move is queued up
+	 * as a lane of the next batch
+	 */
+	private void expand(long player, long opponent, int depth) {
+		long moves = Bitboard.legalMoves(player, opponent);
+		if(moves == 0) {
+			if(Bitboard.legalMoves(opponent, player) == 0) {
+				this.count++;
+			}
+			else if(depth == 2) {
+				queue(player, opponent, Bitboard.PASS);
+			}
+			else {
+				expand(opponent, player, depth - 1);
+			}
+			return;
+		}
+		while(moves != 0) {
+			int square = Long.numberOfTrailingZeros(moves);
+			moves &= moves - 1;
+			if(depth == 2) {
+				queue(player, opponent, square);
+			}
+			else {
+				long flipped = Bitboard.flips(player, opponent, square);
+				expand(opponent & ~flipped, player | flipped | (1L << square), depth - 1);
+			}
+		}
+	}
+	
+	private void queue(long player, long opponent, int square) {
+		this.players[this.lanes] = player;
+		this.opponents[this.lanes] = opponent;
+		this.squares[this.lanes] = square;
+		if(++this.lanes == this.players.length) {
+			flush();
+		}
+	}
+	
+	/**
+	 * plays every queued move and counts the replies, a position with no moves
+	 * (a pass or the end of the game) counting as one
+	 */
+	private void flush() {
+		BatchMoveGenerator.play(this.players, this.opponents, this.squares, this.scratch, this.lanes);
+		BatchMoveGenerator.legalMoves(this.players, this.opponents, this.scratch, this.lanes);
+		for(int i=0; i<this.lanes; i++) {
+			this.count += Math.max(1, Long.bitCount(this.scratch[i]));
+		}
+		this.lanes = 0;
+	}
+	
+	/**
+	 * command line entry point
+	 * 
+	 * @param args the depth, optionally followed by --batch lanes
+	 */
+	public static void main(String[] args) {
+		if(args.length != 1 && !(args.length == 3 && args[1].equals("--batch"))) {
+			System.err.println("Usage: Perft depth [--batch lanes]");
+			System.exit(1);
+		}
+		int depth = Integer.parseInt(args[0]);
+		Perft perft = new Perft(args.length == 3 ? Math.max(64, Integer.parseInt(args[2])) : 4096);
+		
+		for(int d=1; d<=depth; d++) {
+			long start = System.nanoTime();
+			long scalar = scalar(Bitboard.START_FIRST, Bitboard.START_SECOND, d);
+			long middle = System.nanoTime();
+			long batched = perft.batched(Bitboard.START_FIRST, Bitboard.START_SECOND, d);
+			long end = System.nanoTime();
+			System.out.printf("perft(%d) = %d  scalar %.3fs  batched %.3fs%s%n", d, scalar,
+					(middle - start) / 1e9, (end - middle) / 1e9, scalar == batched ? "" : "  MISMATCH " + batched);
+			if(scalar != batched) {
+				System.exit(2);
+			}
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import engine.Bitboard;
+import engine.Evaluator;
+import engine.GameRecord;
+import engine.Position;
+import engine.ProbCut;
+import engine.Search;
+import engine.SearchLimits;
+import engine.SearchPlayer;
+import engine.SelfPlay;
+import engine.TranspositionTable;
+
+/**
+ * Fits ProbCut parameters from self-play. Games are played from random
+ * openings, then each position is searched to every depth up to the maximum.
+ * Every search starts from an empty transposition table, otherwise a shallow
+ * search would pick up the deep scores earlier searches left behind and the
+ * fitted error would come out too small.
+ * For every phase bucket and (deep, shallow) depth pair, a least squares line
+ * predicting the deep score from the shallow one is fitted and written out
+ * with its standard error.
+ * 
+ * Usage: ProbCutCalibrator output [--games n] [--max-depth d] [--threads n] [--seed s]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class ProbCutCalibrator {
+	
+	//least squares sums per bucket, deep depth and shallow depth: n, x, y, xx, xy, yy
+	private final double[][][][] sums;
+	private final int maxDepth;
+	
+	/**
+	 * Constructor, sets up empty sums for every pair up to maxDepth
+	 * 
+	 * @param maxDepth the deepest depth to calibrate
+	 */
+	public ProbCutCalibrator(int maxDepth) {
+		this.maxDepth = Math.min(maxDepth, ProbCut.MAX_DEPTH);
+		this.sums = new double[ProbCut.BUCKETS][this.maxDepth + 1][this.maxDepth + 1][6];
+	}
+	
+	/**
+	 * the shallow depths paired with a deep depth, about half and a quarter of it
+	 * 
+	 * @param depth the deep depth
+	 * @return one or two shallow depths, shallowest last
+	 */
+	public static int[] shallowDepths(int depth) {
+		int half = Math.max(1, depth / 2 - 1);
+		int quarter = Math.max(1, depth / 4);
+		return quarter < half ? new int[] {half, quarter} : new int[] {half};
+	}
+	
+	/**
+	 * plays one game and adds the depth pairs of its positions to the sums
+	 * 
+	 * @param seed seed for the random opening
+	 */
+	void sample(long seed) {
+		Random random = new Random(seed);
+		Position opening = null;
+		while(opening == null) {
+			opening = SelfPlay.randomOpening(random, 6 + random.nextInt(10));
+		}
+		
+		Evaluator evaluator = new Evaluator();
+		SearchLimits playLimits = new SearchLimits(3, 0, 0);
+		playLimits.setExactEmpties(0);
+		SearchPlayer player = new SearchPlayer(new Search(evaluator, new TranspositionTable(16)), playLimits);
+		GameRecord game = SelfPlay.play(player, player, opening.getPlayer(), opening.getOpponent());
+		
+		TranspositionTable table = new TranspositionTable(20);
+		Search search = new Search(evaluator, table);
+		int[] scores = new int[this.maxDepth + 1];
+		double[][][][] local = new double[ProbCut.BUCKETS][this.maxDepth + 1][this.maxDepth + 1][6];
+		
+		game.replay((p, o, move, score) -> {
+			int empties = Bitboard.empties(p, o);
+			if(empties <= this.maxDepth || random.nextInt(3) != 0) {
+				return;
+			}
+			scores[0] = evaluator.evaluate(p, o);
+			for(int d=1; d<=this.maxDepth; d++) {
+				SearchLimits limits = new SearchLimits(d, 0, 0);
+				limits.setExactEmpties(0);
+				table.clear();
+				scores[d] = search.search(p, o, limits).getScore();
+			}
+			
+			int bucket = ProbCut.bucket(empties);
+			for(int d=ProbCut.MIN_DEPTH; d<=this.maxDepth; d++) {
+				for(int shallow : shallowDepths(d)) {
+					double x = scores[shallow];
+					double y = scores[d];
+					double[] s = local[bucket][d][shallow];
+					s[0]++;
+					s[1] += x;
+					s[2] += y;
+					s[3] += x * x;
+					s[4] += x * y;
+					s[5] += y * y;
+				}
+			}
+		});
+		
+		synchronized(this.sums) {
+			for(int b=0; b<ProbCut.BUCKETS; b++) {
+				for(int d=0; d<=this.maxDepth; d++) {
+					for(int s=0; s<=this.maxDepth; s++) {
+						for(int k=0; k<6; k++) {
+							this.sums[b][d][s][k] += local[b][d][s][k];
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * fits every pair with enough samples
+	 * 
+	 * @param minSamples fewest samples a pair needs to be fitted
+	 * @return the fitted parameters
+	 */
+	public ProbCut fit(int minSamples) {
+		ProbCut probCut = new ProbCut();
+		for(int b=0; b<ProbCut.BUCKETS; b++) {
+			for(int d=ProbCut.MIN_DEPTH; d<=this.maxDepth; d++) {
+				for(int shallow : shallowDepths(d)) {
+					double[] s = this.sums[b][d][shallow];
+					double n = s[0];
+					double varX = n * s[3] - s[1] * s[1];
+					if(n < minSamples || varX <= 0) {
+						continue;
+					}
+					double a = (n * s[4] - s[1] * s[2]) / varX;
+					double intercept = (s[2] - a * s[1]) / n;
+					
+					//residual sum of squares of y - (a x + intercept), expanded in terms of the sums
+					double rss = s[5] - 2 * a * s[4] - 2 * intercept * s[2] + a * a * s[3] + 2 * a * intercept * s[1] + intercept * intercept * n;
+					double sigma = Math.sqrt(Math.max(0, rss / Math.max(1, n - 2)));
+					if(a > 0) {
+						probCut.add(b, d, shallow, a, intercept, sigma);
+					}
+				}
+			}
+		}
+		return probCut;
+	}
+	
+	/**
+	 * command line entry point
+	 * 
+	 * @param args output file, then any options
+	 * @throws IOException if the output can't be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: ProbCutCalibrator output [--games n] [--max-depth d] [--threads n] [--seed s]");
+			System.exit(1);
+		}
+		
+		int games = 200;
+		int maxDepth = 8;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = 1;
+		for(int i=1; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--games": games = Integer.parseInt(args[i+1]); break;
+				case "--max-depth": maxDepth = Integer.parseInt(args[i+1]); break;
+				case "--threads": threads = Integer.parseInt(args[i+1]); break;
+				case "--seed": seed = Long.parseLong(args[i+1]); break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.exit(1);
+			}
+		}
+		
+		ProbCutCalibrator calibrator = new ProbCutCalibrator(maxDepth);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> work = new ArrayList<Future<?>>();
+		for(int g=0; g<games; g++) {
+			final long gameSeed = seed * 1000003L + g;
+			work.add(pool.submit(() -> calibrator.sample(gameSeed)));
+		}
+		try {
+			for(Future<?> f : work) {
+				f.get();
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Calibration game failed", e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		
+		calibrator.fit(30).save(Paths.get(args[0]));
+	}
+}
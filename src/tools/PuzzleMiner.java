@@ -0,0 +1,475 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import controller.ReversiController;
+import engine.Bitboard;
+import engine.Evaluator;
+import engine.GameRecord;
+import engine.Position;
+import engine.Search;
+import engine.SearchLimits;
+import engine.TranspositionTable;
+import model.ReversiBoard;
+import model.ReversiModel;
+import storage.ArchivedGame;
+import storage.GameArchiveReader;
+import storage.PositionStore;
+
+/**
+ * Finds endgame puzzles in played games: positions where exactly one move gets
+ * the best final result and every other move does at least margin discs worse.
+ * 
+ * Positions are read from GameRecord files (self-play from net.Coordinator) or
+ * game archives (.rga), and every position in the chosen range of empty squares
+ * is a candidate, each only once however many games reach it. The candidates
+ * seen so far are kept in a storage.PositionStore in a temporary file, not on
+ * the heap, so the input can be bigger than memory. Candidates are
+ * split up across cores with fork-join and go through cheap filters first: at
+ * least two legal moves, then a shallow search of every move, which throws out
+ * positions where two or more other moves look about as good as the best (one close
+ * rival is let through, shallow searches often can't tell the top two apart). What's left
+ * is solved to the end, the alternatives in order of how good they looked so a
+ * fake puzzle is usually caught on the first one. The answer of every puzzle found
+ * is checked against ReversiController's own move rules before it's written.
+ * 
+ * The puzzle file is a 4 byte magic number then 19 bytes per puzzle: the pieces of
+ * the side to move and of the other side (longs), the answer square, its exact
+ * final score and the best score any other move gets.
+ * 
+ * Usage: PuzzleMiner puzzles.bin games... [--threads n] [--min-empties e] [--max-empties e]
+ *        [--margin discs] [--shallow depth] [--shallow-margin discs] [--weights file] [--seen-bits b]
+ *        PuzzleMiner list puzzles.bin
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class PuzzleMiner {
+	
+	/** "RPZL", the start of a puzzle file */
+	public static final int MAGIC = 0x52505A4C;
+	
+	//candidates mined at a time, so the input can be bigger than memory
+	private static final int CHUNK = 1 << 18;
+	
+	//positions a fork-join task works through itself rather than splitting further
+	private static final int LEAF_TASK = 16;
+	
+	private final int minEmpties;
+	private final int maxEmpties;
+	private final int margin;
+	private final int shallowMargin;
+	private final SearchLimits shallowLimits;
+	private final SearchLimits exactLimits;
+	private final ThreadLocal<Search> searches;
+	private final ForkJoinPool pool;
+	
+	//the current chunk, and what was found for each of its positions
+	private final long[] players = new long[CHUNK];
+	private final long[] opponents = new long[CHUNK];
+	private final byte[] answers = new byte[CHUNK];
+	private final byte[] scores = new byte[CHUNK];
+	private final byte[] alternatives = new byte[CHUNK];
+	private final boolean[] found = new boolean[CHUNK];
+	private int count;
+	private final PositionStore seen;
+	
+	//the candidates of the game being read, player and opponent in turn
+	private final long[] game = new long[2 * 64];
+	private int gameCount;
+	
+	private long positions;
+	private long candidates;
+	private final AtomicLong shallowRejects = new AtomicLong();
+	private final AtomicLong exactRejects = new AtomicLong();
+	private long puzzles;
+	
+	/**
+	 * Constructor, sets up the filters and the fork-join pool
+	 * 
+	 * @param threads number of threads to mine with
+	 * @param minEmpties fewest empty squares a candidate can have
+	 * @param maxEmpties most empty squares a candidate can have, it's solved to the end
+	 * @param margin how many discs worse than the answer every other move has to be, at least 1
+	 * @param shallowDepth depth of the filtering searches
+	 * @param shallowMargin a position is dropped when two other moves score within this many
+	 * discs of the best in the shallow search, 0 turns the shallow filter off
+	 * @param evaluator evaluation for the shallow searches
+	 * @param seen where the candidates already read are kept, each is only mined once
+	 */
+	public PuzzleMiner(int threads, int minEmpties, int maxEmpties, int margin, int shallowDepth, int shallowMargin, Evaluator evaluator,
+			PositionStore seen) {
+		//with no margin two moves with the same score would each count as beating the other,
+		//and the search for the answer would switch between them forever
+		if(margin < 1) {
+			throw new IllegalArgumentException("The margin has to be at least 1 disc, not " + margin);
+		}
+		this.minEmpties = minEmpties;
+		this.maxEmpties = maxEmpties;
+		this.margin = margin;
+		this.shallowMargin = shallowMargin;
+		this.seen = seen;
+		this.shallowLimits = new SearchLimits(shallowDepth, 0, 0);
+		this.shallowLimits.setExactEmpties(0);
+		this.exactLimits = new SearchLimits(60, 0, 0);
+		this.exactLimits.setExactEmpties(64);
+		this.searches = ThreadLocal.withInitial(() -> new Search(evaluator, new TranspositionTable(20)));
+		this.pool = new ForkJoinPool(threads);
+	}
+	
+	/**
+	 * mines every game in a file and writes the puzzles found
+	 * 
+	 * @param input a GameRecord file or game archive
+	 * @param out the puzzle file
+	 * @throws IOException if the input can't be read or the output written
+	 */
+	public void mine(Path input, DataOutputStream out) throws IOException {
+		if(input.toString().endsWith(".rga")) {
+			try(GameArchiveReader archive = GameArchiveReader.open(input)) {
+				for(ArchivedGame game : archive) {
+					add(game.getRecord(), out);
+				}
+			}
+		}
+		else {
+			try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(input), 1 << 16))) {
+				while(true) {
+					GameRecord record;
+					try {
+						record = GameRecord.read(in);
+					}
+					catch(EOFException e) {
+						break;
+					}
+					add(record, out);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * queues up a game's candidate positions, mining the chunk whenever it fills
+	 */
+	private void add(GameRecord record, DataOutputStream out) throws IOException {
+		this.gameCount = 0;
+		record.replay((player, opponent, move, score) -> {
+			this.positions++;
+			int empties = Bitboard.empties(player, opponent);
+			if(empties >= this.minEmpties && empties <= this.maxEmpties && Long.bitCount(Bitboard.legalMoves(player, opponent)) >= 2
+					&& this.seen.add(player, opponent, 0)) {
+				this.game[this.gameCount++] = player;
+				this.game[this.gameCount++] = opponent;
+			}
+		});
+		for(int g=0; g<this.gameCount; g+=2) {
+			this.players[this.count] = this.game[g];
+			this.opponents[this.count] = this.game[g + 1];
+			this.candidates++;
+			if(++this.count == CHUNK) {
+				flush(out);
+			}
+		}
+	}
+	
+	/**
+	 * mines the queued candidates in parallel and writes the puzzles out in the
+	 * order their positions were read
+	 * 
+	 * @param out the puzzle file
+	 * @throws IOException if writing fails
+	 */
+	public void flush(DataOutputStream out) throws IOException {
+		this.pool.invoke(new Mine(0, this.count));
+		for(int i=0; i<this.count; i++) {
+			if(this.found[i]) {
+				out.writeLong(this.players[i]);
+				out.writeLong(this.opponents[i]);
+				out.writeByte(this.answers[i]);
+				out.writeByte(this.scores[i]);
+				out.writeByte(this.alternatives[i]);
+				this.found[i] = false;
+				this.puzzles++;
+			}
+		}
+		this.count = 0;
+	}
+	
+	/**
+	 * works out whether candidate i is a puzzle, filling in its answer if it is
+	 */
+	private void examine(int i) {
+		long player = this.players[i];
+		long opponent = this.opponents[i];
+		Search search = this.searches.get();
+		
+		long legal = Bitboard.legalMoves(player, opponent);
+		int moveCount = Long.bitCount(legal);
+		int[] squares = new int[moveCount];
+		int[] shallow = new int[moveCount];
+		for(int m=0; m<moveCount; m++) {
+			squares[m] = Long.numberOfTrailingZeros(legal);
+			legal &= legal - 1;
+			shallow[m] = -search.search(child(player, opponent, squares[m], true), child(player, opponent, squares[m], false), this.shallowLimits).getScore();
+		}
+		
+		//best looking first, so the exact checks below try the likeliest rivals first
+		for(int a=1; a<moveCount; a++) {
+			for(int b=a; b>0 && shallow[b] > shallow[b - 1]; b--) {
+				int t = shallow[b];
+				shallow[b] = shallow[b - 1];
+				shallow[b - 1] = t;
+				t = squares[b];
+				squares[b] = squares[b - 1];
+				squares[b - 1] = t;
+			}
+		}
+		if(this.shallowMargin > 0 && moveCount > 2 && shallow[2] >= shallow[0] - this.shallowMargin) {
+			this.shallowRejects.incrementAndGet();
+			return;
+		}
+		
+		//the best looking move is solved exactly and every other move is only compared with it
+		//by null window solves, much cheaper. A rival within margin means no puzzle unless some
+		//third move beats the candidate by margin, which then becomes the candidate instead.
+		int candidate = 0;
+		int score = exact(search, player, opponent, squares[0]);
+		for(int m=0; m<moveCount; m++) {
+			if(m == candidate || !atLeast(search, player, opponent, squares[m], score - this.margin + 1)) {
+				continue;
+			}
+			int better = -1;
+			for(int x=0; x<moveCount && better < 0; x++) {
+				if(x != candidate && atLeast(search, player, opponent, squares[x], score + this.margin)) {
+					better = x;
+				}
+			}
+			if(better < 0) {
+				this.exactRejects.incrementAndGet();
+				return;
+			}
+			candidate = better;
+			score = exact(search, player, opponent, squares[candidate]);
+			m = -1;
+		}
+		int answer = squares[candidate];
+		
+		//it's a puzzle, the runner up's exact score goes in the file too
+		int best = -64;
+		for(int m=0; m<moveCount; m++) {
+			if(m != candidate) {
+				best = Math.max(best, exact(search, player, opponent, squares[m]));
+			}
+		}
+		
+		checkRules(player, opponent, answer);
+		this.answers[i] = (byte) answer;
+		this.scores[i] = (byte) score;
+		this.alternatives[i] = (byte) best;
+		this.found[i] = true;
+	}
+	
+	/**
+	 * exact final score of playing square, from the point of view of the side playing it
+	 */
+	private int exact(Search search, long player, long opponent, int square) {
+		return -search.search(child(player, opponent, square, true), child(player, opponent, square, false), this.exactLimits).getScore();
+	}
+	
+	/**
+	 * whether playing square gets a final score of at least bound, from the point of view
+	 * of the side playing it
+	 */
+	private static boolean atLeast(Search search, long player, long opponent, int square, int bound) {
+		return !search.solveAtLeast(child(player, opponent, square, true), child(player, opponent, square, false), 1 - bound);
+	}
+	
+	/**
+	 * one side of the position after square is played, from the next side to move's
+	 * point of view: its pieces if mover is true, the other side's if not
+	 */
+	private static long child(long player, long opponent, int square, boolean mover) {
+		long flipped = Bitboard.flips(player, opponent, square);
+		return mover ? opponent & ~flipped : player | flipped | (1L << square);
+	}
+	
+	/**
+	 * makes sure the game's own rules agree that the answer can be played, with the
+	 * side to move as the human player
+	 * 
+	 * @throws IllegalStateException if they don't
+	 */
+	private static void checkRules(long player, long opponent, int answer) {
+		char[][] board = new char[8][8];
+		for(int s=0; s<64; s++) {
+			board[s / 8][s % 8] = (player & (1L << s)) != 0 ? 'W' : (opponent & (1L << s)) != 0 ? 'B' : '_';
+		}
+		ReversiController controller = new ReversiController(new ReversiModel(
+				new ReversiBoard(board, Long.bitCount(player), Long.bitCount(opponent), null, ' ')));
+		controller.calculateLegal();
+		if(!controller.isLegal(answer / 8, answer % 8, 'W')) {
+			throw new IllegalStateException("ReversiController doesn't allow " + Bitboard.squareName(answer) + " in "
+					+ new Position(player, opponent, 'W'));
+		}
+	}
+	
+	/**
+	 * prints a summary of what was mined
+	 */
+	private void report(long nanos) {
+		System.err.printf("%d positions, %d candidates, %d dropped by the shallow filter, %d by the exact check, %d puzzles in %.1fs%n",
+				this.positions, this.candidates, this.shallowRejects.get(), this.exactRejects.get(), this.puzzles, nanos / 1e9);
+	}
+	
+	/**
+	 * stops the fork-join pool
+	 */
+	public void shutdown() {
+		this.pool.shutdown();
+	}
+	
+	/**
+	 * fork-join task mining candidates [from, to) of the current chunk
+	 */
+	private final class Mine extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		
+		private Mine(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(this.to - this.from <= LEAF_TASK) {
+				for(int i=this.from; i<this.to; i++) {
+					examine(i);
+				}
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new Mine(this.from, middle), new Mine(middle, this.to));
+		}
+	}
+	
+	/**
+	 * prints every puzzle in a file, one per line: the position, the answer, its
+	 * score and the best score of any other move
+	 */
+	private static void list(Path file) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if(in.readInt() != MAGIC) {
+				throw new IOException(file + " isn't a puzzle file");
+			}
+			while(true) {
+				long player;
+				try {
+					player = in.readLong();
+				}
+				catch(EOFException e) {
+					break;
+				}
+				long opponent = in.readLong();
+				int answer = in.readByte();
+				int score = in.readByte();
+				int alternative = in.readByte();
+				System.out.println(new Position(player, opponent, 'W') + " " + Bitboard.squareName(answer) + " " + score + " " + alternative);
+			}
+		}
+	}
+	
+	/**
+	 * command line entry point
+	 * 
+	 * @param args the puzzle file and games, then any options, or "list" and a puzzle file
+	 * @throws IOException if reading or writing fails
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length == 2 && args[0].equals("list")) {
+			list(Paths.get(args[1]));
+			return;
+		}
+		if(args.length < 2) {
+			System.err.println("Usage: PuzzleMiner puzzles.bin games... [--threads n] [--min-empties e] [--max-empties e]");
+			System.err.println("       [--margin discs] [--shallow depth] [--shallow-margin discs] [--weights file] [--seen-bits b]");
+			System.err.println("       PuzzleMiner list puzzles.bin");
+			System.exit(1);
+		}
+		
+		int threads = Runtime.getRuntime().availableProcessors();
+		int minEmpties = 8;
+		int maxEmpties = 16;
+		int margin = 8;
+		int shallowDepth = 4;
+		int shallowMargin = 4;
+		int seenBits = 22;
+		Evaluator evaluator = new Evaluator();
+		List<Path> inputs = new ArrayList<Path>();
+		for(int i=1; i<args.length; i++) {
+			if(!args[i].startsWith("--")) {
+				inputs.add(Paths.get(args[i]));
+				continue;
+			}
+			if(i + 1 >= args.length) {
+				System.err.println("Missing value for " + args[i]);
+				System.exit(1);
+			}
+			switch(args[i]) {
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				case "--min-empties": minEmpties = Integer.parseInt(args[++i]); break;
+				case "--max-empties": maxEmpties = Integer.parseInt(args[++i]); break;
+				case "--margin": margin = Integer.parseInt(args[++i]); break;
+				case "--shallow": shallowDepth = Integer.parseInt(args[++i]); break;
+				case "--shallow-margin": shallowMargin = Integer.parseInt(args[++i]); break;
+				case "--weights": evaluator = Evaluator.load(Paths.get(args[++i])); break;
+				case "--seen-bits": seenBits = Integer.parseInt(args[++i]); break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.exit(1);
+			}
+		}
+		
+		if(margin < 1) {
+			System.err.println("--margin has to be at least 1 disc");
+			System.exit(1);
+		}
+		
+		long start = System.nanoTime();
+		
+		//2^seenBits candidates fit in the file, it's sparse so only the slots used take up space
+		Path seenPath = Files.createTempFile("puzzle-candidates", ".pos");
+		try(PositionStore seen = PositionStore.open(seenPath, seenBits)) {
+			PuzzleMiner miner = new PuzzleMiner(threads, minEmpties, maxEmpties, margin, shallowDepth, shallowMargin, evaluator, seen);
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(args[0])), 1 << 16))) {
+				out.writeInt(MAGIC);
+				for(Path input : inputs) {
+					miner.mine(input, out);
+				}
+				miner.flush(out);
+			}
+			finally {
+				miner.shutdown();
+			}
+			miner.report(System.nanoTime() - start);
+		}
+		finally {
+			Files.deleteIfExists(seenPath);
+		}
+	}
+}
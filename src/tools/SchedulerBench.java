@@ -0,0 +1,192 @@
+package tools;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import engine.Bitboard;
+import engine.ComputeScheduler;
+import engine.Evaluator;
+import engine.Search;
+import engine.SearchLimits;
+import engine.TranspositionTable;
+import engine.WarmUp;
+
+/**
+ * Benchmark for ComputeScheduler. Times the computer's moves (searches of a
+ * fixed number of nodes, so each is the same work every time) three ways: on
+ * an idle machine, with batch searches keeping every core busy and nothing in
+ * charge, and with the same batch searches run as BATCH work on a scheduler
+ * and the moves as INTERACTIVE. Prints the median, p99 and longest time a
+ * move took each way, how much batch work got done, and the scheduler's
+ * metrics. With the scheduler the moves should take about what they take on
+ * an idle machine.
+ * 
+ * Usage: SchedulerBench [--batch threads] [--moves n] [--nodes n] [--pause millis]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class SchedulerBench {
+	
+	//batch work is handed out in pieces this long, each one acquiring a core
+	private static final long BATCH_MILLIS = 100;
+	
+	private final int moves;
+	private final long nodes;
+	private final long pause;
+	private final Evaluator evaluator = new Evaluator();
+	private final long[][] positions;
+	
+	/**
+	 * Constructor, makes the positions the moves are searched from
+	 * 
+	 * @param moves number of moves to time each way
+	 * @param nodes nodes each move searches
+	 * @param pause milliseconds between moves, like a person thinking
+	 */
+	public SchedulerBench(int moves, long nodes, long pause) {
+		this.moves = moves;
+		this.nodes = nodes;
+		this.pause = pause;
+		this.positions = new long[moves][];
+		long seed = 1;
+		for(int i=0; i<moves; i++) {
+			long player = Bitboard.START_FIRST;
+			long opponent = Bitboard.START_SECOND;
+			for(int ply=0; ply<20; ply++) {
+				long legal = Bitboard.legalMoves(player, opponent);
+				if(legal != 0) {
+					seed ^= seed << 13;
+					seed ^= seed >>> 7;
+					seed ^= seed << 17;
+					for(int skip = (int) ((seed >>> 1) % Long.bitCount(legal)); skip > 0; skip--) {
+						legal &= legal - 1;
+					}
+					int square = Long.numberOfTrailingZeros(legal);
+					long flipped = Bitboard.flips(player, opponent, square);
+					player |= flipped | (1L << square);
+					opponent &= ~flipped;
+				}
+				long swap = player;
+				player = opponent;
+				opponent = swap;
+			}
+			this.positions[i] = new long[] {player, opponent};
+		}
+	}
+	
+	/**
+	 * times the moves, with batch threads running if there are any
+	 * 
+	 * @param batchThreads number of batch threads, 0 for an idle machine
+	 * @param scheduler scheduler for the moves and the batch work, or null for none
+	 * @return each move's time in nanoseconds, sorted
+	 */
+	private long[] run(int batchThreads, ComputeScheduler scheduler, AtomicLong batchPositions) throws InterruptedException {
+		Thread[] batch = new Thread[batchThreads];
+		for(int i=0; i<batchThreads; i++) {
+			batch[i] = new Thread(() -> {
+				Search search = new Search(this.evaluator, new TranspositionTable(16));
+				search.setScheduler(scheduler);
+				while(!Thread.currentThread().isInterrupted()) {
+					if(scheduler != null) {
+						scheduler.acquire(ComputeScheduler.BATCH, ComputeScheduler.NO_DEADLINE);
+					}
+					try {
+						batchPositions.addAndGet(WarmUp.run(search, BATCH_MILLIS));
+					} finally {
+						if(scheduler != null) {
+							scheduler.release();
+						}
+					}
+				}
+			}, "batch-" + i);
+			batch[i].setDaemon(true);
+			batch[i].start();
+		}
+		
+		Search search = new Search(this.evaluator, new TranspositionTable(18));
+		SearchLimits limits = new SearchLimits(60, this.nodes, 0);
+		long[] times = new long[this.moves];
+		for(int i=0; i<this.moves; i++) {
+			Thread.sleep(this.pause);
+			long start = System.nanoTime();
+			if(scheduler != null) {
+				scheduler.acquire(ComputeScheduler.INTERACTIVE, start + 10000000L);
+			}
+			try {
+				search.bestMove(this.positions[i][0], this.positions[i][1], limits);
+			} finally {
+				if(scheduler != null) {
+					scheduler.release();
+				}
+			}
+			times[i] = System.nanoTime() - start;
+		}
+		
+		for(Thread thread : batch) {
+			thread.interrupt();
+		}
+		for(Thread thread : batch) {
+			thread.join();
+		}
+		Arrays.sort(times);
+		return times;
+	}
+	
+	/**
+	 * prints a line of move times
+	 */
+	private static void report(String label, long[] times, long batchPositions, double seconds) {
+		System.out.printf("%-13s moves median %7.2f ms  p99 %7.2f ms  max %7.2f ms", label, times[times.length / 2] / 1e6,
+				times[Math.min(times.length - 1, (int) Math.ceil(times.length * 0.99) - 1)] / 1e6, times[times.length - 1] / 1e6);
+		System.out.printf(batchPositions < 0 ? "%n" : "  batch %.0f positions/s%n", batchPositions / seconds);
+	}
+	
+	/**
+	 * Runs the benchmark
+	 * 
+	 * @param args options
+	 * @throws InterruptedException if interrupted while waiting between moves
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int batchThreads = cores * 2;
+		int moves = 200;
+		long nodes = 100000;
+		long pause = 20;
+		for(int i=0; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--batch": batchThreads = Integer.parseInt(args[i+1]); break;
+				case "--moves": moves = Integer.parseInt(args[i+1]); break;
+				case "--nodes": nodes = Long.parseLong(args[i+1]); break;
+				case "--pause": pause = Long.parseLong(args[i+1]); break;
+				default:
+					System.err.println("Usage: SchedulerBench [--batch threads] [--moves n] [--nodes n] [--pause millis]");
+					System.exit(1);
+			}
+		}
+		
+		SchedulerBench bench = new SchedulerBench(moves, nodes, pause);
+		System.out.printf("%d cores, %d batch threads, %d moves of %d nodes%n", cores, batchThreads, moves, nodes);
+		
+		//warms the JIT up on both kinds of work first, so no run is timed in the interpreter
+		bench.run(batchThreads, null, new AtomicLong());
+		
+		long start = System.nanoTime();
+		long[] idle = bench.run(0, null, new AtomicLong());
+		report("idle", idle, -1, (System.nanoTime() - start) / 1e9);
+		
+		AtomicLong positions = new AtomicLong();
+		start = System.nanoTime();
+		long[] unscheduled = bench.run(batchThreads, null, positions);
+		report("unscheduled", unscheduled, positions.get(), (System.nanoTime() - start) / 1e9);
+		
+		ComputeScheduler scheduler = new ComputeScheduler(cores);
+		positions.set(0);
+		start = System.nanoTime();
+		long[] scheduled = bench.run(batchThreads, scheduler, positions);
+		report("scheduled", scheduled, positions.get(), (System.nanoTime() - start) / 1e9);
+		System.out.print(scheduler);
+	}
+}
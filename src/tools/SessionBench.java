@@ -0,0 +1,237 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import controller.GameSessionCache;
+import controller.ReversiController;
+import engine.Bitboard;
+import engine.GameRecord;
+import engine.GreedyPlayer;
+import engine.Search;
+import model.IllegalMoveException;
+
+/**
+ * Benchmark for GameSessionCache. Opens lots of games, keeps only a few of
+ * them resident, then plays moves (a random human move and the computer's
+ * reply) in games picked at random, so nearly every move has to wake its game
+ * up. Every woken game is checked against its own game record, replayed from
+ * the start, so a game that didn't come back exactly as it was fails the run.
+ * Prints how long waking games up took (median, p99 and longest), the heap a
+ * resident game costs, the file size and the cache's metrics.
+ * 
+ * The computer plays greedily, the point is the cache, not the search.
+ * 
+ * Usage: SessionBench [--games n] [--resident n] [--moves n] [--file path]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class SessionBench {
+	
+	private final GameSessionCache cache;
+	private long seed = 1;
+	
+	//what every game's finished position is checked against
+	private long player;
+	private long opponent;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param cache the cache the games are played through
+	 */
+	public SessionBench(GameSessionCache cache) {
+		this.cache = cache;
+		GreedyPlayer greedy = new GreedyPlayer();
+		Search search = ReversiController.createSearch();
+		cache.setInitializer(controller -> {
+			controller.setSearch(search);
+			controller.setEngine(greedy);
+		});
+	}
+	
+	/**
+	 * plays one move of a game and the computer's reply, starting a new game
+	 * in its place if it's over
+	 * 
+	 * @param id the game
+	 * @return the game's id, a new one if it ended
+	 */
+	private long play(long id) throws IOException, IllegalMoveException {
+		ReversiController controller = this.cache.get(id);
+		check(controller);
+		if(!controller.hasLegal(true) && !controller.hasLegal(false)) {
+			this.cache.remove(id);
+			return this.cache.newGame();
+		}
+		if(controller.hasLegal(true)) {
+			int square = randomMove(humanMoves(controller));
+			controller.humanTurn(square / 8, square % 8);
+		}
+		controller.calculateLegal();
+		if(controller.hasLegal(false)) {
+			controller.computerTurn();
+		}
+		controller.calculateLegal();
+		return id;
+	}
+	
+	/**
+	 * the human's legal moves as a bitboard
+	 */
+	private static long humanMoves(ReversiController controller) {
+		long moves = 0;
+		for(int i=0; i<8; i++) {
+			for(int j=0; j<8; j++) {
+				if(controller.isLegal(i, j, 'W')) {
+					moves |= 1L << (i*8 + j);
+				}
+			}
+		}
+		return moves;
+	}
+	
+	/**
+	 * replays a game's record and makes sure it ends on the game's board
+	 */
+	private void check(ReversiController controller) {
+		GameRecord record = controller.getGameRecord();
+		if(record == null) {
+			return;
+		}
+		record.replay((player, opponent, move, score) -> {
+			long flipped = Bitboard.flips(player, opponent, move);
+			this.player = opponent & ~flipped;
+			this.opponent = player | flipped | (1L << move);
+		});
+		long human = 0;
+		long computer = 0;
+		for(int i=0; i<8; i++) {
+			for(int j=0; j<8; j++) {
+				String piece = controller.getPieceAt(i, j);
+				if(piece.equals("W")) {
+					human |= 1L << (i*8 + j);
+				}
+				else if(piece.equals("B")) {
+					computer |= 1L << (i*8 + j);
+				}
+			}
+		}
+		//after the replay opponent has the side that moved last
+		if(!(this.opponent == human && this.player == computer) && !(this.opponent == computer && this.player == human)) {
+			throw new IllegalStateException("A game didn't wake up the way it was hibernated");
+		}
+	}
+	
+	/**
+	 * picks one of the moves at random
+	 */
+	private int randomMove(long moves) {
+		long pick = next() % Long.bitCount(moves);
+		for(; pick > 0; pick--) {
+			moves &= moves - 1;
+		}
+		return Long.numberOfTrailingZeros(moves);
+	}
+	
+	private long next() {
+		this.seed ^= this.seed << 13;
+		this.seed ^= this.seed >>> 7;
+		this.seed ^= this.seed << 17;
+		return this.seed >>> 1;
+	}
+	
+	/**
+	 * heap in use after a collection
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i=0; i<3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	/**
+	 * Runs the benchmark
+	 * 
+	 * @param args options
+	 * @throws IOException if the cache file can't be made
+	 * @throws IllegalMoveException never, the human only plays legal moves
+	 */
+	public static void main(String[] args) throws IOException, IllegalMoveException {
+		int games = 200000;
+		int resident = 1000;
+		int moves = 200000;
+		Path file = null;
+		for(int i=0; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--games": games = Integer.parseInt(args[i+1]); break;
+				case "--resident": resident = Integer.parseInt(args[i+1]); break;
+				case "--moves": moves = Integer.parseInt(args[i+1]); break;
+				case "--file": file = Paths.get(args[i+1]); break;
+				default:
+					System.err.println("Usage: SessionBench [--games n] [--resident n] [--moves n] [--file path]");
+					System.exit(1);
+			}
+		}
+		boolean temporary = file == null;
+		if(temporary) {
+			file = Files.createTempFile("sessions", ".bin");
+			Files.delete(file);
+		}
+		
+		try(GameSessionCache cache = GameSessionCache.open(file, resident)) {
+			SessionBench bench = new SessionBench(cache);
+			long[] ids = new long[games];
+			long start = System.nanoTime();
+			for(int i=0; i<games; i++) {
+				ids[i] = cache.newGame();
+			}
+			System.out.printf("%d games started in %.2f s, %d resident%n", games, (System.nanoTime() - start) / 1e9, resident);
+			
+			//every game gets a few moves first, so they're mid game rather than all at the start
+			for(int i=0; i<games; i++) {
+				for(int j=0; j<4; j++) {
+					ids[i] = bench.play(ids[i]);
+				}
+			}
+			
+			long[] times = new long[moves];
+			int woken = 0;
+			long misses = cache.getMisses();
+			start = System.nanoTime();
+			for(int i=0; i<moves; i++) {
+				int game = (int) (bench.next() % games);
+				long before = System.nanoTime();
+				cache.get(ids[game]);
+				long took = System.nanoTime() - before;
+				if(cache.getMisses() != misses) {
+					misses = cache.getMisses();
+					times[woken++] = took;
+				}
+				ids[game] = bench.play(ids[game]);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			times = Arrays.copyOf(times, woken);
+			Arrays.sort(times);
+			System.out.printf("%d moves in %.2f s, %d woke a game up: median %.1f us  p99 %.1f us  max %.1f us%n", moves, seconds, woken,
+					times[woken / 2] / 1e3, times[Math.min(woken - 1, (int) Math.ceil(woken * 0.99) - 1)] / 1e3, times[woken - 1] / 1e3);
+			
+			long full = usedHeap();
+			cache.hibernateAll();
+			long empty = usedHeap();
+			System.out.printf("%.0f bytes of heap per resident game, %d MB file%n", (double) (full - empty) / resident, Files.size(file) >> 20);
+			System.out.println(cache);
+		}
+		finally {
+			if(temporary) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+import engine.Bitboard;
+import engine.SmallBoard;
+import engine.SmallBoardSolver;
+
+/**
+ * Solves Reversi on a 4x4 or 6x6 board with SmallBoardSolver and prints the
+ * score with perfect play and a line that gets it. Scores are from the point of
+ * view of the side to move, empty squares going to the winner. 4x4 takes well
+ * under a second, 6x6 from the start takes a long time, so it can checkpoint to
+ * a file and pick up where it stopped, and it can start from a position some
+ * moves in instead.
+ * 
+ * Usage: SolveSmallBoard size [--threads n] [--hash bits] [--split plies] [--checkpoint file] [--moves "c3 d2 ..."]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class SolveSmallBoard {
+	
+	/**
+	 * prints the solver's progress, the bounds only on checkpointed runs, the
+	 * long ones
+	 */
+	private static final class Progress implements SmallBoardSolver.Listener {
+		
+		private final boolean bounds;
+		
+		private Progress(boolean bounds) {
+			this.bounds = bounds;
+		}
+		
+		@Override
+		public void bounds(int lower, int upper, long nodes) {
+			if(this.bounds) {
+				System.err.printf("Score is between %+d and %+d, %,d nodes%n", lower, upper, nodes);
+			}
+		}
+		
+		@Override
+		public void progress(long subtrees, long nodes, long nanos) {
+			System.err.printf("%d subtrees searched, %,d nodes, %.0fs%n", subtrees, nodes, nanos / 1e9);
+		}
+		
+		@Override
+		public void checkpointFailed(IOException e) {
+			System.err.println("Checkpoint failed: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Runs the solver
+	 * 
+	 * @param args board size and options
+	 * @throws IOException if the checkpoint can't be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: SolveSmallBoard size [--threads n] [--hash bits] [--split plies] [--checkpoint file] [--moves \"c3 d2 ...\"]");
+			System.exit(1);
+		}
+		
+		SmallBoard board = new SmallBoard(Integer.parseInt(args[0]));
+		int threads = Runtime.getRuntime().availableProcessors();
+		int hashBits = 22;
+		int split = 6;
+		String checkpoint = null;
+		String moves = "";
+		for(int i=1; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--threads": threads = Integer.parseInt(args[i+1]); break;
+				case "--hash": hashBits = Integer.parseInt(args[i+1]); break;
+				case "--split": split = Integer.parseInt(args[i+1]); break;
+				case "--checkpoint": checkpoint = args[i+1]; break;
+				case "--moves": moves = args[i+1]; break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.exit(1);
+			}
+		}
+		
+		//play the given moves from the start, passing where the side to move can't
+		long player = board.startFirst();
+		long opponent = board.startSecond();
+		int played = 0;
+		for(String name : moves.trim().split("\\s+")) {
+			if(name.isEmpty()) {
+				continue;
+			}
+			if(board.legalMoves(player, opponent) == 0) {
+				long swap = player;
+				player = opponent;
+				opponent = swap;
+			}
+			int square = Bitboard.parseSquare(name);
+			if(square < 0 || (board.legalMoves(player, opponent) & (1L << square)) == 0) {
+				System.err.println(name + " isn't a legal move there");
+				System.exit(1);
+			}
+			long flipped = Bitboard.flips(player, opponent, square);
+			long swap = player | flipped | (1L << square);
+			player = opponent & ~flipped;
+			opponent = swap;
+			played++;
+		}
+		
+		SmallBoardSolver solver = new SmallBoardSolver(board, threads, hashBits, split);
+		solver.setListener(new Progress(checkpoint != null));
+		if(checkpoint != null) {
+			int known = solver.setCheckpoint(Paths.get(checkpoint));
+			if(known > 0) {
+				System.err.println("Resuming with " + known + " subtrees from " + checkpoint);
+			}
+		}
+		long start = System.nanoTime();
+		int score = solver.solve(player, opponent);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		List<Integer> line = solver.principalVariation(player, opponent, score);
+		solver.shutdown();
+		
+		StringBuilder text = new StringBuilder();
+		for(int square : line) {
+			text.append(Bitboard.squareName(square)).append(' ');
+		}
+		System.out.printf("%dx%d after %d moves, %d empty: %+d for the side to move%n", board.getSize(), board.getSize(),
+				played, board.empties(player, opponent), score);
+		System.out.println("Best play: " + text.toString().trim());
+		System.out.printf("%,d nodes in %.2fs on %d threads%n", solver.getNodes(), seconds, threads);
+	}
+}
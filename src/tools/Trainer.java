@@ -0,0 +1,415 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import engine.Bitboard;
+import engine.Evaluator;
+import engine.GameRecord;
+import storage.PositionStore;
+
+/**
+ * Offline pipeline for fitting Evaluator weights to self-play results.
+ * 
+ * "extract" streams GameRecords (as written by net.Coordinator) and writes one
+ * 17 byte training sample per position: both bitboards and the final score for
+ * the side to move. "fit" streams the samples back in chunks and runs mini-batch
+ * gradient descent on the squared error between the evaluation and the final
+ * score, with each batch's gradient split across threads. The result is a
+ * weight file Evaluator.load can read.
+ * 
+ * "dedupe" does the same as extract but writes each position once, with the
+ * average score of every game through it or its symmetric versions, gathering
+ * them in a PositionStore so huge game sets never have to fit on the heap.
+ * 
+ * Usage: Trainer extract samples.bin games.bin...
+ *        Trainer dedupe samples.bin store.pos games.bin...
+ *        Trainer fit samples.bin weights.dat [--epochs n] [--batch n] [--rate r] [--threads n] [--init weights.dat]
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class Trainer {
+	
+	private static final int SAMPLE = 17;
+	private static final int CHUNK = 1 << 16;
+	
+	private final float[][] weights;
+	private final int threads;
+	private final ExecutorService pool;
+	
+	//one chunk of samples at a time
+	private final long[] players = new long[CHUNK];
+	private final long[] opponents = new long[CHUNK];
+	private final byte[] scores = new byte[CHUNK];
+	private final int[] order = new int[CHUNK];
+	
+	/**
+	 * Constructor, starts from the given evaluator's weights
+	 * 
+	 * @param start the evaluator to start from
+	 * @param threads number of threads each batch is split across
+	 */
+	public Trainer(Evaluator start, int threads) {
+		this.weights = new float[Evaluator.PHASES][];
+		for(int i=0; i<Evaluator.PHASES; i++) {
+			this.weights[i] = start.getWeights(i);
+		}
+		this.threads = threads;
+		this.pool = Executors.newFixedThreadPool(threads);
+	}
+	
+	/**
+	 * writes a training sample for every position of every game in the inputs
+	 * 
+	 * @param inputs files of GameRecords
+	 * @param output the sample file
+	 * @return number of samples written
+	 * @throws IOException if reading or writing fails
+	 */
+	public static long extract(List<Path> inputs, Path output) throws IOException {
+		long[] count = new long[1];
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+			for(Path input : inputs) {
+				try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(input), 1 << 16))) {
+					while(true) {
+						GameRecord game;
+						try {
+							game = GameRecord.read(in);
+						}
+						catch(EOFException e) {
+							break;
+						}
+						IOException[] failure = new IOException[1];
+						game.replay((player, opponent, move, score) -> {
+							if(failure[0] != null) {
+								return;
+							}
+							try {
+								out.writeLong(player);
+								out.writeLong(opponent);
+								out.writeByte(score);
+								count[0]++;
+							}
+							catch(IOException e) {
+								failure[0] = e;
+							}
+						});
+						if(failure[0] != null) {
+							throw failure[0];
+						}
+					}
+				}
+			}
+		}
+		return count[0];
+	}
+	
+	/**
+	 * like extract, but writes each position once however many games went
+	 * through it (or through one of its symmetric versions), scored with the
+	 * average result of those games. Positions are gathered in a PositionStore,
+	 * filled by several threads reading game files at once, so the games can be
+	 * far bigger than the heap. An existing store is added to, so games can be
+	 * deduplicated over several runs.
+	 * 
+	 * @param inputs files of GameRecords
+	 * @param storePath the position store, created if it doesn't exist
+	 * @param output the sample file
+	 * @param threads number of game files read at once
+	 * @return number of positions read, then number of samples written
+	 * @throws IOException if reading or writing fails
+	 */
+	public static long[] dedupe(List<Path> inputs, Path storePath, Path output, int threads) throws IOException {
+		//each move takes at least a byte of game record, so a new store ends up at most half full
+		long bytes = 0;
+		for(Path input : inputs) {
+			bytes += Files.size(input);
+		}
+		int bits = Math.min(40, Math.max(16, 65 - Long.numberOfLeadingZeros(bytes)));
+		
+		long[] count = new long[2];
+		try(PositionStore store = PositionStore.open(storePath, bits)) {
+			List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+			for(Path input : inputs) {
+				tasks.add(() -> {
+					long[] positions = new long[1];
+					try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(input), 1 << 16))) {
+						while(true) {
+							GameRecord game;
+							try {
+								game = GameRecord.read(in);
+							}
+							catch(EOFException e) {
+								break;
+							}
+							game.replay((player, opponent, move, score) -> {
+								store.add(player, opponent, score);
+								positions[0]++;
+							});
+						}
+					}
+					return positions[0];
+				});
+			}
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				for(Future<Long> f : pool.invokeAll(tasks)) {
+					count[0] += f.get();
+				}
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading games", e);
+			}
+			catch(ExecutionException e) {
+				throw new IOException("Reading games failed", e.getCause());
+			}
+			finally {
+				pool.shutdownNow();
+			}
+			
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+				IOException[] failure = new IOException[1];
+				store.forEach((player, opponent, games, wins, draws, scoreSum) -> {
+					if(failure[0] != null) {
+						return;
+					}
+					try {
+						out.writeLong(player);
+						out.writeLong(opponent);
+						out.writeByte((int) Math.round((double) scoreSum / games));
+						count[1]++;
+					}
+					catch(IOException e) {
+						failure[0] = e;
+					}
+				});
+				if(failure[0] != null) {
+					throw failure[0];
+				}
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * runs one pass of mini-batch gradient descent over a sample file
+	 * 
+	 * @param samples the sample file
+	 * @param batch samples per batch
+	 * @param rate learning rate
+	 * @param random shuffles each chunk
+	 * @return mean squared error over the pass, measured before each batch's update
+	 * @throws IOException if reading fails
+	 */
+	public double epoch(Path samples, int batch, float rate, Random random) throws IOException {
+		double totalError = 0;
+		long total = 0;
+		ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK * SAMPLE).order(ByteOrder.BIG_ENDIAN);
+		
+		try(FileChannel channel = FileChannel.open(samples, StandardOpenOption.READ)) {
+			while(true) {
+				buffer.clear();
+				while(buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				}
+				buffer.flip();
+				int n = buffer.remaining() / SAMPLE;
+				if(n == 0) {
+					break;
+				}
+				for(int i=0; i<n; i++) {
+					this.players[i] = buffer.getLong();
+					this.opponents[i] = buffer.getLong();
+					this.scores[i] = buffer.get();
+					this.order[i] = i;
+				}
+				for(int i=n-1; i>0; i--) {
+					int j = random.nextInt(i + 1);
+					int swap = this.order[i];
+					this.order[i] = this.order[j];
+					this.order[j] = swap;
+				}
+				
+				for(int start=0; start<n; start+=batch) {
+					totalError += step(start, Math.min(n, start + batch), rate);
+				}
+				total += n;
+			}
+		}
+		return total == 0 ? 0 : totalError / total;
+	}
+	
+	/**
+	 * one gradient step over samples order[from..to), split across the threads
+	 * 
+	 * @return the batch's summed squared error
+	 */
+	private double step(int from, int to, float rate) throws IOException {
+		int slice = (to - from + this.threads - 1) / this.threads;
+		List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+		for(int t=0; t<this.threads; t++) {
+			int a = from + t * slice;
+			int b = Math.min(to, a + slice);
+			if(a < b) {
+				tasks.add(() -> gradient(a, b));
+			}
+		}
+		
+		//each task returns PHASES * FEATURES gradient sums, PHASES counts, then its squared error
+		double[] sum = new double[Evaluator.PHASES * (Evaluator.FEATURES + 1) + 1];
+		try {
+			for(Future<double[]> f : this.pool.invokeAll(tasks)) {
+				double[] g = f.get();
+				for(int i=0; i<sum.length; i++) {
+					sum[i] += g[i];
+				}
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted during training", e);
+		}
+		catch(ExecutionException e) {
+			throw new IOException("Gradient computation failed", e.getCause());
+		}
+		
+		for(int p=0; p<Evaluator.PHASES; p++) {
+			double count = sum[Evaluator.PHASES * Evaluator.FEATURES + p];
+			if(count == 0) {
+				continue;
+			}
+			for(int f=0; f<Evaluator.FEATURES; f++) {
+				this.weights[p][f] -= rate * sum[p * Evaluator.FEATURES + f] / count;
+			}
+		}
+		return sum[sum.length - 1];
+	}
+	
+	/**
+	 * squared error gradient over samples order[from..to)
+	 */
+	private double[] gradient(int from, int to) {
+		double[] g = new double[Evaluator.PHASES * (Evaluator.FEATURES + 1) + 1];
+		float[] features = new float[Evaluator.FEATURES];
+		for(int i=from; i<to; i++) {
+			int s = this.order[i];
+			long player = this.players[s];
+			long opponent = this.opponents[s];
+			int phase = Evaluator.phase(Bitboard.empties(player, opponent));
+			Evaluator.features(player, opponent, features);
+			
+			float[] w = this.weights[phase];
+			double prediction = 0;
+			for(int f=0; f<Evaluator.FEATURES; f++) {
+				prediction += w[f] * features[f];
+			}
+			double error = prediction - this.scores[s];
+			for(int f=0; f<Evaluator.FEATURES; f++) {
+				g[phase * Evaluator.FEATURES + f] += error * features[f];
+			}
+			g[Evaluator.PHASES * Evaluator.FEATURES + phase]++;
+			g[g.length - 1] += error * error;
+		}
+		return g;
+	}
+	
+	/**
+	 * returns an evaluator with the current weights
+	 * 
+	 * @return the trained evaluator
+	 */
+	public Evaluator getEvaluator() {
+		return new Evaluator(this.weights);
+	}
+	
+	/**
+	 * stops the worker threads
+	 */
+	public void shutdown() {
+		this.pool.shutdownNow();
+	}
+	
+	/**
+	 * command line entry point
+	 * 
+	 * @param args "extract" or "fit" and its arguments
+	 * @throws IOException if reading or writing fails
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length >= 3 && args[0].equals("extract")) {
+			List<Path> inputs = new ArrayList<Path>();
+			for(int i=2; i<args.length; i++) {
+				inputs.add(Paths.get(args[i]));
+			}
+			long count = extract(inputs, Paths.get(args[1]));
+			System.err.println("Wrote " + count + " samples");
+			return;
+		}
+		if(args.length >= 4 && args[0].equals("dedupe")) {
+			List<Path> inputs = new ArrayList<Path>();
+			for(int i=3; i<args.length; i++) {
+				inputs.add(Paths.get(args[i]));
+			}
+			long[] count = dedupe(inputs, Paths.get(args[2]), Paths.get(args[1]), Runtime.getRuntime().availableProcessors());
+			System.err.println("Read " + count[0] + " positions, wrote " + count[1] + " unique samples");
+			return;
+		}
+		if(args.length < 3 || !args[0].equals("fit")) {
+			System.err.println("Usage: Trainer extract samples.bin games.bin...");
+			System.err.println("       Trainer dedupe samples.bin store.pos games.bin...");
+			System.err.println("       Trainer fit samples.bin weights.dat [--epochs n] [--batch n] [--rate r] [--threads n] [--init weights.dat]");
+			System.exit(1);
+		}
+		
+		int epochs = 20;
+		int batch = 4096;
+		float rate = 0.002f;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Evaluator start = new Evaluator();
+		for(int i=3; i+1<args.length; i+=2) {
+			switch(args[i]) {
+				case "--epochs": epochs = Integer.parseInt(args[i+1]); break;
+				case "--batch": batch = Integer.parseInt(args[i+1]); break;
+				case "--rate": rate = Float.parseFloat(args[i+1]); break;
+				case "--threads": threads = Integer.parseInt(args[i+1]); break;
+				case "--init": start = Evaluator.load(Paths.get(args[i+1])); break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.exit(1);
+			}
+		}
+		
+		Trainer trainer = new Trainer(start, threads);
+		Random random = new Random(1);
+		try {
+			for(int e=1; e<=epochs; e++) {
+				double mse = trainer.epoch(Paths.get(args[1]), batch, rate, random);
+				System.err.printf("Epoch %d: mean squared error %.3f%n", e, mse);
+			}
+		}
+		finally {
+			trainer.shutdown();
+		}
+		trainer.getEvaluator().save(Paths.get(args[2]));
+	}
+}
@@ -0,0 +1,206 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import engine.Bitboard;
+import storage.PositionIndex;
+
+/**
+ * Imports WTHOR (.wtb) game archives into a PositionIndex. Every game is
+ * replayed through the bitboard engine and each position along the way is
+ * credited with the game's final result. Archives are memory-mapped and split
+ * into chunks of games that are replayed in parallel.
+ * 
+ * Usage: WthorImporter index [--bits n] [--threads n] archive.wtb...
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class WthorImporter {
+	
+	private static final int FILE_HEADER = 16;
+	private static final int GAME_RECORD = 68;
+	private static final int MOVES_OFFSET = 8;
+	private static final int CHUNK = 4096;
+	
+	private final PositionIndex index;
+	private final AtomicLong games = new AtomicLong();
+	private final AtomicLong positions = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	
+	/**
+	 * Constructor, saves the index games are added to
+	 * 
+	 * @param index the index to fill
+	 */
+	public WthorImporter(PositionIndex index) {
+		this.index = index;
+	}
+	
+	/**
+	 * imports every game in the archives using a pool of threads
+	 * 
+	 * @param archives the .wtb files
+	 * @param threads number of worker threads
+	 * @throws IOException if an archive can't be read or isn't a WTHOR game file
+	 */
+	public void importAll(List<Path> archives, int threads) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<FileChannel> channels = new ArrayList<FileChannel>();
+		List<Future<?>> work = new ArrayList<Future<?>>();
+		
+		try {
+			for(Path archive : archives) {
+				FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+				channels.add(channel);
+				MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				data.order(ByteOrder.LITTLE_ENDIAN);
+				
+				if(data.capacity() < FILE_HEADER) {
+					throw new IOException(archive + " is too short to be a WTHOR file");
+				}
+				int boardSize = data.get(12);
+				if(boardSize != 0 && boardSize != 8) {
+					throw new IOException(archive + " is for a " + boardSize + "x" + boardSize + " board");
+				}
+				int count = Math.min(data.getInt(4), (data.capacity() - FILE_HEADER) / GAME_RECORD);
+				
+				for(int first=0; first<count; first+=CHUNK) {
+					final int from = first;
+					final int to = Math.min(count, first + CHUNK);
+					work.add(pool.submit(() -> importGames(data, from, to)));
+				}
+			}
+			
+			for(Future<?> f : work) {
+				f.get();
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted during import", e);
+		}
+		catch(ExecutionException e) {
+			throw new IOException("Import failed", e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+			for(FileChannel channel : channels) {
+				channel.close();
+			}
+		}
+	}
+	
+	/**
+	 * replays games [from, to) of a mapped archive into the index
+	 */
+	private void importGames(MappedByteBuffer data, int from, int to) {
+		long[] players = new long[61];
+		long[] opponents = new long[61];
+		boolean[] blackToMove = new boolean[61];
+		
+		for(int g=from; g<to; g++) {
+			int base = FILE_HEADER + g * GAME_RECORD + MOVES_OFFSET;
+			long black = Bitboard.START_FIRST;
+			long white = Bitboard.START_SECOND;
+			boolean blackTurn = true;
+			int plies = 0;
+			boolean valid = true;
+			
+			for(int i=0; i<60; i++) {
+				int code = data.get(base + i);
+				if(code == 0) {
+					break;
+				}
+				int square = (code / 10 - 1) * 8 + (code % 10 - 1);
+				long player = blackTurn ? black : white;
+				long opponent = blackTurn ? white : black;
+				
+				//passes aren't recorded, the same side just moves again
+				if(Bitboard.legalMoves(player, opponent) == 0) {
+					blackTurn = !blackTurn;
+					long swap = player;
+					player = opponent;
+					opponent = swap;
+				}
+				if(square < 0 || square > 63 || (Bitboard.legalMoves(player, opponent) & (1L << square)) == 0) {
+					valid = false;
+					break;
+				}
+				
+				players[plies] = player;
+				opponents[plies] = opponent;
+				blackToMove[plies] = blackTurn;
+				plies++;
+				
+				long flipped = Bitboard.flips(player, opponent, square);
+				player |= flipped | (1L << square);
+				opponent &= ~flipped;
+				black = blackTurn ? player : opponent;
+				white = blackTurn ? opponent : player;
+				blackTurn = !blackTurn;
+			}
+			
+			if(!valid || plies == 0) {
+				this.rejected.incrementAndGet();
+				continue;
+			}
+			
+			int blackScore = Bitboard.finalScore(black, white);
+			for(int i=0; i<plies; i++) {
+				this.index.add(players[i], opponents[i], blackToMove[i] ? blackScore : -blackScore);
+			}
+			this.games.incrementAndGet();
+			this.positions.addAndGet(plies);
+		}
+	}
+	
+	/**
+	 * command line entry point
+	 * 
+	 * @param args index file, options, then the archives to import
+	 * @throws IOException if reading an archive or writing the index fails
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.err.println("Usage: WthorImporter index [--bits n] [--threads n] archive.wtb...");
+			System.exit(1);
+		}
+		
+		int bits = 24;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<Path> archives = new ArrayList<Path>();
+		for(int i=1; i<args.length; i++) {
+			if(args[i].equals("--bits")) {
+				bits = Integer.parseInt(args[++i]);
+			}
+			else if(args[i].equals("--threads")) {
+				threads = Integer.parseInt(args[++i]);
+			}
+			else {
+				archives.add(Paths.get(args[i]));
+			}
+		}
+		
+		long start = System.nanoTime();
+		try(PositionIndex index = PositionIndex.open(Paths.get(args[0]), bits)) {
+			WthorImporter importer = new WthorImporter(index);
+			importer.importAll(archives, threads);
+			System.err.printf("Imported %d games (%d positions, %d rejected) in %.1fs%n", importer.games.get(),
+					importer.positions.get(), importer.rejected.get(), (System.nanoTime() - start) / 1e9);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package view;
+
+import java.util.Arrays;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws the whole board on one Canvas instead of a node per square. Changes
+ * only mark their square dirty, and once a frame the dirty squares (and any
+ * still animating) are repainted, so a move that flips ten discs costs ten
+ * small repaints in a single frame rather than ten scene graph updates.
+ * 
+ * Squares are laid out the same as the old grid of bordered tiles, so a click
+ * at the same spot maps to the same square. Flip animation and legal move
+ * hints can each be turned off.
+ * 
+ * @author Wes Rodgers
+ *
+ */
+public class BoardCanvas extends Canvas {
+	
+	/** padding around the squares */
+	public static final int PADDING = 8;
+	
+	/** width and height of a square */
+	public static final int TILE = 46;
+	
+	private static final int RADIUS = 20;
+	private static final int HINT_RADIUS = 5;
+	
+	//how long a disc takes to turn over
+	private static final long FLIP_NANOS = 250000000L;
+	
+	private static final Color BACKGROUND = Color.GREEN;
+	private static final Color HINT = Color.rgb(0, 0, 0, 0.25);
+	
+	private final char[] squares = new char[64];
+	private final char[] flippedFrom = new char[64];
+	private final long[] flipStart = new long[64];
+	private final boolean animate;
+	private final boolean showHints;
+	private long dirty = -1L;
+	private long flipping;
+	private long hints;
+	private final AnimationTimer timer;
+	
+	/**
+	 * Constructor, starts with an empty board and begins repainting every frame
+	 * 
+	 * @param animate whether discs turn over gradually when flipped
+	 * @param showHints whether setHints marks the squares it's given
+	 */
+	public BoardCanvas(boolean animate, boolean showHints) {
+		super(2 * PADDING + 8 * TILE, 2 * PADDING + 8 * TILE);
+		this.animate = animate;
+		this.showHints = showHints;
+		Arrays.fill(this.squares, '_');
+		
+		GraphicsContext g = getGraphicsContext2D();
+		g.setFill(BACKGROUND);
+		g.fillRect(0, 0, getWidth(), getHeight());
+		
+		this.timer = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				paint(now);
+			}
+		};
+		this.timer.start();
+	}
+	
+	/**
+	 * sets a square's colour, it's repainted on the next frame
+	 * 
+	 * @param x the square's row
+	 * @param y the square's column
+	 * @param color 'W', 'B' or '_' for empty
+	 */
+	public void setSquare(int x, int y, char color) {
+		int square = x * 8 + y;
+		char old = this.squares[square];
+		if(old == color) {
+			return;
+		}
+		this.squares[square] = color;
+		this.dirty |= 1L << square;
+		
+		//only discs that change colour turn over, new ones just appear
+		if(this.animate && old != '_' && color != '_') {
+			this.flippedFrom[square] = old;
+			this.flipStart[square] = System.nanoTime();
+			this.flipping |= 1L << square;
+		}
+		else {
+			this.flipping &= ~(1L << square);
+		}
+	}
+	
+	/**
+	 * sets every square from a board, e.g. a new or loaded game, without animating
+	 * 
+	 * @param board the board
+	 */
+	public void setBoard(char[][] board) {
+		for(int i=0; i<8; i++) {
+			for(int j=0; j<8; j++) {
+				this.squares[i*8 + j] = board[i][j];
+			}
+		}
+		this.flipping = 0;
+		this.dirty = -1L;
+	}
+	
+	/**
+	 * marks the squares the player can move to, if hints are turned on
+	 * 
+	 * @param moves bitmask of squares, bit x*8+y for square (x,y)
+	 */
+	public void setHints(long moves) {
+		if(!this.showHints) {
+			return;
+		}
+		this.dirty |= this.hints ^ moves;
+		this.hints = moves;
+	}
+	
+	/**
+	 * stops repainting, for when the canvas is being thrown away
+	 */
+	public void stop() {
+		this.timer.stop();
+	}
+	
+	/**
+	 * repaints the squares that have changed or are still turning over
+	 */
+	private void paint(long now) {
+		long todo = this.dirty | this.flipping;
+		if(todo == 0) {
+			return;
+		}
+		this.dirty = 0;
+		
+		GraphicsContext g = getGraphicsContext2D();
+		g.setLineWidth(1);
+		g.setStroke(Color.BLACK);
+		while(todo != 0) {
+			int square = Long.numberOfTrailingZeros(todo);
+			todo &= todo - 1;
+			paintSquare(g, square, now);
+		}
+	}
+	
+	private void paintSquare(GraphicsContext g, int square, long now) {
+		double left = PADDING + (square % 8) * TILE;
+		double top = PADDING + (square / 8) * TILE;
+		double cx = left + TILE / 2.0;
+		double cy = top + TILE / 2.0;
+		
+		g.setFill(BACKGROUND);
+		g.fillRect(left, top, TILE, TILE);
+		g.strokeRect(left + 0.5, top + 0.5, TILE - 1, TILE - 1);
+		
+		char color = this.squares[square];
+		if(color == '_') {
+			if((this.hints & (1L << square)) != 0) {
+				g.setFill(HINT);
+				g.fillOval(cx - HINT_RADIUS, cy - HINT_RADIUS, 2 * HINT_RADIUS, 2 * HINT_RADIUS);
+			}
+			return;
+		}
+		
+		//a turning disc shrinks to its edge in the old colour and widens again in the new one
+		double width = RADIUS;
+		if((this.flipping & (1L << square)) != 0) {
+			double t = (double) (now - this.flipStart[square]) / FLIP_NANOS;
+			if(t >= 1) {
+				this.flipping &= ~(1L << square);
+			}
+			else {
+				width = RADIUS * Math.abs(1 - 2 * Math.max(0, t));
+				if(t < 0.5) {
+					color = this.flippedFrom[square];
+				}
+			}
+		}
+		g.setFill(color == 'W' ? Color.WHITE : Color.BLACK);
+		g.fillOval(cx - width, cy - RADIUS, 2 * width, 2 * RADIUS);
+	}
+}
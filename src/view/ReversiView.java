@@ -5,13 +5,29 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.CompletableFuture;
 
 import controller.ReversiController;
+import engine.Bitboard;
+import engine.ComputeScheduler;
+import engine.EngineSettings;
+import engine.GameClock;
+import engine.GameRecord;
+import engine.Player;
+import engine.Search;
+import engine.WarmUp;
+import events.GameStateEvent;
+import events.StartupEvent;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
-import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
@@ -22,21 +38,22 @@ import javafx.scene.control.MenuItem;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
-import javafx.scene.layout.Border;
 import javafx.scene.layout.BorderPane;
-import javafx.scene.layout.BorderStroke;
-import javafx.scene.layout.BorderStrokeStyle;
-import javafx.scene.layout.BorderWidths;
-import javafx.scene.layout.CornerRadii;
-import javafx.scene.layout.StackPane;
-import javafx.scene.layout.TilePane;
+import javafx.scene.layout.VBox;
 import javafx.scene.paint.Paint;
-import javafx.scene.shape.Circle;
-import javafx.scene.shape.Shape;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+import model.IllegalUserInputException;
 import model.ReversiBoard;
 import model.ReversiModel;
+import net.GameFeed;
+import net.SpectatorServer;
+import storage.ArchivedGame;
+import storage.GameArchiveWriter;
+import storage.PositionIndex;
+import storage.PositionStats;
+import storage.SearchCache;
 
 /**
  * Main view class for Reversi GUI.
@@ -48,10 +65,49 @@ import model.ReversiModel;
 public class ReversiView extends javafx.application.Application implements Observer{
 	
 	private ReversiBoard observableBoard;
-	private StackPane[][] positions;
+	private BoardCanvas board;
 	private Label score = new Label();
+	private Label clockLabel = new Label();
+	private GameClock clock;
+	private Timeline clockTicker;
 	private boolean humanTurn = true;
 	private boolean gameOver = false;
+	
+	//set while the computer works out its move off the FX thread, clicks are ignored until it's made
+	private boolean thinking = false;
+	
+	//set when the window is closed mid move, the game is saved and the window closed once it's made
+	private volatile boolean closing = false;
+	private Stage stage;
+	private volatile PositionIndex positionIndex;
+	private volatile SearchCache searchCache;
+	private boolean loadingStarted = false;
+	private boolean firstMoveLogged = false;
+	private SpectatorServer spectators;
+	private GameFeed feed;
+	private volatile Player engine;
+	
+	//finished games go into one writer for the whole session, closed when the window is
+	private GameArchiveWriter archive;
+	
+	//the computer's search, made and warmed up in the background while the board is up
+	private final CompletableFuture<Search> computerSearch = new CompletableFuture<>();
+	
+	//the computer's moves run as interactive work, warming up and other background searches as batch
+	private final ComputeScheduler scheduler = new ComputeScheduler(Runtime.getRuntime().availableProcessors());
+	
+	//5 minutes each plus 3 seconds a move
+	private static final String DEFAULT_CLOCK = "5+3";
+	
+	//finished games are kept here
+	private static final String GAME_ARCHIVE = "games.rga";
+	
+	//milliseconds the engine is warmed up for, -Dreversi.warmup changes it (0 for none)
+	private static final long DEFAULT_WARMUP = 500;
+	
+	//when the JVM was started, startup milestones are timed from here
+	private static final long LAUNCHED = ProcessHandle.current().info().startInstant()
+			.map(Instant::toEpochMilli).orElse(System.currentTimeMillis());
 
 	@Override
 	/**
@@ -61,6 +117,7 @@ public class ReversiView extends javafx.application.Application implements Obser
 	 */
 	public void start(Stage primaryStage) {
 		
+		stage = primaryStage;
 		ReversiModel model = new ReversiModel();
 
 		//checks if save_game.dat exists in the same directory as the program file.
@@ -69,6 +126,8 @@ public class ReversiView extends javafx.application.Application implements Obser
 		if(f.exists()) {
 			
 			FileInputStream fis = null;
+			GameStateEvent event = new GameStateEvent();
+			event.begin();
 			
 			try {
 				fis = new FileInputStream("save_game.dat");
@@ -78,55 +137,81 @@ public class ReversiView extends javafx.application.Application implements Obser
 				ois.close();
 				fis.close();
 				this.humanTurn = observableBoard.humanTurn;
+				event.success = true;
 				
 			} catch (IOException | ClassNotFoundException e) {
 				// since we already checked for existence of save_game, this should only
 				// occur when the save_game.dat doesn't contain a ReversiBoard object.
 				// Then it will just ignore it and create a new board
-			}	
+			}
+			
+			commitStateEvent(event, "load", f);
 		}
 		
 		//adds to observer list of model
 		model.addObserver(this);		
+		
+		//streams the game to spectators when started with -Dreversi.spectators=port
+		if(feed == null && System.getProperty("reversi.spectators") != null) {
+			try {
+				spectators = new SpectatorServer(Integer.parseInt(System.getProperty("reversi.spectators")));
+				feed = new GameFeed("game");
+				spectators.addFeed(feed);
+			} catch (IOException | NumberFormatException e) {
+				System.err.println("No spectator server: " + e.getMessage());
+			}
+		}
+		if(feed != null) {
+			model.addObserver(feed);
+			feed.reset(model.getBoard());
+		}
 		ReversiController controller = new ReversiController(model);
 		
+		//everything big is loaded in the background so the board comes up right away,
+		//only on the first start, a new game keeps what's been loaded
+		boolean firstStart = !loadingStarted;
+		if(firstStart) {
+			loadingStarted = true;
+			startLoading();
+		}
+		
+		//sets up the game clock from -Dreversi.clock, "minutes+seconds" or "seconds/move",
+		//and ticks the clock display while it runs
+		try {
+			clock = GameClock.parse(System.getProperty("reversi.clock", DEFAULT_CLOCK));
+		} catch (NumberFormatException e) {
+			clock = GameClock.parse(DEFAULT_CLOCK);
+		}
+		controller.setClock(clock);
+		if(clockTicker != null) {
+			clockTicker.stop();
+		}
+		clockTicker = new Timeline(new KeyFrame(Duration.millis(200), tick -> updateClock()));
+		clockTicker.setCycleCount(Animation.INDEFINITE);
+		clockTicker.play();
+		if(humanTurn) {
+			clock.start('W');
+		}
+		updateClock();
+		
 		//calculates initial legal moves, any other calculations to be done during mouse event
 		controller.calculateLegal();		
 		
-		//creates the board as a TilePane with black borders, 8x8
-		Border border = new Border(new BorderStroke(Paint.valueOf("BLACK"), BorderStrokeStyle.SOLID, CornerRadii.EMPTY, new BorderWidths(1)));
-		TilePane board = new TilePane();
-		board.setPrefColumns(8);
-		board.setPrefRows(8);
-		board.setPadding(new Insets(8));
-		board.setBackground(new Background(new BackgroundFill(Paint.valueOf("GREEN"), null, null)));
-		
-		//creates the stackpanes holding the circles that represent game pieces
-		positions = new StackPane[8][8];
-		for(int i=0; i<8; i++) {
-			for(int j=0; j<8; j++) {
-				positions[i][j] = new StackPane();
-				positions[i][j].setBorder(border);
-				positions[i][j].setPadding(new Insets(2));
-				
-				positions[i][j].getChildren().add(new Circle(20, Paint.valueOf("TRANSPARENT")));
-				board.getChildren().add(positions[i][j]);
-			}
-		}		
+		//draws the board on a single canvas, optionally with flip animation (-Dreversi.animate)
+		//and the human's legal moves marked (-Dreversi.hints)
+		if(board != null) {
+			board.stop();
+		}
+		board = new BoardCanvas(Boolean.parseBoolean(System.getProperty("reversi.animate", "true")),
+				Boolean.parseBoolean(System.getProperty("reversi.hints", "false")));
 		
 		//make sure we have the correct board
 		observableBoard = model.getBoard();
 		
 		//initial board set up, or loads old game's set up
-		for(int i=0; i<8; i++) {
-			for(int j=0; j<8; j++) {
-				if(observableBoard.getColorAt(i,j) == '_') {
-					continue;
-				}
-				((Shape) positions[i][j].getChildren().get(0)).setFill(Paint.valueOf(observableBoard.getColorAt(i, j) == 'W' ? "WHITE" : "BLACK"));
-			}
-		}
-		score.setText("White: " + observableBoard.getHumanCount() + " - Black: " + observableBoard.getComputerCount());
+		board.setBoard(observableBoard.getBoard());
+		updateHints();
+		score.setText("White: " + observableBoard.getHumanCount() + " - Black: " + observableBoard.getComputerCount() + databaseText());
 		
 		//formatting for our score board
 		score.setBackground(new Background(new BackgroundFill(Paint.valueOf("WHITE"), null, null)));
@@ -141,6 +226,11 @@ public class ReversiView extends javafx.application.Application implements Obser
 			@Override
 			public void handle(ActionEvent e) {
 				
+				//the computer's move still in progress belongs to this game
+				if(thinking) {
+					return;
+				}
+				
 				//if we create a new game, delete the old save_game file
 				File f = new File("save_game.dat");
 				f.delete();
@@ -153,7 +243,7 @@ public class ReversiView extends javafx.application.Application implements Obser
 		//connects all the pieces of the board in a border pane
 		BorderPane bp = new BorderPane();
 		bp.setCenter(board);
-		bp.setBottom(score);
+		bp.setBottom(new VBox(score, clockLabel));
 		bp.setTop(menu);
 		
 		//makes so we can't resize the board and screw up the 8x8 formatting
@@ -163,6 +253,9 @@ public class ReversiView extends javafx.application.Application implements Obser
 		primaryStage.setTitle("Reversi");
 		primaryStage.setScene(scene);
 		primaryStage.show();
+		if(firstStart) {
+			logStartup("interactive");
+		}
 		
 		
 		// mouse click listener, checks where we clicked and translates that
@@ -170,6 +263,9 @@ public class ReversiView extends javafx.application.Application implements Obser
 		// then performs a computer turn. 
 		scene.setOnMousePressed(new EventHandler<MouseEvent>() {			
 			public void handle(MouseEvent event) {
+				if(thinking) {
+					return;
+				}
 				controller.calculateLegal();
 				if(humanTurn) {
 				
@@ -200,65 +296,329 @@ public class ReversiView extends javafx.application.Application implements Obser
 					//recalculate legal moves
 					controller.calculateLegal();
 					
+					clock.stop();
 					humanTurn = false;
 				}
 				
 				else {
-					//make computer turn
+					//make computer turn, the rest of this click happens once it's made
 					controller.calculateLegal();
 					if(controller.hasLegal(false)) {
-						controller.computerTurn();
-						controller.calculateLegal();
+						computerTurn(controller);
+						return;
 					}
+					clock.start('W');
 					humanTurn = true;
 				}
 				
-				//update score
-				score.setText("White: " + observableBoard.getHumanCount() + " - Black: " + observableBoard.getComputerCount());
-				
-				//if nobody has moves left, alert that the game is over and determine whether the human won
-				if(!controller.hasLegal(true) && !controller.hasLegal(false)) {	
-					Alert alert = new Alert(AlertType.INFORMATION);
-					alert.initModality(Modality.WINDOW_MODAL);
-					
-					
-					
-					if(controller.didHumanWin()) {
-						alert.setContentText("You Won!");
-						alert.showAndWait();
-					}
-					else {
-						alert.setContentText("You Lost...");
-						alert.showAndWait();
-					}
-					
-					File f = new File("save_game.dat");
-					f.delete();
-					
-					gameOver = true;
-				}
+				afterTurn(controller);
 			}
 		});
 		
 		//create a save_game.dat file storing the ReversiBoard when we close the window before a game is over.
 		primaryStage.setOnCloseRequest(event -> {
-			FileOutputStream fos;
+			
+			//the computer's move is still going onto the board and may be using the cache and
+			//archive, so the search is cut short and the rest waits until the move is made
+			if(thinking) {
+				event.consume();
+				closing = true;
+				computerSearch.thenAccept(Search::stop);
+				return;
+			}
+			saveAndClose();
+		});
+	}
+	
+	/**
+	 * saves an unfinished game and closes the session's files, once nothing
+	 * else is touching the board
+	 */
+	private void saveAndClose() {
+		observableBoard.humanTurn = humanTurn;
+		
+		if(!gameOver) {
+			GameStateEvent saveEvent = new GameStateEvent();
+			saveEvent.begin();
 			try {
-				
-				observableBoard.humanTurn = humanTurn;
-				
-				if(!gameOver) {
-					fos = new FileOutputStream("save_game.dat");
-					ObjectOutputStream oos = new ObjectOutputStream(fos);
-					oos.writeObject(observableBoard);
-					oos.close();
-				}
+				FileOutputStream fos = new FileOutputStream("save_game.dat");
+				ObjectOutputStream oos = new ObjectOutputStream(fos);
+				oos.writeObject(observableBoard);
+				oos.close();
+				saveEvent.success = true;
 			} catch (IOException e) {
 				e.printStackTrace();
+			} finally {
+				//a failed save is recorded too, with success left false
+				commitStateEvent(saveEvent, "save", new File("save_game.dat"));
+			}
+		}
+		
+		//writes out anything the search cache still has queued, the session's archived games,
+		//and disconnects spectators
+		try {
+			if(searchCache != null) {
+				searchCache.close();
+			}
+			if(archive != null) {
+				archive.close();
+			}
+			if(spectators != null) {
+				spectators.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * makes the computer's move on a background thread, a search can take a
+	 * second or more and the window, clock and animations have to keep going
+	 * meanwhile. The board follows along as pieces change (see update), the
+	 * rest of the turn is finished on the FX thread once the move is made.
+	 * 
+	 * @param controller the game's controller
+	 */
+	private void computerTurn(ReversiController controller) {
+		thinking = true;
+		
+		//runs once the engine is ready, right away unless it's still warming up (only ever the
+		//first move), and never on the FX thread even if it's already done
+		computerSearch.thenAcceptAsync(search -> {
+			try {
+				controller.setSearch(search);
+				controller.setScheduler(scheduler);
+				controller.setEngine(engine);
+				controller.setSearchCache(searchCache);
+				controller.computerTurn();
+				controller.calculateLegal();
+			} finally {
+				Platform.runLater(() -> {
+					if(!firstMoveLogged) {
+						firstMoveLogged = true;
+						logStartup("first move");
+					}
+					thinking = false;
+					humanTurn = true;
+					
+					//the window was closed while the move was made, finish closing it now it's on the board
+					if(closing) {
+						if(!controller.hasLegal(true) && !controller.hasLegal(false)) {
+							endGame(controller);
+						}
+						saveAndClose();
+						stage.close();
+						return;
+					}
+					clock.start('W');
+					afterTurn(controller);
+				});
 			}
+		}, task -> background("computer-turn", task));
+	}
+	
+	/**
+	 * brings the hints and score up to date after a turn, and ends the game if
+	 * nobody has a move left
+	 * 
+	 * @param controller the game's controller
+	 */
+	private void afterTurn(ReversiController controller) {
+		updateHints();
+		
+		//update score
+		score.setText("White: " + observableBoard.getHumanCount() + " - Black: " + observableBoard.getComputerCount() + databaseText());
+		
+		//if nobody has moves left, alert that the game is over and determine whether the human won
+		if(!controller.hasLegal(true) && !controller.hasLegal(false)) {	
+			Alert alert = new Alert(AlertType.INFORMATION);
+			alert.initModality(Modality.WINDOW_MODAL);
 			
+			if(controller.didHumanWin()) {
+				alert.setContentText("You Won!");
+				alert.showAndWait();
+			}
+			else {
+				alert.setContentText("You Lost...");
+				alert.showAndWait();
+			}
+			endGame(controller);
+		}
+	}
+	
+	/**
+	 * ends a game nobody has a move left in, its save is deleted, it's
+	 * archived and the clocks stopped
+	 * 
+	 * @param controller the game's controller
+	 */
+	private void endGame(ReversiController controller) {
+		File f = new File("save_game.dat");
+		f.delete();
+		archiveGame(controller);
+		
+		clock.stop();
+		clockTicker.stop();
+		updateClock();
+		gameOver = true;
+	}
+	
+	/**
+	 * loads the data files and the computer's engine on background threads. The
+	 * search cache and game database are picked up as soon as they're ready, the
+	 * search is warmed up first so the computer's first move isn't searched by a
+	 * JVM that hasn't compiled anything yet.
+	 */
+	private void startLoading() {
+		
+		//maps the game database index, if one has been built with tools.WthorImporter
+		background("data-loader", () -> {
+			if(new File("positions.idx").exists()) {
+				try {
+					positionIndex = PositionIndex.openReadOnly(Paths.get("positions.idx"));
+				} catch (IOException e) {
+					// a missing or damaged index just means no database statistics
+				}
+			}
+			logStartup("data loaded");
+		});
+		
+		//plays the computer with another engine when started with e.g. -Dreversi.engine=mcts,millis=2000
+		//(see EngineSettings), made once so a Monte Carlo tree carries over between games.
+		//The alpha-beta search is made and warmed up either way, it's what warms up the move generation
+		background("engine-loader", () -> {
+			Search search = null;
+			try {
+				if(System.getProperty("reversi.engine") != null) {
+					try {
+						engine = EngineSettings.parse(System.getProperty("reversi.engine")).createPlayer();
+					} catch (IllegalUserInputException | IOException e) {
+						System.err.println("Using the default engine: " + e.getMessage());
+					}
+				}
+				search = ReversiController.createSearch();
+				search.setScheduler(scheduler);
+				
+				//maps the persistent search cache, wiped if it was filled with other weights or ProbCut parameters
+				try {
+					searchCache = SearchCache.open(Paths.get("search_cache.dat"), 20, search.fingerprint());
+				} catch (IOException e) {
+					// no cache just means the computer searches everything from scratch
+				}
+				scheduler.acquire(ComputeScheduler.BATCH, ComputeScheduler.NO_DEADLINE);
+				try {
+					WarmUp.run(search, Long.getLong("reversi.warmup", DEFAULT_WARMUP));
+				} finally {
+					scheduler.release();
+				}
+				logStartup("engine ready");
+			} finally {
+				// without a search the controller makes its own
+				computerSearch.complete(search);
+			}
 		});
 	}
+	
+	/**
+	 * runs a task on its own daemon thread, so it never keeps the program open
+	 * 
+	 * @param name the thread's name
+	 * @param task the task to run
+	 */
+	private static void background(String name, Runnable task) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * logs how long after the JVM started a startup milestone was reached, to the
+	 * console and as a Flight Recorder event
+	 * 
+	 * @param milestone what was reached
+	 */
+	private static void logStartup(String milestone) {
+		long sinceLaunch = System.currentTimeMillis() - LAUNCHED;
+		StartupEvent event = new StartupEvent();
+		event.milestone = milestone;
+		event.sinceLaunch = sinceLaunch;
+		event.commit();
+		System.err.println("Startup: " + milestone + " after " + sinceLaunch + " ms");
+	}
+	
+	/**
+	 * adds the finished game to the game archive, games.rga. The archive is
+	 * opened with the first finished game and kept open, games are only written
+	 * out a block at a time and the index once, when the window is closed.
+	 * 
+	 * @param controller the controller the game was played through
+	 */
+	private void archiveGame(ReversiController controller) {
+		GameRecord record = controller.getGameRecord();
+		if(record == null) {
+			return;
+		}
+		boolean humanFirst = controller.getFirstSide() == 'W';
+		try {
+			if(archive == null) {
+				archive = GameArchiveWriter.open(Paths.get(GAME_ARCHIVE));
+			}
+			archive.add(new ArchivedGame(humanFirst ? "Human" : "Computer", humanFirst ? "Computer" : "Human", System.currentTimeMillis(), record));
+		} catch (IOException e) {
+			// the game still counts, it just isn't kept
+		}
+	}
+	
+	/**
+	 * marks the human's legal moves on the board while it's their turn
+	 */
+	private void updateHints() {
+		char[][] squares = observableBoard.getBoard();
+		board.setHints(humanTurn ? Bitboard.legalMoves(Bitboard.fromBoard(squares, 'W'), Bitboard.fromBoard(squares, 'B')) : 0);
+	}
+	
+	/**
+	 * shows both sides' remaining time
+	 */
+	private void updateClock() {
+		clockLabel.setText("Clock - White: " + clock.format('W') + " - Black: " + clock.format('B'));
+	}
+	
+	/**
+	 * looks the current position up in the game database, if there is one
+	 * 
+	 * @return the database's statistics for the side to move, or an empty string
+	 */
+	private String databaseText() {
+		if(positionIndex == null) {
+			return "";
+		}
+		char side = humanTurn ? 'W' : 'B';
+		char other = humanTurn ? 'B' : 'W';
+		char[][] board = observableBoard.getBoard();
+		PositionStats stats = positionIndex.lookup(Bitboard.fromBoard(board, side), Bitboard.fromBoard(board, other));
+		if(stats == null) {
+			return " | Database: no games";
+		}
+		return String.format(" | Database: %d games, %.0f%% wins, avg %+.1f", stats.getGames(), stats.getWinRate() * 100, stats.getAverageScore());
+	}
+	
+	/**
+	 * fills in and commits a save/load event if the running recording wants it
+	 * 
+	 * @param event the event begun before the file was touched
+	 * @param operation "save" or "load"
+	 * @param f the game state file
+	 */
+	private void commitStateEvent(GameStateEvent event, String operation, File f) {
+		event.end();
+		if(event.shouldCommit()) {
+			event.operation = operation;
+			event.path = f.getPath();
+			event.bytes = f.length();
+			event.commit();
+		}
+	}
 
 	@Override
 	/**
@@ -268,15 +628,32 @@ public class ReversiView extends javafx.application.Application implements Obser
 	 * @param board a ReversiBoard object
 	 */
 	public void update(Observable arg0, Object board) {
-		this.observableBoard = (ReversiBoard) board;
-		int[] move = observableBoard.getMove();
-		char color = observableBoard.getMoveColor();
+		ReversiBoard changed = (ReversiBoard) board;
+		int[] move = changed.getMove();
+		if(move == null) {
+			this.observableBoard = changed;
+			return;
+		}
 		
-		//updates the board with the most recent change
-		if(move != null) {
-			((Shape) this.positions[move[0]][move[1]].getChildren().get(0)).setFill(Paint.valueOf(color == 'W' ? "WHITE" : "BLACK"));
+		//the computer moves off the FX thread, so the change is copied out (the board reuses
+		//its move array) and shown on the FX thread
+		int x = move[0];
+		int y = move[1];
+		char color = changed.getMoveColor();
+		int humanCount = changed.getHumanCount();
+		int computerCount = changed.getComputerCount();
+		Runnable show = () -> {
+			this.observableBoard = changed;
 			
-			score.setText("White: " + observableBoard.getHumanCount() + " - Black: " + observableBoard.getComputerCount());
+			//updates the board with the most recent change
+			this.board.setSquare(x, y, color);
+			score.setText("White: " + humanCount + " - Black: " + computerCount);
+		};
+		if(Platform.isFxApplicationThread()) {
+			show.run();
+		}
+		else {
+			Platform.runLater(show);
 		}
 	}
 }